@@ -0,0 +1,225 @@
+package Connection_client_server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The length prefixed binary wire format negotiated at LOGIN.
+ * Each frame has the following layout, all numbers are big endian:
+ *
+ * magic    1 byte      always {@link #MAGIC}, never a printable character
+ * opcode   1 byte      {@link MessageType#getCode()}
+ * length   4 bytes     the number of bytes of the body
+ * body     the correlation id (4 bytes), argc (2 bytes) followed by argc typed arguments
+ *
+ * Each argument starts with a one byte tag:
+ *
+ * 'I' followed by a 4 byte int
+ * 'L' followed by a 8 byte long
+ * 'S' followed by a 4 byte length and the UTF-8 bytes of the string
+ * 'B' followed by a 4 byte length and the raw bytes
+ *
+ * A DATA frame always holds the transfer id followed by the bytes, so its first
+ * {@link #DATA_HEADER_SIZE} bytes can be written and read apart from the payload.
+ * Such a frame may exceed {@link #MAX_FRAME_SIZE}, it is read by a {@link DataFrameReader}.
+ */
+public class BinaryMessageCodec extends MessageCodec {
+
+    // the first byte of every binary frame, used to tell it apart from a text line
+    public static final byte MAGIC = (byte) 0xA5;
+
+    // the size of magic, opcode and length
+    public static final int HEADER_SIZE = 6;
+
+    // the size of a DATA frame without its payload: header, id, argc, the transfer id and the length of the bytes
+    public static final int DATA_HEADER_SIZE = HEADER_SIZE + 6 + 5 + 5;
+
+    // the size of the correlation id and argc, the smallest body
+    private static final int BODY_HEADER_SIZE = 6;
+
+    private static final byte TAG_INT = 'I';
+    private static final byte TAG_LONG = 'L';
+    private static final byte TAG_STRING = 'S';
+    private static final byte TAG_BYTES = 'B';
+
+    private final ByteBuffer dataHeader = ByteBuffer.allocate(DATA_HEADER_SIZE);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return BINARY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void encodeTo(Message message) {
+        if (message.argumentCount() > MAX_ARGUMENTS){
+            throw new IllegalArgumentException("message exceeds the max of "+MAX_ARGUMENTS+" arguments");
+        }
+        reserve(HEADER_SIZE + BODY_HEADER_SIZE)
+                .put(MAGIC)
+                .put((byte) message.getMessageType().getCode())
+                .putInt(0)
+                .putInt(message.getId())
+                .putShort((short) message.argumentCount());
+        for (int i = 0; i < message.argumentCount(); i++){
+            switch (message.getArgumentKind(i)){
+                case Message.ARG_INT:
+                    reserve(5).put(TAG_INT).putInt(message.getArgumentInteger(i));
+                    break;
+                case Message.ARG_LONG:
+                    reserve(9).put(TAG_LONG).putLong(message.getArgumentLong(i));
+                    break;
+                case Message.ARG_BYTES: {
+                    ByteBuffer bytes = message.getArgumentBytes(i);
+                    reserve(5 + bytes.remaining()).put(TAG_BYTES).putInt(bytes.remaining()).put(bytes);
+                    break;
+                }
+                default:
+                    CharSequence chars = message.getArgumentChars(i);
+                    reserve(5).put(TAG_STRING).putInt(utf8Length(chars));
+                    putUtf8(chars);
+                    break;
+            }
+        }
+        ByteBuffer out = reserve(0);
+        out.putInt(2, out.position() - HEADER_SIZE);
+    }
+
+    /**
+     * Encodes the header of a DATA frame whose payload is written right after it
+     * by the caller. The returned buffer is only valid until the next call of this method.
+     *
+     * @param transferId the id of the transfer
+     * @param length the number of payload bytes which follow the header
+     * @return the buffer ready to be read which contains the header
+     */
+    public ByteBuffer encodeDataHeader(int transferId, int length){
+        dataHeader.clear();
+        dataHeader.put(MAGIC)
+                .put((byte) MessageType.DATA.getCode())
+                .putInt(DATA_HEADER_SIZE - HEADER_SIZE + length)
+                .putInt(0)
+                .putShort((short) 2)
+                .put(TAG_INT).putInt(transferId)
+                .put(TAG_BYTES).putInt(length);
+        dataHeader.flip();
+        return dataHeader;
+    }
+
+    /**
+     * Checks if the next unread bytes of the buffer start a DATA frame
+     *
+     * @param in the buffer ready to be read
+     * @return true if a DATA frame starts at the position of the buffer, false otherwise
+     */
+    public static boolean isDataFrame(ByteBuffer in){
+        return in.remaining() >= 2 && in.get(in.position()) == MAGIC
+                && (in.get(in.position() + 1) & 0xFF) == MessageType.DATA.getCode();
+    }
+
+    /**
+     * Returns the payload length of the DATA frame at the position of the buffer,
+     * the buffer must hold at least {@link #DATA_HEADER_SIZE} bytes
+     *
+     * @param in the buffer ready to be read
+     * @return the number of payload bytes
+     * @throws ProtocolException if the frame does not have the layout of a DATA frame
+     */
+    public static int dataPayloadLength(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        int length = in.getInt(start + 18);
+        if (in.getShort(start + 10) != 2 || in.get(start + 12) != TAG_INT || in.get(start + 17) != TAG_BYTES
+                || length < 0 || in.getInt(start + 2) != DATA_HEADER_SIZE - HEADER_SIZE + length){
+            throw new ProtocolException("malformed DATA frame");
+        }
+        return length;
+    }
+
+    /**
+     * Returns the transfer id of the DATA frame at the position of the buffer
+     *
+     * @param in the buffer ready to be read
+     * @return the transfer id
+     */
+    public static int dataTransferId(ByteBuffer in){
+        return in.getInt(in.position() + 13);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(ByteBuffer in) throws ProtocolException {
+        if (in.remaining() < HEADER_SIZE) return null;
+        int start = in.position();
+        if (in.get(start) != MAGIC){
+            throw new ProtocolException("not a binary frame");
+        }
+        int length = in.getInt(start + 2);
+        if (length < BODY_HEADER_SIZE || length > MAX_FRAME_SIZE - HEADER_SIZE){
+            in.position(in.limit());
+            throw new ProtocolException("invalid frame length "+length);
+        }
+        if (in.remaining() < HEADER_SIZE + length) return null;
+
+        int end = start + HEADER_SIZE + length;
+        int limit = in.limit();
+        // the id is read first, so a frame which does not parse can still be answered
+        int id = in.getInt(start + HEADER_SIZE);
+        in.limit(end);
+        try {
+            Message message = new Message(MessageType.fromCode(in.get(start + 1) & 0xFF));
+            in.position(start + HEADER_SIZE);
+            message.setId(in.getInt());
+            int argc = in.getShort() & 0xFFFF;
+            for (int i = 0; i < argc; i++){
+                byte tag = in.get();
+                if (TAG_INT == tag){
+                    message.addArgument(in.getInt());
+                }
+                else if (TAG_LONG == tag){
+                    message.addArgument(in.getLong());
+                }
+                else if (TAG_STRING == tag){
+                    int len = in.getInt();
+                    if (len < 0 || len > in.remaining()){
+                        throw new IllegalArgumentException("string argument overflows the frame");
+                    }
+                    message.addArgument(new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8));
+                    in.position(in.position() + len);
+                }
+                else if (TAG_BYTES == tag){
+                    int len = in.getInt();
+                    if (len < 0 || len > in.remaining()){
+                        throw new IllegalArgumentException("byte argument overflows the frame");
+                    }
+                    byte[] bytes = new byte[len];
+                    in.get(bytes);
+                    message.addArgument(bytes, 0, len);
+                }
+                else {
+                    throw new IllegalArgumentException("unknown argument tag "+tag);
+                }
+            }
+            return message;
+        }
+        catch (RuntimeException e){
+            throw new MalformedMessageException(id, e instanceof IllegalArgumentException ? e.getMessage() : "malformed frame", e);
+        }
+        finally {
+            in.limit(limit);
+            in.position(end);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package Connection_client_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Reads the binary DATA frames of a connection. Only the header of a frame is decoded,
+ * the payload is written into the file of its {@link IncomingTransfer} from the bytes
+ * already buffered and then straight from the channel, so a chunk is never copied into
+ * a message. The payload of an unknown or failed transfer is read and dropped, the
+ * connection stays usable. Works with both blocking and non blocking channels.
+ */
+public class DataFrameReader {
+
+    private static final int DISCARD_BUFFER_SIZE = 8 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private volatile IntFunction<IncomingTransfer> transfers = id -> null;
+
+    private IncomingTransfer transfer;
+    private int transferId;
+    // the payload bytes still to read, -1 if no frame is in progress
+    private long remaining = -1;
+    private long stored;
+    private ByteBuffer discard;
+
+    /**
+     * Sets the lookup of the running incoming transfers of the connection
+     *
+     * @param transfers returns the transfer for a transfer id, or <code>null</code>
+     */
+    public void setTransfers(IntFunction<IncomingTransfer> transfers){
+        this.transfers = null == transfers ? id -> null : transfers;
+    }
+
+    /**
+     * Checks if the next bytes belong to a DATA frame, the remaining payload
+     * of the current one or the start of a new one
+     *
+     * @param in the buffer ready to be read
+     * @return true if {@link #read(ByteBuffer, ReadableByteChannel)} has to read the next bytes
+     */
+    public boolean accepts(ByteBuffer in){
+        return remaining >= 0 || BinaryMessageCodec.isDataFrame(in);
+    }
+
+    /**
+     * Returns weather the payload of a frame is partly read
+     *
+     * @return true if a frame is in progress, false otherwise
+     */
+    public boolean isActive(){
+        return remaining >= 0;
+    }
+
+    /**
+     * Reads the DATA frame from the buffer and then from the channel.
+     * Once the payload is stored a DATA message is returned which has the number of
+     * stored bytes as a long instead of the bytes, the end of file frame is returned as is.
+     *
+     * @param in the buffer ready to be read, holding the bytes read from the channel so far
+     * @param channel the channel the rest of the payload is read from
+     * @return the DATA message, <code>null</code> if more bytes are required
+     * @throws IOException if the channel fails or the frame is malformed
+     */
+    public Message read(ByteBuffer in, ReadableByteChannel channel) throws IOException {
+        if (remaining < 0){
+            if (in.remaining() < BinaryMessageCodec.DATA_HEADER_SIZE) return null;
+            int length = BinaryMessageCodec.dataPayloadLength(in);
+            transferId = BinaryMessageCodec.dataTransferId(in);
+            in.position(in.position() + BinaryMessageCodec.DATA_HEADER_SIZE);
+            if (0 == length){
+                return new Message(MessageType.DATA).addArgument(transferId).addArgument(EMPTY, 0, 0);
+            }
+            transfer = transfers.apply(transferId);
+            remaining = length;
+            stored = 0;
+        }
+        if (in.hasRemaining()){
+            int len = (int) Math.min(in.remaining(), remaining);
+            int limit = in.limit();
+            in.limit(in.position() + len);
+            try {
+                store(in);
+            }
+            finally {
+                in.limit(limit);
+            }
+            remaining -= len;
+        }
+        while (remaining > 0){
+            long len = transferFrom(channel);
+            if (len <= 0) return null;
+            remaining -= len;
+        }
+        remaining = -1;
+        transfer = null;
+        return new Message(MessageType.DATA).addArgument(transferId).addArgument(stored);
+    }
+
+    private void store(ByteBuffer in){
+        if (null != transfer){
+            try {
+                stored += transfer.write(in);
+                return;
+            }
+            catch (IOException e){
+                failTransfer(e);
+            }
+        }
+        in.position(in.limit());
+    }
+
+    private long transferFrom(ReadableByteChannel channel) throws IOException {
+        if (null != transfer){
+            try {
+                long len = transfer.transferFrom(channel, remaining);
+                stored += len;
+                return len;
+            }
+            catch (IOException e){
+                // the file failed or the channel is broken, reading the channel again tells which
+                failTransfer(e);
+            }
+        }
+        if (null == discard) discard = ByteBuffer.allocate(DISCARD_BUFFER_SIZE);
+        discard.clear();
+        discard.limit((int) Math.min(discard.capacity(), remaining));
+        return channel.read(discard);
+    }
+
+    private void failTransfer(IOException e){
+        transfer.fail(e);
+        transfer = null;
+    }
+}
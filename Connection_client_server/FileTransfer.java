@@ -0,0 +1,129 @@
+package Connection_client_server;
+
+import java.io.File;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A single file transfer multiplexed over the command connection.
+ * The file data is sent in {@link MessageType#DATA DATA} frames carrying the transfer id
+ * and a chunk of the file, a chunk of zero bytes marks the end of the file. With the binary codec
+ * a chunk of {@link #DIRECT_CHUNK_SIZE} bytes is sent and received straight between the file and
+ * the socket, otherwise a chunk of {@link #CHUNK_SIZE} bytes is copied into the message.
+ * The receiver grants more credit to the sender with {@link MessageType#ACK ACK} frames, so
+ * at most {@link #WINDOW_SIZE} bytes of a transfer are in flight and several transfers of the
+ * same client share the connection without starving the other messages.
+ */
+public abstract class FileTransfer {
+
+    public static final int CHUNK_SIZE = 16 * 1024;
+    public static final int DIRECT_CHUNK_SIZE = 256 * 1024;
+    public static final int WINDOW_SIZE = 1024 * 1024;
+
+    private final int id;
+    private final Message request;
+    private final File file;
+    protected final MessageSink sink;
+
+    private volatile boolean cancelled = false;
+    private final long startNanos = System.nanoTime();
+    // written only by the thread moving the data of this transfer
+    private volatile long transferredBytes = 0;
+
+    /**
+     * The constructor method
+     *
+     * @param id the transfer id assigned by the server
+     * @param request the PUSH or PULL request this transfer belongs to
+     * @param file the local file to read from or write to
+     * @param sink where the frames of this transfer are written to
+     */
+    protected FileTransfer(int id, Message request, File file, MessageSink sink){
+        if (null == file || null == sink){
+            throw new NullPointerException("file and sink must not null");
+        }
+        this.id = id;
+        this.request = request;
+        this.file = file;
+        this.sink = sink;
+    }
+
+    /**
+     * Returns the id of this transfer
+     *
+     * @return the transfer id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the request this transfer belongs to
+     *
+     * @return the PUSH or PULL request
+     */
+    public Message getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns the local file of this transfer
+     *
+     * @return the file read or written
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns weather this transfer is cancelled
+     *
+     * @return true if cancelled, false otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of bytes of the file sent or received so far
+     *
+     * @return the transferred bytes
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * Returns the time since this transfer was created
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Counts the bytes of the file sent or received, called by the thread moving the data
+     *
+     * @param bytes the number of bytes
+     */
+    protected void addTransferredBytes(long bytes){
+        transferredBytes += bytes;
+    }
+
+    /**
+     * Cancels this transfer and releases its resources
+     */
+    public void cancel(){
+        cancelled = true;
+        onCancel();
+    }
+
+    /**
+     * Called once the transfer is cancelled, from any thread
+     */
+    protected abstract void onCancel();
+}
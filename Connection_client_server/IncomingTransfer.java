@@ -0,0 +1,174 @@
+package Connection_client_server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The receiving side of a {@link FileTransfer}.
+ * The chunks are written to the file either by {@link #receive(Message)} or, for the
+ * binary codec, by the {@link DataFrameReader} of the connection straight from the socket.
+ * The consumed bytes are acknowledged once a quarter of the window is reached.
+ * With a staging file the data is written there and moved over the file once complete,
+ * so the readers of the file never see a partial upload.
+ */
+public class IncomingTransfer extends FileTransfer {
+
+    private static final int ACK_THRESHOLD = WINDOW_SIZE / 4;
+
+    private final File stagingFile;
+    private final FileChannel out;
+    private long position = 0;
+    private int unacknowledged = 0;
+    private volatile boolean closed = false;
+
+    // set by the DataFrameReader if the file could not be written
+    private volatile IOException failure;
+
+    /**
+     * The constructor method, creates or truncates the file
+     *
+     * @param id the transfer id assigned by the server
+     * @param request the PUSH or PULL request this transfer belongs to
+     * @param file the file to write
+     * @param sink where the ACK frames are written to
+     * @throws IOException if the file can not be created
+     */
+    public IncomingTransfer(int id, Message request, File file, MessageSink sink) throws IOException {
+        this(id, request, file, null, sink);
+    }
+
+    /**
+     * The constructor method, the data is written to the staging file and published
+     * by an atomic move over the file when the end of file frame is received
+     *
+     * @param id the transfer id assigned by the server
+     * @param request the PUSH or PULL request this transfer belongs to
+     * @param file the file to publish
+     * @param stagingFile the file to write, on the same file system as the file,
+     *                    <code>null</code> to write the file in place
+     * @param sink where the ACK frames are written to
+     * @throws IOException if the file can not be created
+     */
+    public IncomingTransfer(int id, Message request, File file, File stagingFile, MessageSink sink) throws IOException {
+        super(id, request, file, sink);
+        this.stagingFile = stagingFile;
+        this.out = FileChannel.open((null != stagingFile ? stagingFile : file).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Handles a DATA frame of this transfer. The chunk is written to the file unless
+     * the frame only reports the number of bytes the DataFrameReader already stored.
+     *
+     * @param data the DATA frame of this transfer
+     * @return true if this was the last frame and the file is complete, false otherwise
+     * @throws IOException if the file can not be written or the ACK can not be sent
+     */
+    public synchronized boolean receive(Message data) throws IOException {
+        if (closed) return !isCancelled();
+        if (null != failure) throw failure;
+        if (Message.ARG_LONG == data.getArgumentKind(1)){
+            acknowledge((int) data.getArgumentLong(1));
+            return false;
+        }
+        ByteBuffer chunk = data.getArgumentBytes(1);
+        if (!chunk.hasRemaining()){
+            closed = true;
+            out.close();
+            publish();
+            return true;
+        }
+        acknowledge((int) write(chunk));
+        return false;
+    }
+
+    /**
+     * Writes all the remaining bytes of the buffer to the file
+     *
+     * @param src the bytes to write
+     * @return the number of bytes written
+     * @throws IOException if the file can not be written
+     */
+    long write(ByteBuffer src) throws IOException {
+        long written = 0;
+        while (src.hasRemaining()){
+            written += out.write(src, position + written);
+        }
+        position += written;
+        addTransferredBytes(written);
+        return written;
+    }
+
+    /**
+     * Reads up to count bytes from the channel straight into the file
+     *
+     * @param src the channel to read from
+     * @param count the maximum number of bytes to read
+     * @return the number of bytes written, 0 if the channel has no bytes available
+     * @throws IOException if the channel or the file fails
+     */
+    long transferFrom(ReadableByteChannel src, long count) throws IOException {
+        long written = out.transferFrom(src, position, count);
+        position += written;
+        addTransferredBytes(written);
+        return written;
+    }
+
+    /**
+     * Records that the file could not be written, the next DATA frame fails the transfer
+     *
+     * @param e the cause
+     */
+    void fail(IOException e){
+        failure = e;
+    }
+
+    /**
+     * Moves the complete staging file over the file. The readers which already
+     * opened the file keep reading the previous version.
+     *
+     * @throws IOException if the file can not be replaced
+     */
+    private void publish() throws IOException {
+        if (null == stagingFile) return;
+        try {
+            Files.move(stagingFile.toPath(), getFile().toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e){
+            Files.move(stagingFile.toPath(), getFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void acknowledge(int bytes) throws IOException {
+        unacknowledged += bytes;
+        if (unacknowledged >= ACK_THRESHOLD){
+            sink.writeAck(getId(), unacknowledged);
+            unacknowledged = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onCancel() {
+        if (!closed){
+            closed = true;
+            Util.closeSilently(out);
+        }
+        if (null != stagingFile) stagingFile.delete();
+    }
+}
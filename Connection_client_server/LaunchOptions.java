@@ -0,0 +1,169 @@
+package Connection_client_server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The options of a headless launcher, read from the command line arguments like
+ * <code>--directory /srv/dfs</code> or <code>--directory=/srv/dfs</code>, and from a
+ * properties file given with <code>--config file</code> using the same names without the dashes.
+ * An option on the command line wins over the same option in the file.
+ */
+public class LaunchOptions {
+
+    public static final String CONFIG = "config";
+
+    private static final long LOADED_NANOS = System.nanoTime();
+
+    private final Properties options = new Properties();
+
+    /**
+     * Parses the arguments and loads the config file, if any
+     *
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an argument is not an option or an option has no value
+     * @throws IOException if the config file can not be read
+     */
+    public LaunchOptions(String[] args) throws IOException {
+        Properties arguments = new Properties();
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2){
+                throw new IllegalArgumentException("not an option : "+arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals > 0){
+                arguments.setProperty(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            else if (i + 1 < args.length){
+                arguments.setProperty(arg.substring(2), args[++i]);
+            }
+            else {
+                throw new IllegalArgumentException("no value for the option : "+arg);
+            }
+        }
+        String config = arguments.getProperty(CONFIG);
+        if (null != config){
+            try (InputStream in = new FileInputStream(new File(config))){
+                options.load(in);
+            }
+        }
+        options.putAll(arguments);
+    }
+
+    /**
+     * Returns the value of an option
+     *
+     * @param name the name of the option
+     * @param defaultValue the value if the option is not given
+     * @return the value
+     */
+    public String getString(String name, String defaultValue){
+        String value = options.getProperty(name);
+        return null == value ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns the value of an option which must be given
+     *
+     * @param name the name of the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is not given
+     */
+    public String require(String name){
+        String value = getString(name, null);
+        if (!Util.isNotEmptyString(value)) throw new IllegalArgumentException("the option --"+name+" is required");
+        return value;
+    }
+
+    /**
+     * Returns the value of a numeric option
+     *
+     * @param name the name of the option
+     * @param defaultValue the value if the option is not given
+     * @return the value
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public long getLong(String name, long defaultValue){
+        String value = getString(name, null);
+        if (null == value) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e){
+            throw new IllegalArgumentException("the option --"+name+" must be a number : "+value);
+        }
+    }
+
+    /**
+     * Returns the value of a numeric option
+     *
+     * @param name the name of the option
+     * @param defaultValue the value if the option is not given
+     * @return the value
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public int getInt(String name, int defaultValue){
+        long value = getLong(name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("the option --"+name+" is too large : "+value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the value of an option naming a constant of an enum, in any case
+     *
+     * @param name the name of the option
+     * @param type the enum class
+     * @param defaultValue the value if the option is not given
+     * @param <E> the enum
+     * @return the value
+     * @throws IllegalArgumentException if the value is not a constant of the enum
+     */
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue){
+        String value = getString(name, null);
+        if (null == value) return defaultValue;
+        for (E constant : type.getEnumConstants()){
+            if (constant.name().equalsIgnoreCase(value.replace('-', '_'))) return constant;
+        }
+        throw new IllegalArgumentException("unknown value for the option --"+name+" : "+value);
+    }
+
+    /**
+     * Configures the {@link Log} from the options log-level, like INFO,server.ClientHandler=DEBUG,
+     * log-file, a file rotated once it is larger than log-file-size bytes, and log-caller,
+     * true to write the method logging each record
+     *
+     * @throws IllegalArgumentException if a level is not valid
+     * @throws IOException if the log file can not be opened
+     */
+    public void configureLogging() throws IOException {
+        String levels = getString("log-level", null);
+        if (null != levels) Log.setLevels(levels);
+        String file = getString("log-file", null);
+        if (null != file) Log.setFile(new File(file), getLong("log-file-size", Log.MAX_FILE_SIZE), Log.ROTATED_FILES);
+        Log.setCallerIncluded(Boolean.parseBoolean(getString("log-caller", "false")));
+    }
+
+    /**
+     * Returns the milliseconds between the start of the JVM and now, the startup time
+     * of a launcher once it is ready. Measured from the process start time when the
+     * platform reports it, otherwise from the loading of this class.
+     *
+     * @return the milliseconds since the start of the JVM
+     */
+    public static long millisSinceStart(){
+        return ProcessHandle.current().info().startInstant()
+                .map(start -> System.currentTimeMillis() - start.toEpochMilli())
+                .orElse((System.nanoTime() - LOADED_NANOS) / 1_000_000);
+    }
+}
@@ -0,0 +1,323 @@
+package Connection_client_server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A logger of a category, usually the class using it:
+ *
+ *     private static final Log LOG = Log.forClass(ClientHandler.class);
+ *     if (LOG.isDebugEnabled()) LOG.debug("data transfer begin", "id", transferId, "file", filename);
+ *
+ * Each category has its own level, set at runtime with {@link #setLevel(String, LogLevel)} for a
+ * category and all the categories below it, like "server" for all the classes of the server.
+ * A disabled level costs a single volatile read, so the debug records can stay in the code
+ * and be turned on in production for the part being looked at.
+ *
+ * The records are written asynchronously by a {@link LogWriter}, the logging thread never
+ * waits for the console or the disk. The caller method is found with a {@link StackWalker}
+ * only if {@link #setCallerIncluded(boolean)} is set, or it is passed in explicitly.
+ *
+ * The initial levels and file are read from the system properties dfs.log.level, like
+ * "INFO,server.ClientHandler=DEBUG", and dfs.log.file.
+ */
+public final class Log {
+
+    public static final LogLevel DEFAULT_LEVEL = LogLevel.INFO;
+    public static final int RING_SIZE = 8192;
+    public static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
+    public static final int ROTATED_FILES = 5;
+
+    private static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    // the levels set by category, the empty category is the root
+    private static final Map<String, LogLevel> LEVELS = new ConcurrentHashMap<>();
+    private static final StackWalker WALKER = StackWalker.getInstance();
+    private static final LogWriter WRITER = new LogWriter(RING_SIZE);
+    private static volatile boolean callerIncluded = false;
+
+    static {
+        LEVELS.put("", DEFAULT_LEVEL);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> WRITER.close(2000), "dfs-log-shutdown"));
+        String levels = System.getProperty("dfs.log.level");
+        if (Util.isNotEmptyString(levels)){
+            try {
+                setLevels(levels);
+            }
+            catch (IllegalArgumentException e){
+                System.err.println("dfs.log.level ignored : "+e.getMessage());
+            }
+        }
+        String file = System.getProperty("dfs.log.file");
+        if (Util.isNotEmptyString(file)){
+            try {
+                setFile(new File(file), MAX_FILE_SIZE, ROTATED_FILES);
+            }
+            catch (IOException e){
+                System.err.println("dfs.log.file ignored : "+e.getMessage());
+            }
+        }
+    }
+
+    private final String category;
+    private volatile LogLevel level;
+
+    private Log(String category){
+        this.category = category;
+        this.level = levelOf(category);
+    }
+
+    /**
+     * Returns the logger of a class, its category is the full name of the class
+     *
+     * @param type the class
+     * @return the logger
+     */
+    public static Log forClass(Class<?> type){
+        return forCategory(type.getName());
+    }
+
+    /**
+     * Returns the logger of a category
+     *
+     * @param category the category, names separated by dots
+     * @return the logger, the same one for the same category
+     */
+    public static Log forCategory(String category){
+        Log log = LOGGERS.get(category);
+        if (null != log) return log;
+        // created holding the lock of setLevel, so a new logger never misses a level being set
+        synchronized (Log.class){
+            return LOGGERS.computeIfAbsent(category, Log::new);
+        }
+    }
+
+    /**
+     * Sets the level of a category and of the categories below it which have no level of their own
+     *
+     * @param category the category, the empty string for all the categories
+     * @param level the level, <code>null</code> to use the level of the parent category again
+     */
+    public static synchronized void setLevel(String category, LogLevel level){
+        String key = null == category ? "" : category;
+        if (null != level) LEVELS.put(key, level);
+        else if (!key.isEmpty()) LEVELS.remove(key);
+        for (Log log : LOGGERS.values()){
+            log.level = levelOf(log.category);
+        }
+    }
+
+    /**
+     * Sets the levels from a list separated by commas, a level alone is the level of all the categories
+     * and category=level the level of a category, like "INFO,server.ClientHandler=DEBUG"
+     *
+     * @param levels the levels
+     * @throws IllegalArgumentException if a level is not valid
+     */
+    public static void setLevels(String levels){
+        for (String entry : levels.split(",")){
+            if (entry.trim().isEmpty()) continue;
+            int equal = entry.indexOf('=');
+            if (equal < 0) setLevel("", LogLevel.parse(entry));
+            else setLevel(entry.substring(0, equal).trim(), LogLevel.parse(entry.substring(equal + 1)));
+        }
+    }
+
+    /**
+     * Sets weather the records carry the method logging them, found with a StackWalker
+     *
+     * @param included true to find the caller of each record
+     */
+    public static void setCallerIncluded(boolean included){
+        callerIncluded = included;
+    }
+
+    /**
+     * Writes the records to a file too, rotated once it is larger than maxBytes
+     *
+     * @param file the log file, <code>null</code> to stop writing to a file
+     * @param maxBytes the max size of a file before it is rotated
+     * @param keep the number of rotated files kept
+     * @throws IOException if the file can not be opened
+     */
+    public static void setFile(File file, long maxBytes, int keep) throws IOException {
+        WRITER.setFile(file, maxBytes, keep);
+    }
+
+    /**
+     * Returns the log file, its rotated files are the same path ending with .1, .2 and so on
+     *
+     * @return the file, <code>null</code> if the records are not written to a file
+     */
+    public static File getFile(){
+        return WRITER.getFile();
+    }
+
+    /**
+     * Sets the stream the records are printed to, System.out by default
+     *
+     * @param console the stream, <code>null</code> to not print the records
+     */
+    public static void setConsole(PrintStream console){
+        WRITER.setConsole(console);
+    }
+
+    /**
+     * Waits until the records logged before are written
+     *
+     * @param timeoutMillis the max time to wait
+     */
+    public static void flush(long timeoutMillis){
+        try {
+            WRITER.flush(timeoutMillis);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the category of this logger
+     *
+     * @return the category
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Returns weather the records of a level are written
+     *
+     * @param level the level
+     * @return true if enabled, false otherwise
+     */
+    public boolean isEnabled(LogLevel level){
+        return level.ordinal() <= this.level.ordinal();
+    }
+
+    /**
+     * Returns weather the debug records are written
+     *
+     * @return true if enabled, false otherwise
+     */
+    public boolean isDebugEnabled(){
+        return LogLevel.DEBUG.ordinal() <= level.ordinal();
+    }
+
+    /**
+     * Logs an error
+     *
+     * @param message the message
+     * @param error the cause, may be <code>null</code>
+     */
+    public void error(String message, Throwable error){
+        if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, caller(), message, null, error);
+    }
+
+    /**
+     * Logs a warning
+     *
+     * @param message the message
+     * @param fields the names and the values of the fields of the record, one after the other
+     */
+    public void warn(String message, Object... fields){
+        if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, caller(), message, fields, null);
+    }
+
+    /**
+     * Logs a warning with its cause
+     *
+     * @param message the message
+     * @param error the cause, may be <code>null</code>
+     */
+    public void warn(String message, Throwable error){
+        if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, caller(), message, null, error);
+    }
+
+    /**
+     * Logs a notable event
+     *
+     * @param message the message
+     * @param fields the names and the values of the fields of the record, one after the other
+     */
+    public void info(String message, Object... fields){
+        if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, caller(), message, fields, null);
+    }
+
+    /**
+     * Logs a debug record
+     *
+     * @param message the message
+     * @param fields the names and the values of the fields of the record, one after the other
+     */
+    public void debug(String message, Object... fields){
+        if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, caller(), message, fields, null);
+    }
+
+    /**
+     * Logs a record with the caller passed in, so no stack is walked
+     *
+     * @param level the level
+     * @param caller the method logging the record, may be <code>null</code>
+     * @param message the message
+     * @param fields the names and the values of the fields of the record, one after the other
+     * @param error the cause, may be <code>null</code>
+     */
+    public void log(LogLevel level, String caller, String message, Object[] fields, Throwable error){
+        if (!isEnabled(level)) return;
+        WRITER.offer(new LogWriter.Record(level, category, caller, message,
+                null == fields || 0 == fields.length ? null : fields, error));
+    }
+
+    /**
+     * Finds the method which called the logger if the callers are included
+     */
+    private static String caller(){
+        return callerIncluded ? findCaller() : null;
+    }
+
+    /**
+     * Returns the first method on the stack which is not in this class or in the given classes
+     *
+     * @param skipped the names of the other logging classes
+     * @return the class and the method, like server.ClientHandler.handle
+     */
+    static String findCaller(String... skipped){
+        return WALKER.walk(frames -> frames
+                .filter(frame -> !Log.class.getName().equals(frame.getClassName())
+                        && !isOneOf(frame.getClassName(), skipped))
+                .findFirst()
+                .map(frame -> frame.getClassName()+"."+frame.getMethodName())
+                .orElse(null));
+    }
+
+    private static boolean isOneOf(String name, String[] names){
+        for (String candidate : names){
+            if (candidate.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the level of the closest category with a level set, the category itself,
+     * then its parents, then the root
+     */
+    private static LogLevel levelOf(String category){
+        String current = category;
+        while (true){
+            LogLevel level = LEVELS.get(current);
+            if (null != level) return level;
+            if (current.isEmpty()) return DEFAULT_LEVEL;
+            int dot = current.lastIndexOf('.');
+            current = dot < 0 ? "" : current.substring(0, dot);
+        }
+    }
+}
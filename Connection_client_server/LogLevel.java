@@ -0,0 +1,52 @@
+package Connection_client_server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The levels of the log records, from the most to the least severe.
+ * A logger writes the records of its level and of the more severe levels.
+ */
+public enum LogLevel {
+
+    /**
+     * A failure the server or the client can not recover from by itself
+     */
+    ERROR,
+
+    /**
+     * An unexpected event which is handled, like a client disconnected for a full queue
+     */
+    WARN,
+
+    /**
+     * A notable event, like the start of the server or a recovery
+     */
+    INFO,
+
+    /**
+     * The handling of each request, transfer and delete
+     */
+    DEBUG,
+
+    /**
+     * Every message read or written
+     */
+    TRACE;
+
+    /**
+     * Parses a level ignoring the case
+     *
+     * @param name the name of the level
+     * @return the level
+     * @throws IllegalArgumentException if there is no such level
+     */
+    public static LogLevel parse(String name){
+        for (LogLevel level : values()){
+            if (level.name().equalsIgnoreCase(name.trim())) return level;
+        }
+        throw new IllegalArgumentException("unknown log level : "+name);
+    }
+}
@@ -0,0 +1,373 @@
+package Connection_client_server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The thread writing the log records. A logging thread only puts its record into a ring buffer
+ * of a fixed size and returns, the records are formatted and written by this thread in batches,
+ * to the console and to the log file, with one flush per batch. A record logged while the ring is
+ * full is dropped and counted, so logging never blocks a thread serving a client; the number of
+ * dropped records is written with the next batch.
+ *
+ * The records are written as logfmt lines, a key=value pair for the time, the level, the thread,
+ * the logger, the caller if known, the message and the fields of the record.
+ * The log file is rotated once it is larger than its max size: log.1 is the previous file,
+ * log.2 the one before, and the oldest one is deleted.
+ */
+class LogWriter extends DaemonWorker {
+
+    // the records written with a single flush
+    private static final int MAX_BATCH = 256;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Record[] ring;
+    // the next record to write and the next free slot, both only increasing
+    private long head = 0;
+    private long tail = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    private volatile PrintStream console = System.out;
+    private volatile File path;
+    private RotatingFile file;
+
+    /**
+     * Creates the writer, it writes the records once started
+     *
+     * @param capacity the number of records the ring holds
+     */
+    LogWriter(int capacity){
+        super("dfs-log");
+        this.ring = new Record[Math.max(16, capacity)];
+    }
+
+    /**
+     * Puts a record into the ring, never blocks
+     *
+     * @param record the record
+     * @return true if queued, false if the ring is full or the writer is closed
+     */
+    boolean offer(Record record){
+        lock.lock();
+        try {
+            if (closed || tail - head == ring.length){
+                dropped++;
+                return false;
+            }
+            ring[(int) (tail++ % ring.length)] = record;
+            if (tail - head == 1) appended.signal();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the stream the records are printed to
+     *
+     * @param console the stream, <code>null</code> to not print the records
+     */
+    void setConsole(PrintStream console){
+        this.console = console;
+    }
+
+    /**
+     * Writes the records to a file too, rotated once it is larger than maxBytes.
+     * The previous file is closed by this thread once it switched to the new one.
+     *
+     * @param path the log file, <code>null</code> to stop writing to a file
+     * @param maxBytes the max size of a file before it is rotated
+     * @param keep the number of rotated files kept
+     * @throws IOException if the file can not be opened
+     */
+    void setFile(File path, long maxBytes, int keep) throws IOException {
+        RotatingFile opened = null == path ? null : new RotatingFile(path, maxBytes, keep);
+        lock.lock();
+        try {
+            file = opened;
+            this.path = path;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the log file
+     *
+     * @return the file, <code>null</code> if the records are not written to a file
+     */
+    File getFile(){
+        return path;
+    }
+
+    /**
+     * Waits until the records queued before this call are written
+     *
+     * @param timeoutMillis the max time to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            long target = tail;
+            while (head < target && !closed){
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return;
+                drained.awaitNanos(left);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        Record[] batch = new Record[MAX_BATCH];
+        StringBuilder line = new StringBuilder(256);
+        RotatingFile current = null;
+        while (true){
+            int count = 0;
+            long lost;
+            RotatingFile target;
+            lock.lock();
+            try {
+                while (head == tail && !closed){
+                    appended.awaitUninterruptibly();
+                }
+                if (head == tail) break;
+                while (head < tail && count < batch.length){
+                    int slot = (int) (head++ % ring.length);
+                    batch[count++] = ring[slot];
+                    ring[slot] = null;
+                }
+                lost = dropped;
+                dropped = 0;
+                target = file;
+            }
+            finally {
+                lock.unlock();
+            }
+            StringBuilder text = new StringBuilder(count * 128);
+            if (lost > 0){
+                text.append(format(line, new Record(LogLevel.WARN, LogWriter.class.getName(), null,
+                        "log records dropped, the ring is full", new Object[]{"dropped", lost}, null)));
+            }
+            for (int i = 0; i < count; i++){
+                text.append(format(line, batch[i]));
+                batch[i] = null;
+            }
+            if (current != target){
+                if (null != current) current.close();
+                current = target;
+            }
+            write(text.toString(), current);
+            lock.lock();
+            try {
+                drained.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        lock.lock();
+        try {
+            drained.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (null != current) current.close();
+        if (null != file && file != current) file.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTerminate() throws Throwable {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting records and waits until the queued ones are written
+     *
+     * @param timeoutMillis the max time to wait
+     */
+    void close(long timeoutMillis){
+        terminate();
+        try {
+            join(timeoutMillis);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(String text, RotatingFile target){
+        PrintStream out = console;
+        if (null != out){
+            out.print(text);
+            out.flush();
+        }
+        if (null != target){
+            try {
+                target.write(text.getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException e){
+                if (null != out) out.println("log file not written : "+e);
+            }
+        }
+    }
+
+    /**
+     * Formats a record as a logfmt line
+     */
+    private static String format(StringBuilder line, Record record){
+        line.setLength(0);
+        line.append("time=").append(Instant.ofEpochMilli(record.epochMillis));
+        line.append(" level=").append(record.level);
+        pair(line, "thread", record.thread);
+        pair(line, "logger", record.category);
+        if (null != record.caller) pair(line, "caller", record.caller);
+        pair(line, "msg", record.message);
+        Object[] fields = record.fields;
+        if (null != fields){
+            for (int i = 0; i + 1 < fields.length; i += 2){
+                pair(line, String.valueOf(fields[i]), String.valueOf(fields[i + 1]));
+            }
+        }
+        if (null != record.error) pair(line, "error", record.error.toString());
+        return line.append('\n').toString();
+    }
+
+    /**
+     * Appends a key=value pair, the value is quoted if it has a space, a quote or an equal sign
+     */
+    private static void pair(StringBuilder line, String key, String value){
+        line.append(' ').append(key).append('=');
+        if (null == value) value = "";
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++){
+            char c = value.charAt(i);
+            quote = c <= ' ' || '"' == c || '=' == c;
+        }
+        if (!quote){
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if ('"' == c || '\\' == c) line.append('\\').append(c);
+            else if ('\n' == c) line.append("\\n");
+            else if ('\r' == c) line.append("\\r");
+            else line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * A single log record, created by the logging thread
+     */
+    static class Record {
+        final long epochMillis = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final LogLevel level;
+        final String category;
+        final String caller;
+        final String message;
+        final Object[] fields;
+        final Throwable error;
+
+        Record(LogLevel level, String category, String caller, String message, Object[] fields, Throwable error){
+            this.level = level;
+            this.category = category;
+            this.caller = caller;
+            this.message = message;
+            this.fields = fields;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A log file rotated once it is larger than its max size
+     */
+    private static class RotatingFile {
+        private final File path;
+        private final long maxBytes;
+        private final int keep;
+        private OutputStream out;
+        private long size;
+
+        RotatingFile(File path, long maxBytes, int keep) throws IOException {
+            this.path = path;
+            this.maxBytes = Math.max(1024, maxBytes);
+            this.keep = Math.max(0, keep);
+            File parent = path.getAbsoluteFile().getParentFile();
+            if (null != parent) parent.mkdirs();
+            open();
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (size > 0 && size + bytes.length > maxBytes) rotate();
+            out.write(bytes);
+            out.flush();
+            size += bytes.length;
+        }
+
+        void close(){
+            Util.closeSilently(out);
+        }
+
+        private void open() throws IOException {
+            out = new FileOutputStream(path, true);
+            size = path.length();
+        }
+
+        /**
+         * Renames log to log.1 and each log.n to log.n+1, deleting the oldest file
+         */
+        private void rotate() throws IOException {
+            out.close();
+            if (0 == keep){
+                path.delete();
+            }
+            else {
+                new File(path.getPath()+"."+keep).delete();
+                for (int n = keep - 1; n >= 1; n--){
+                    File older = new File(path.getPath()+"."+n);
+                    if (older.exists()) older.renameTo(new File(path.getPath()+"."+(n + 1)));
+                }
+                path.renameTo(new File(path.getPath()+".1"));
+            }
+            open();
+        }
+    }
+}
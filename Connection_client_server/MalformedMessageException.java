@@ -0,0 +1,37 @@
+package Connection_client_server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Thrown when a message is framed correctly but can not be parsed, like an unknown type
+ * or a broken argument. The frame is consumed, so the next messages can still be read,
+ * and the correlation id is kept when it was read so the sender can be answered.
+ */
+public class MalformedMessageException extends IllegalArgumentException {
+
+    private final int id;
+
+    /**
+     * The constructor method
+     *
+     * @param id the correlation id of the message, 0 if not read
+     * @param message the reason
+     * @param cause the parse failure, may be <code>null</code>
+     */
+    public MalformedMessageException(int id, String message, Throwable cause){
+        super(message, cause);
+        this.id = id;
+    }
+
+    /**
+     * Returns the correlation id of the malformed message
+     *
+     * @return the id, 0 if the message is not correlated or the id was not read
+     */
+    public int getId(){
+        return id;
+    }
+}
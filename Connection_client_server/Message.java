@@ -1,9 +1,11 @@
 
 
 package Connection_client_server;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.LinkedList;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 
 /**
  *
@@ -15,15 +17,41 @@ import java.util.LinkedList;
  * This class represents a single command.
  * This is a utility class to build and parse a command more easily
  * Each message must have a MessageType and option arguments
+ *
+ * The arguments are stored in typed slots, numbers are kept as primitive values
+ * and strings as CharSequences, so building a message does not box anything.
+ * A message can be {@link #reset(MessageType) reset} and reused,
+ * see {@link Connection_client_server.MessagePool MessagePool}.
+ *
+ * Each request may carry a correlation id which the server echoes back in the
+ * response, so the client can match responses to requests that are in flight at the
+ * same time. In the text format the id is appended to the type, like <code>PUSH#17</code>.
+ * An id of 0 means the message is not correlated.
  */
 public class Message
 {
     // the string literal used to separate arguments
     public static final String ARG_SEPARATOR = " ";
 
-    private String message = "";
+    // the character separating the type and the correlation id in the text format
+    public static final char ID_SEPARATOR = '#';
+
+    // the kinds of the argument slots
+    public static final byte ARG_STRING = 0;
+    public static final byte ARG_LONG = 1;
+    public static final byte ARG_INT = 2;
+    public static final byte ARG_BYTES = 3;
+
+    private static final int INITIAL_SLOTS = 4;
+
     private MessageType type;
-    private List<Object> args = new ArrayList<>();
+    private byte[] kinds = new byte[INITIAL_SLOTS];
+    private long[] numbers = new long[INITIAL_SLOTS];
+    private CharSequence[] strings = new CharSequence[INITIAL_SLOTS];
+    // the arrays of the byte arguments, their offset and length are packed into numbers
+    private byte[][] blobs = new byte[INITIAL_SLOTS][];
+    private int count = 0;
+    private int id = 0;
 
     /**
      * Create a new Message object of the given MessageType
@@ -40,8 +68,69 @@ public class Message
      * @param message the string message to parse
      */
     public Message(String message){
-        this.message = message;
-        parse(message);
+        this(message, new QuotedStringTokenizer("", ARG_SEPARATOR));
+    }
+
+    /**
+     * Create a new Message object parsing the given message string
+     * with the specified tokenizer. A connection keeps a single tokenizer
+     * and reuses it for all the incoming lines.
+     *
+     * @param message the string message to parse
+     * @param tokenizer the tokenizer to reuse
+     */
+    public Message(String message, QuotedStringTokenizer tokenizer){
+        parse(message, tokenizer);
+    }
+
+    /**
+     * Clears all the arguments and changes the MessageType
+     * so this object can be used for another message
+     *
+     * @param type the new MessageType
+     * @return the current Message object
+     */
+    public Message reset(MessageType type){
+        for (int i = 0; i < count; i++){
+            strings[i] = null;
+            blobs[i] = null;
+        }
+        this.count = 0;
+        this.id = 0;
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Returns the correlation id of this message
+     *
+     * @return the correlation id, 0 if the message is not correlated
+     */
+    public int getId(){
+        return id;
+    }
+
+    /**
+     * Sets the correlation id of this message
+     *
+     * @param id the correlation id, 0 means not correlated
+     * @return the current Message object
+     */
+    public Message setId(int id){
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * Sets the correlation id of this message to the one of the request,
+     * used by the server to build the response for a request
+     *
+     * @param request the request this message responds to
+     * @return the current Message object
+     */
+    public Message correlate(Message request){
+        this.id = null == request ? 0 : request.getId();
+        return this;
     }
 
     /**
@@ -53,6 +142,33 @@ public class Message
         return type;
     }
 
+    /**
+     * Returns the kind of the argument slot at the specified index
+     *
+     * @param index the index of the argument
+     * @return one of {@link #ARG_STRING}, {@link #ARG_LONG}, {@link #ARG_INT} or {@link #ARG_BYTES}
+     */
+    public byte getArgumentKind(int index){
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    /**
+     * Returns the argument at the specified index as CharSequence without copying it
+     * if the argument is a string
+     *
+     * @param index the index of the argument
+     * @return the argument as CharSequence
+     */
+    public CharSequence getArgumentChars(int index){
+        checkIndex(index);
+        switch (kinds[index]){
+            case ARG_STRING: return strings[index];
+            case ARG_BYTES: return encodeBase64(index);
+            default: return String.valueOf(numbers[index]);
+        }
+    }
+
     /**
      * Returns the argument at the specified index as String
      *
@@ -60,7 +176,7 @@ public class Message
      * @return the argument as String
      */
     public String getArgumentString(int index){
-        return String.valueOf(args.get(index));
+        return getArgumentChars(index).toString();
     }
 
     /**
@@ -70,7 +186,12 @@ public class Message
      * @return the argument as long
      */
     public long getArgumentLong(int index){
-        return Long.parseLong(getArgumentString(index));
+        checkIndex(index);
+        if (ARG_STRING == kinds[index]){
+            CharSequence s = strings[index];
+            return Long.parseLong(s, 0, s.length(), 10);
+        }
+        return numbers[index];
     }
 
     /**
@@ -80,7 +201,31 @@ public class Message
      * @return the argument as int
      */
     public int getArgumentInteger(int index){
-        return Integer.parseInt(getArgumentString(index));
+        checkIndex(index);
+        if (ARG_STRING == kinds[index]){
+            CharSequence s = strings[index];
+            return Integer.parseInt(s, 0, s.length(), 10);
+        }
+        return Math.toIntExact(numbers[index]);
+    }
+
+    /**
+     * Returns the byte argument at the specified index without copying it.
+     * If the message was parsed from a text line the argument is decoded from base64.
+     *
+     * @param index the index of the argument
+     * @return the buffer holding the bytes between its position and limit
+     */
+    public ByteBuffer getArgumentBytes(int index){
+        checkIndex(index);
+        switch (kinds[index]){
+            case ARG_BYTES:
+                return ByteBuffer.wrap(blobs[index], (int) (numbers[index] >>> 32), (int) numbers[index]);
+            case ARG_STRING:
+                return ByteBuffer.wrap(Base64.getDecoder().decode(strings[index].toString()));
+            default:
+                throw new IllegalArgumentException("argument "+index+" is a number");
+        }
     }
 
     /**
@@ -89,8 +234,9 @@ public class Message
      * @param arg the argument value as string
      * @return the current Message object
      */
-    public Message addArgument(String arg){
-        args.add(arg);
+    public Message addArgument(CharSequence arg){
+        int slot = nextSlot(ARG_STRING);
+        strings[slot] = null == arg ? "null" : arg;
         return this;
     }
 
@@ -101,7 +247,7 @@ public class Message
      * @return the current Message object
      */
     public Message addArgument(long arg){
-        args.add(arg);
+        numbers[nextSlot(ARG_LONG)] = arg;
         return this;
     }
 
@@ -112,7 +258,26 @@ public class Message
      * @return the current Message object
      */
     public Message addArgument(int arg){
-        args.add(arg);
+        numbers[nextSlot(ARG_INT)] = arg;
+        return this;
+    }
+
+    /**
+     * Appends new byte argument to this message.
+     * The array is not copied, it must not be changed until the message is written.
+     *
+     * @param data the array holding the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the current Message object
+     */
+    public Message addArgument(byte[] data, int offset, int length){
+        if (offset < 0 || length < 0 || offset + length > data.length){
+            throw new IndexOutOfBoundsException("offset "+offset+" length "+length+" of "+data.length);
+        }
+        int slot = nextSlot(ARG_BYTES);
+        blobs[slot] = data;
+        numbers[slot] = ((long) offset << 32) | (length & 0xFFFFFFFFL);
         return this;
     }
 
@@ -122,7 +287,7 @@ public class Message
      * @return total number of arguments
      */
     public int argumentCount(){
-        return args.size();
+        return count;
     }
 
     /**
@@ -131,7 +296,20 @@ public class Message
      * @return all arguments as array of Objects
      */
     public Object[] getArgumentsArray(){
-        return args.toArray();
+        Object[] array = new Object[count];
+        for (int i = 0; i < count; i++){
+            switch (kinds[i]){
+                case ARG_LONG: array[i] = numbers[i]; break;
+                case ARG_INT: array[i] = (int) numbers[i]; break;
+                case ARG_BYTES: {
+                    ByteBuffer bytes = getArgumentBytes(i);
+                    array[i] = Arrays.copyOfRange(bytes.array(), bytes.position(), bytes.limit());
+                    break;
+                }
+                default: array[i] = strings[i]; break;
+            }
+        }
+        return array;
     }
 
     /**
@@ -140,46 +318,118 @@ public class Message
      * @return the build command
      */
     public String create(){
-        StringBuilder builder = new StringBuilder();
+        return appendTo(new StringBuilder()).append("\r\n").toString();
+    }
+
+    /**
+     * Appends the command, without the line terminator, to the specified builder
+     *
+     * @param builder the builder to append to
+     * @return the same builder
+     */
+    public StringBuilder appendTo(StringBuilder builder){
         builder.append(type.toString());
-        if(!args.isEmpty()){
-            for(Object arg : args){
-                builder.append(ARG_SEPARATOR);
-                
-                 if(arg instanceof CharSequence){
-                    builder.append("\"").append(arg).append("\"");
-                }
-                else{
-                    builder.append(arg);
-                }
-            } 
+        if (0 != id){
+            builder.append(ID_SEPARATOR).append(id);
         }
-        builder.append("\r\n");
-        message = builder.toString();
-
-        return message;
+        for (int i = 0; i < count; i++){
+            builder.append(ARG_SEPARATOR);
+            if (ARG_STRING == kinds[i]){
+                appendQuoted(builder, strings[i]);
+            }
+            else if (ARG_BYTES == kinds[i]){
+                builder.append(encodeBase64(i));
+            }
+            else {
+                builder.append(numbers[i]);
+            }
+        }
+        return builder;
     }
 
     /**
      * Parse the command string and create a new Message instance for the command
      *
      * @param m the command string
+     * @param tokenizer the tokenizer used to split the command string
      */
-    private void parse(String m){
+    private void parse(String m, QuotedStringTokenizer tokenizer){
         if(!Util.isNotEmptyString(m)) throw new IllegalArgumentException("message is empty");
 
-        QuotedStringTokenizer tokenizer = new QuotedStringTokenizer(m, ARG_SEPARATOR);
-        MessageType type2 = MessageType.from(tokenizer.nextToken());
-        List<Object> args2 = new LinkedList<>();
-        while (tokenizer.hasMoreToken()){
-            args2.add(tokenizer.nextToken());
+        tokenizer.reset(m);
+        if (!tokenizer.hasMoreToken()) throw new IllegalArgumentException("message is empty");
+        try {
+            String typeToken = tokenizer.nextToken();
+            int separator = typeToken.indexOf(ID_SEPARATOR);
+            if (separator > 0){
+                this.id = Integer.parseInt(typeToken, separator + 1, typeToken.length(), 10);
+                typeToken = typeToken.substring(0, separator);
+            }
+            this.type = MessageType.from(typeToken);
+            while (tokenizer.hasMoreToken()){
+                addArgument(tokenizer.nextToken());
+            }
+        }
+        catch (RuntimeException e){
+            // the id is kept if it was read, so the sender can be answered
+            throw new MalformedMessageException(id, "malformed message : "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reserves the next argument slot, growing the slot arrays if required
+     *
+     * @param kind the kind of the argument
+     * @return the index of the slot
+     */
+    private int nextSlot(byte kind){
+        if (count == kinds.length){
+            int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            blobs = Arrays.copyOf(blobs, capacity);
+        }
+        kinds[count] = kind;
+        return count++;
+    }
+
+    /**
+     * Encodes the byte argument as base64, used by the text format
+     *
+     * @param index the index of the byte argument
+     * @return the base64 string
+     */
+    private String encodeBase64(int index){
+        ByteBuffer bytes = ByteBuffer.wrap(blobs[index], (int) (numbers[index] >>> 32), (int) numbers[index]);
+        return new String(Base64.getEncoder().encode(bytes).array(), StandardCharsets.ISO_8859_1);
+    }
+
+    private void checkIndex(int index){
+        if (index < 0 || index >= count){
+            throw new IndexOutOfBoundsException("argument "+index+" of "+count);
+        }
+    }
+
+    /**
+     * Appends the string argument between double quotes,
+     * escaping the double quotes and backslashes inside it
+     *
+     * @param builder the builder to append to
+     * @param arg the string argument
+     */
+    private static void appendQuoted(StringBuilder builder, CharSequence arg){
+        builder.append('"');
+        for (int i = 0; i < arg.length(); i++){
+            char c = arg.charAt(i);
+            if (c == '"' || c == '\\') builder.append('\\');
+            builder.append(c);
         }
-        this.type = type2;
-        this.args = args2;
+        builder.append('"');
     }
 
     @Override
     public String toString() {
-        return message;
+        return null == type ? "" : appendTo(new StringBuilder()).toString();
     }
 }
@@ -0,0 +1,185 @@
+package Connection_client_server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The base class of a wire format for {@link Connection_client_server.Message Message}.
+ * A codec encodes a message into a reusable buffer owned by the codec and decodes
+ * messages straight from a buffer filled by the connection, so the same codec
+ * works for both the blocking streams and the non blocking channels.
+ */
+public abstract class MessageCodec {
+
+    // the name of the codec sent with LOGIN to negotiate the line based text format
+    public static final String TEXT = "TEXT";
+
+    // the name of the codec sent with LOGIN to negotiate the length prefixed binary format
+    public static final String BINARY = "BINARY";
+
+    // the maximum number of bytes a single encoded message may take, large enough for the delete
+    // of a whole folder and its notices carrying a version after each filename
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    // the maximum number of arguments of a single message, the binary format counts them in two bytes
+    public static final int MAX_ARGUMENTS = 0xFFFF;
+
+    // the bytes of a message listing files which are left for the files, the rest is for the header and the ids
+    public static final int MAX_FILE_LIST_SIZE = MAX_FRAME_SIZE - 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Encodes the message.
+     * The returned buffer is owned by this codec and is only valid
+     * until the next call of this method.
+     *
+     * @param message the message to encode
+     * @return the buffer ready to be read which contains the encoded message
+     */
+    public ByteBuffer encode(Message message){
+        encodeBuffer.clear();
+        encodeTo(message);
+        encodeBuffer.flip();
+        return encodeBuffer;
+    }
+
+    /**
+     * Decodes the next message from the buffer. If the buffer does not
+     * contain a complete message yet the position of the buffer is left unchanged
+     * and <code>null</code> is returned. If the message is malformed it is consumed
+     * from the buffer before the exception is thrown.
+     *
+     * @param in the buffer ready to be read
+     * @return the decoded message or <code>null</code> if more bytes are required
+     * @throws IllegalArgumentException if the message can not be decoded
+     * @throws ProtocolException if the framing is broken and the connection can not be used anymore
+     */
+    public abstract Message decode(ByteBuffer in) throws ProtocolException;
+
+    /**
+     * Returns the name of this codec as sent in the LOGIN request
+     *
+     * @return the codec name
+     */
+    public abstract String getName();
+
+    /**
+     * Writes the message into the encode buffer,
+     * obtained by {@link #reserve(int) reserve(int)}
+     *
+     * @param message the message to encode
+     */
+    protected abstract void encodeTo(Message message);
+
+    /**
+     * Makes sure the encode buffer has room for the specified number of bytes
+     *
+     * @param length the number of bytes about to be written
+     * @return the encode buffer
+     */
+    protected ByteBuffer reserve(int length){
+        if (encodeBuffer.remaining() < length){
+            int required = encodeBuffer.position() + length;
+            if (required > MAX_FRAME_SIZE){
+                throw new IllegalArgumentException("message exceeds the max frame size of "+MAX_FRAME_SIZE+" bytes");
+            }
+            int capacity = Math.min(MAX_FRAME_SIZE, Math.max(required, encodeBuffer.capacity() * 2));
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            encodeBuffer.flip();
+            bigger.put(encodeBuffer);
+            encodeBuffer = bigger;
+        }
+        return encodeBuffer;
+    }
+
+    /**
+     * Writes the characters as UTF-8 into the encode buffer without
+     * creating an intermediate byte array
+     *
+     * @param chars the characters to write
+     */
+    protected void putUtf8(CharSequence chars){
+        ByteBuffer out = reserve(utf8Length(chars));
+        for (int i = 0; i < chars.length(); i++){
+            char c = chars.charAt(i);
+            if (c < 0x80){
+                out.put((byte) c);
+            }
+            else if (c < 0x800){
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < chars.length() && Character.isLowSurrogate(chars.charAt(i + 1))){
+                int cp = Character.toCodePoint(c, chars.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            }
+            else {
+                if (Character.isSurrogate(c)) c = '?';
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Returns the most bytes a filename followed by a number takes in a message of any codec:
+     * the text codec may escape every character and writes the number in decimal, the binary
+     * codec tags the name, prefixes it with its length and tags the number.
+     * The messages listing files are kept under {@link #MAX_FILE_LIST_SIZE} with these sizes.
+     *
+     * @param filename the filename
+     * @return the max number of bytes of the filename and its number
+     */
+    public static int fileEntrySize(CharSequence filename){
+        return 2 * utf8Length(filename) + 32;
+    }
+
+    /**
+     * Returns the number of bytes the characters take when encoded as UTF-8
+     *
+     * @param chars the characters to measure
+     * @return the encoded length in bytes
+     */
+    protected static int utf8Length(CharSequence chars){
+        int length = 0;
+        for (int i = 0; i < chars.length(); i++){
+            char c = chars.charAt(i);
+            if (c < 0x80){
+                length += 1;
+            }
+            else if (c < 0x800){
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < chars.length() && Character.isLowSurrogate(chars.charAt(i + 1))){
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Checks if the next unread byte of the buffer starts a binary frame
+     *
+     * @param in the buffer ready to be read
+     * @return true if the next message is a binary frame, false otherwise
+     */
+    public static boolean isBinaryFrame(ByteBuffer in){
+        return in.hasRemaining() && in.get(in.position()) == BinaryMessageCodec.MAGIC;
+    }
+}
@@ -0,0 +1,66 @@
+package Connection_client_server;
+
+import java.util.ArrayDeque;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A small pool of reusable {@link Connection_client_server.Message Message} objects.
+ * Each connection keeps its own pool for the messages it builds and writes
+ * immediately, like the notifications, so these paths do not allocate in steady state.
+ * A message must not be used after it is released.
+ */
+public class MessagePool {
+
+    private static final int DEFAULT_MAX_SIZE = 8;
+
+    private final ArrayDeque<Message> free;
+    private final int maxSize;
+
+    /**
+     * Create a new pool keeping at most 8 idle messages
+     */
+    public MessagePool(){
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a new pool keeping at most the specified number of idle messages
+     *
+     * @param maxSize the max number of idle messages
+     */
+    public MessagePool(int maxSize){
+        this.maxSize = maxSize;
+        this.free = new ArrayDeque<>(maxSize);
+    }
+
+    /**
+     * Returns an empty message of the specified type, reusing an idle one if available
+     *
+     * @param type the MessageType of the message
+     * @return the empty message
+     */
+    public Message acquire(MessageType type){
+        Message message;
+        synchronized (free){
+            message = free.pollFirst();
+        }
+        return null == message ? new Message(type) : message.reset(type);
+    }
+
+    /**
+     * Gives the message back to the pool
+     *
+     * @param message the message which is no longer used
+     */
+    public void release(Message message){
+        if (null == message) return;
+        message.reset(null);
+        synchronized (free){
+            if (free.size() < maxSize) free.addFirst(message);
+        }
+    }
+}
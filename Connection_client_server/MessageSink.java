@@ -0,0 +1,103 @@
+package Connection_client_server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Anything a {@link Connection_client_server.Message Message} can be written to,
+ * used by the {@link FileTransfer}s to send their frames over the command connection.
+ * A sink only has to write messages: the DATA frames are then copied into DATA messages
+ * of {@link FileTransfer#CHUNK_SIZE} bytes, unless it writes them itself.
+ */
+public interface MessageSink {
+
+    /**
+     * Writes the message.
+     * The message is encoded before this method returns, so it may be reused afterwards.
+     * This method is safe to be called from multiple threads.
+     *
+     * @param message the message to write
+     * @throws IOException if the connection is closed or broken
+     */
+    void write(Message message) throws IOException;
+
+    /**
+     * Writes an ACK frame giving the sender of a transfer credit for the bytes received.
+     * Called by the thread reading the connection, so a sink whose writes can block must not make
+     * it wait for another writer: if both ends of a connection send data while their readers wait
+     * to write an ACK, neither reads any more and both block.
+     *
+     * @param transferId the id of the transfer
+     * @param bytes the number of bytes received since the last ACK
+     * @throws IOException if the connection is closed or broken
+     */
+    default void writeAck(int transferId, int bytes) throws IOException {
+        write(new Message(MessageType.ACK).addArgument(transferId).addArgument(bytes));
+    }
+
+    /**
+     * Returns weather {@link #writeData(int, FileChannel, long, int)} can be used,
+     * otherwise the DATA frames must be written as messages holding a copy of the bytes
+     *
+     * @return true if the file data can be written straight from the file, false otherwise
+     */
+    default boolean canWriteData(){
+        return false;
+    }
+
+    /**
+     * Writes a DATA frame whose payload is sent straight from the file
+     * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transferTo},
+     * so the kernel copies the bytes without passing them through the heap.
+     * By default the payload is read into the heap and written as DATA messages.
+     *
+     * @param transferId the id of the transfer
+     * @param file the file to read the payload from
+     * @param position the position of the payload in the file
+     * @param length the number of bytes to send
+     * @throws IOException if the connection is broken or the file is shorter than expected
+     */
+    default void writeData(int transferId, FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, FileTransfer.CHUNK_SIZE));
+        long end = position + length;
+        while (position < end){
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()){
+                if (file.read(buffer, position + buffer.position()) < 0){
+                    throw new EOFException("file truncated while writing the data of transfer "+transferId);
+                }
+            }
+            buffer.flip();
+            int read = buffer.limit();
+            writeData(transferId, buffer);
+            position += read;
+        }
+    }
+
+    /**
+     * Writes a DATA frame whose payload is the remaining bytes of the buffer, without encoding
+     * them into a message. Used when the same bytes are sent to several connections.
+     * The position of the buffer is advanced past the written bytes.
+     * By default the bytes are copied into DATA messages.
+     *
+     * @param transferId the id of the transfer
+     * @param payload the bytes to send
+     * @throws IOException if the connection is broken
+     */
+    default void writeData(int transferId, ByteBuffer payload) throws IOException {
+        Message data = new Message(MessageType.DATA);
+        byte[] chunk = new byte[Math.min(payload.remaining(), FileTransfer.CHUNK_SIZE)];
+        while (payload.hasRemaining()){
+            int length = Math.min(chunk.length, payload.remaining());
+            payload.get(chunk, 0, length);
+            write(data.reset(MessageType.DATA).addArgument(transferId).addArgument(chunk, 0, length));
+        }
+    }
+}
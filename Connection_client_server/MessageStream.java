@@ -0,0 +1,326 @@
+package Connection_client_server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Reads and writes {@link Connection_client_server.Message Message}s over a pair of
+ * blocking streams. The bytes are read into and written from reusable buffers,
+ * the messages are encoded and decoded by the {@link NegotiatedCodec} of the connection.
+ * If the streams belong to a {@link SocketChannel} the file data of the transfers is
+ * written and read straight between the channel and the files.
+ *
+ * The writes block while the socket is full, holding the write lock. The ACKs are written by the
+ * reading thread, which must never wait for that lock: when both ends send a file, each reader would
+ * wait for its own sender which waits for the other end to read. So an ACK is queued and written by
+ * whichever thread holds the write lock, between two frames, or by the reader itself if it is free.
+ */
+public class MessageStream implements MessageSink, AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final SocketChannel channel;
+    private final NegotiatedCodec codec = new NegotiatedCodec();
+    private final DataFrameReader dataReader = new DataFrameReader();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final MessagePool ackPool = new MessagePool();
+    private final Queue<Message> pendingAcks = new ConcurrentLinkedQueue<>();
+
+    // the buffer is always kept in write mode between the calls of read()
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // collects the frames of a batch so they are written at once, guarded by the write lock
+    private ByteBuffer batchBuffer;
+
+    /**
+     * Create a new MessageStream over the specified streams
+     *
+     * @param in the stream to read the messages from
+     * @param out the stream to write the messages to
+     */
+    public MessageStream(InputStream in, OutputStream out){
+        this(in, out, null);
+    }
+
+    /**
+     * Create a new MessageStream over the blocking channel
+     *
+     * @param channel the connected blocking channel
+     * @throws IOException thrown by the socket of the channel
+     */
+    public MessageStream(SocketChannel channel) throws IOException {
+        this(channel.socket().getInputStream(), channel.socket().getOutputStream(), channel);
+    }
+
+    private MessageStream(InputStream in, OutputStream out, SocketChannel channel){
+        if (null == in || null == out){
+            throw new NullPointerException("streams must not null");
+        }
+        this.in = in;
+        this.out = out;
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the codec of this stream
+     *
+     * @return the codec used by this stream
+     */
+    public NegotiatedCodec getCodec(){
+        return codec;
+    }
+
+    /**
+     * Sets the lookup of the incoming transfers the DATA frames are stored to,
+     * used only if the stream belongs to a channel
+     *
+     * @param transfers returns the transfer for a transfer id, or <code>null</code>
+     */
+    public void setIncomingTransfers(IntFunction<IncomingTransfer> transfers){
+        dataReader.setTransfers(transfers);
+    }
+
+    /**
+     * Reads the next message blocking until a complete message is available
+     *
+     * @return the next message
+     * @throws EOFException if the stream is closed
+     * @throws IOException if the stream can not be read or the framing is broken
+     * @throws IllegalArgumentException if a message is malformed, the stream can still be used
+     */
+    public Message read() throws IOException {
+        while (true){
+            readBuffer.flip();
+            Message message;
+            try {
+                if (null != channel && dataReader.accepts(readBuffer)){
+                    message = dataReader.read(readBuffer, channel);
+                    // the payload is read from the blocking channel until it is complete or closed
+                    if (null == message && dataReader.isActive()){
+                        throw new EOFException("connection closed");
+                    }
+                }
+                else {
+                    message = codec.decode(readBuffer);
+                }
+            }
+            finally {
+                readBuffer.compact();
+            }
+            if (null != message) return message;
+
+            if (!readBuffer.hasRemaining()){
+                ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+            int len = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+            if (len < 0){
+                throw new EOFException("connection closed");
+            }
+            readBuffer.position(readBuffer.position() + len);
+        }
+    }
+
+    /**
+     * Encodes and writes the message and flushes the stream.
+     * This method is safe to be called from multiple threads.
+     *
+     * @param message the message to write
+     * @throws IOException if the stream can not be written
+     */
+    @Override
+    public void write(Message message) throws IOException {
+        writeLock.lock();
+        try {
+            writePendingAcks();
+            ByteBuffer frame = codec.encode(message);
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+        }
+        finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Queues the ACK and writes it at once if no other thread is writing, otherwise the writing
+     * thread writes it after its current frame. Never waits for another writer.
+     *
+     * @param transferId the id of the transfer
+     * @param bytes the number of bytes received since the last ACK
+     * @throws IOException if the stream can not be written
+     */
+    @Override
+    public void writeAck(int transferId, int bytes) throws IOException {
+        pendingAcks.add(ackPool.acquire(MessageType.ACK).addArgument(transferId).addArgument(bytes));
+        if (writeLock.tryLock()){
+            try {
+                writePendingAcks();
+            }
+            finally {
+                unlockWrite();
+            }
+        }
+    }
+
+    /**
+     * Encodes all the messages and writes them with a single flush.
+     * This method is safe to be called from multiple threads.
+     *
+     * @param messages the messages to write in order
+     * @throws IOException if the stream can not be written
+     */
+    public void write(List<Message> messages) throws IOException {
+        writeLock.lock();
+        try {
+            writePendingAcks();
+            if (null == batchBuffer) batchBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            batchBuffer.clear();
+            for (Message message : messages){
+                ByteBuffer frame = codec.encode(message);
+                if (batchBuffer.remaining() < frame.remaining()){
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + frame.remaining()));
+                    batchBuffer.flip();
+                    batchBuffer = bigger.put(batchBuffer);
+                }
+                batchBuffer.put(frame);
+            }
+            out.write(batchBuffer.array(), batchBuffer.arrayOffset(), batchBuffer.position());
+            out.flush();
+        }
+        finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canWriteData() {
+        return null != channel && codec.isBinary();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeData(int transferId, FileChannel file, long position, int length) throws IOException {
+        writeLock.lock();
+        try {
+            writePendingAcks();
+            ByteBuffer header = codec.encodeDataHeader(transferId, length);
+            while (header.hasRemaining()){
+                channel.write(header);
+            }
+            long end = position + length;
+            while (position < end){
+                long len = file.transferTo(position, end - position, channel);
+                if (len <= 0){
+                    // keep the framing intact if the file got shorter
+                    padFrame(end - position);
+                    throw new EOFException("file truncated while sending");
+                }
+                position += len;
+            }
+        }
+        finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeData(int transferId, ByteBuffer payload) throws IOException {
+        writeLock.lock();
+        try {
+            writePendingAcks();
+            ByteBuffer header = codec.encodeDataHeader(transferId, payload.remaining());
+            while (header.hasRemaining()){
+                channel.write(header);
+            }
+            while (payload.hasRemaining()){
+                channel.write(payload);
+            }
+        }
+        finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        Util.closeSilently(in, out);
+    }
+
+    /**
+     * Writes the queued ACKs. Called holding the write lock, never inside a frame.
+     *
+     * @throws IOException if the stream can not be written
+     */
+    private void writePendingAcks() throws IOException {
+        Message ack = pendingAcks.poll();
+        if (null == ack) return;
+        try {
+            while (null != ack){
+                ByteBuffer frame = codec.encode(ack);
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                ackPool.release(ack);
+                ack = pendingAcks.poll();
+            }
+        }
+        finally {
+            if (null != ack) ackPool.release(ack);
+        }
+        out.flush();
+    }
+
+    /**
+     * Releases the write lock, then writes the ACKs queued by a reader
+     * which found the lock held after this thread had written the queued ones
+     */
+    private void unlockWrite() throws IOException {
+        writeLock.unlock();
+        while (!pendingAcks.isEmpty() && writeLock.tryLock()){
+            try {
+                writePendingAcks();
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void padFrame(long length) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, READ_BUFFER_SIZE));
+        while (length > 0){
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), length));
+            length -= channel.write(zeros);
+        }
+    }
+}
@@ -16,46 +16,80 @@ package Connection_client_server;
  * PUSH => used to push a file to the server
  * PULL => used to pull a file from the server
  * INVALID => send by the server when a file has changed by someone
- * ABORT => send by the server when a open is canceled
- * OPEN => send by the server when PULL or PUSH is possible, the server ip and port
- *          of the server where the data will be, is sent with is command.
- * CLOSE => send by the server when PULL or PUSH operation is complete
- * DELETE => send a delete request a file specifies as the only argument
+ * ABORT => send by the server when a open is canceled. Either side may also send it
+ *          with a transfer id as the only argument to cancel a running file transfer.
+ * OPEN => send by the server when PULL or PUSH is possible, the id of the file transfer
+ *          which carries the data over this same connection is sent with this command.
+ *          A subscribed client also gets it without a request, with the transfer id and the filename,
+ *          when the server starts sending the file just pushed by another client.
+ * CLOSE => send by the server when PULL or PUSH operation is complete, or without a request
+ *          with the filename when a file sent to a subscribed client is complete
+ * DELETE => send a delete request for the files specified as the arguments,
+ *          all of them are voted for once and removed or restored together
  * QUERYDELETE => whan a DELETE request from a client is received,
  *              this response is sent to other clients to initiate a voting.
- *              The file name is send as the only argument with this message.
+ *              Each file name is followed by the transaction id of the delete.
  * VOTE => a client sends it decision about deletion of the specified file.
  *          If the client confirms the delete then it sends YES otherwise NO
  *          as first argument. The second argument is the filename for which
- *          the client is voting
+ *          the client is voting and the third the transaction id of QUERYDELETE.
  * REMOVE => the server send this to all client when all them VOTE YES for the file to delete.
- *           The filename is sent as the first argument
+ *           Each filename is followed by the version of the file.
  * RESTORE => opposite to REMOVE, when at least one client VOTE NO, then the server send this response
  *             to all clients to instruct then to download the file if deleted.
- *             The filename is the only argument.
+ *             Each filename is followed by the version of the file.
  * END => send by the client when wants to end the connection
+ * DATA => a chunk of file data, the transfer id and the bytes are the arguments.
+ *          A chunk of zero bytes marks the end of the file.
+ * ACK => send by the receiver of a file transfer with the transfer id and the number
+ *          of bytes it consumed, allowing the sender to send that many more bytes.
+ * SUBSCRIBE => send by the client to get the files pushed by other clients sent to it by the server
+ *          instead of the INVALID notices. OK is returned if the server replicates the files.
  */
 public enum MessageType
 {
-    LOGIN("LOGIN"),
-    OK("OK"),
-    PUSH("PUSH"),
-    PULL("PULL"),
-    INVALID("INVALID"),
-    ABORT("ABORT"),
-    OPEN("OPEN"),
-    CLOSE("CLOSE"),
-    DELETE("DELETE"),
-    QUERYDELETE("QUERYDELETE"),
-    VOTE("VOTE"),
-    REMOVE("REMOVE"),
-    RESTORE("RESTORE"),
-    END("END");
-    
+    LOGIN("LOGIN", 1),
+    OK("OK", 2),
+    PUSH("PUSH", 3),
+    PULL("PULL", 4),
+    INVALID("INVALID", 5),
+    ABORT("ABORT", 6),
+    OPEN("OPEN", 7),
+    CLOSE("CLOSE", 8),
+    DELETE("DELETE", 9),
+    QUERYDELETE("QUERYDELETE", 10),
+    VOTE("VOTE", 11),
+    REMOVE("REMOVE", 12),
+    RESTORE("RESTORE", 13),
+    END("END", 14),
+    DATA("DATA", 15),
+    ACK("ACK", 16),
+    SUBSCRIBE("SUBSCRIBE", 17);
+
+    // lookup table from the binary opcode to the MessageType
+    private static final MessageType[] BY_CODE = new MessageType[256];
+
+    static {
+        for (MessageType t : values()){
+            BY_CODE[t.code] = t;
+        }
+    }
+
     private String type;
-    
-    MessageType(String type){
+    private int code;
+
+    MessageType(String type, int code){
         this.type = type;
+        this.code = code;
+    }
+
+    /**
+     * Returns the one byte opcode used for this type in the binary frame
+     *
+     * @return the opcode of this type
+     */
+    public int getCode() {
+        return code;
     }
 
     @Override
@@ -63,6 +97,20 @@ public enum MessageType
         return type;
     }
 
+    /**
+     * Returns the MessageType from the binary opcode
+     *
+     * @param code the opcode read from a binary frame
+     * @return the MessageType object
+     */
+    public static MessageType fromCode(int code){
+        MessageType t = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (null == t){
+            throw new IllegalArgumentException("opcode '"+code+"' not implemented");
+        }
+        return t;
+    }
+
     /**
      * Returns the MessageType from the String
      * @param s the type name
@@ -88,6 +136,9 @@ public enum MessageType
             case "REMOVE": return REMOVE;
             case "RESTORE": return RESTORE;
             case "END": return END;
+            case "DATA": return DATA;
+            case "ACK": return ACK;
+            case "SUBSCRIBE": return SUBSCRIBE;
             default: {
                 throw new IllegalArgumentException("type '"+s+"' not implemented");
             }
@@ -0,0 +1,100 @@
+package Connection_client_server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Holds the codecs of a single connection.
+ * Outgoing messages are encoded with the codec negotiated at LOGIN, the text codec
+ * until then. Incoming messages are decoded by looking at the first byte, so both
+ * ends may switch the codec without any further synchronization.
+ */
+public class NegotiatedCodec {
+
+    private final TextMessageCodec textCodec = new TextMessageCodec();
+    private final BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+
+    private volatile MessageCodec writeCodec = textCodec;
+
+    /**
+     * Changes the codec used to encode the outgoing messages
+     *
+     * @param name the name of the codec, {@link MessageCodec#TEXT} or {@link MessageCodec#BINARY}
+     */
+    public void setCodec(String name){
+        writeCodec = MessageCodec.BINARY.equalsIgnoreCase(name) ? binaryCodec : textCodec;
+    }
+
+    /**
+     * Returns the name of the codec used to encode the outgoing messages
+     *
+     * @return the name of the current codec
+     */
+    public String getCodecName(){
+        return writeCodec.getName();
+    }
+
+    /**
+     * Returns weather the outgoing messages are encoded as binary frames,
+     * only then DATA frames can be written with {@link #encodeDataHeader(int, int)}
+     *
+     * @return true if the binary codec is used, false otherwise
+     */
+    public boolean isBinary(){
+        return writeCodec == binaryCodec;
+    }
+
+    /**
+     * Checks if the specified codec name is supported
+     *
+     * @param name the name of the codec
+     * @return true if supported, false otherwise
+     */
+    public static boolean isSupported(String name){
+        return MessageCodec.TEXT.equalsIgnoreCase(name) || MessageCodec.BINARY.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Encodes the message with the current codec.
+     * The returned buffer is only valid until the next call of this method.
+     *
+     * @param message the message to encode
+     * @return the buffer ready to be read which contains the encoded message
+     */
+    public ByteBuffer encode(Message message){
+        return writeCodec.encode(message);
+    }
+
+    /**
+     * Encodes the header of a DATA frame whose payload is written by the caller
+     *
+     * @param transferId the id of the transfer
+     * @param length the number of payload bytes
+     * @return the buffer ready to be read which contains the header
+     * @see BinaryMessageCodec#encodeDataHeader(int, int)
+     */
+    public ByteBuffer encodeDataHeader(int transferId, int length){
+        return binaryCodec.encodeDataHeader(transferId, length);
+    }
+
+    /**
+     * Decodes the next message from the buffer with the codec that matches its first byte
+     *
+     * @param in the buffer ready to be read
+     * @return the decoded message or <code>null</code> if more bytes are required
+     * @throws ProtocolException if the framing is broken
+     */
+    public Message decode(ByteBuffer in) throws ProtocolException {
+        // skip the empty lines so the first byte of the next message can be checked
+        while (in.hasRemaining() && (in.get(in.position()) == '\r' || in.get(in.position()) == '\n')){
+            in.get();
+        }
+        if (!in.hasRemaining()) return null;
+        return MessageCodec.isBinaryFrame(in) ? binaryCodec.decode(in) : textCodec.decode(in);
+    }
+}
@@ -0,0 +1,107 @@
+package Connection_client_server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The sending side of a {@link FileTransfer}.
+ * {@link #send()} reads the file chunk by chunk and blocks whenever the credit granted
+ * by the receiver is used up, it should run on its own thread.
+ */
+public class OutgoingTransfer extends FileTransfer {
+
+    // one permit for each byte the receiver is ready to accept
+    private final Semaphore credit = new Semaphore(WINDOW_SIZE);
+
+    /**
+     * The constructor method
+     *
+     * @param id the transfer id assigned by the server
+     * @param request the PUSH or PULL request this transfer belongs to
+     * @param file the file to send
+     * @param sink where the DATA frames are written to
+     */
+    public OutgoingTransfer(int id, Message request, File file, MessageSink sink){
+        super(id, request, file, sink);
+    }
+
+    /**
+     * Adds the credit received with an ACK frame
+     *
+     * @param bytes the number of bytes consumed by the receiver
+     */
+    public void grant(int bytes){
+        if (bytes > 0) credit.release(bytes);
+    }
+
+    /**
+     * Waits until the receiver is ready to accept the bytes
+     *
+     * @param bytes the number of bytes about to be sent
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void acquireCredit(int bytes) throws InterruptedException {
+        credit.acquire(bytes);
+    }
+
+    /**
+     * Sends the whole file followed by the end of file frame.
+     * If the sink supports it the chunks are sent straight from the file,
+     * otherwise they are copied into DATA messages.
+     *
+     * @return true if the file is sent, false if the transfer is cancelled
+     * @throws IOException if the file can not be read or the connection is broken
+     * @throws InterruptedException if interrupted while waiting for credit
+     */
+    public boolean send() throws IOException, InterruptedException {
+        byte[] chunk = null;
+        Message data = new Message(MessageType.DATA);
+        try (FileChannel in = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)){
+            long size = in.size();
+            long position = 0;
+            while (position < size){
+                boolean direct = sink.canWriteData();
+                int len = (int) Math.min(direct ? DIRECT_CHUNK_SIZE : CHUNK_SIZE, size - position);
+                acquireCredit(len);
+                if (isCancelled()) return false;
+                if (direct){
+                    sink.writeData(getId(), in, position, len);
+                }
+                else {
+                    if (null == chunk) chunk = new byte[CHUNK_SIZE];
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, len);
+                    while (buffer.hasRemaining()){
+                        if (in.read(buffer, position + buffer.position()) < 0){
+                            throw new EOFException("file truncated while sending "+getFile().getName());
+                        }
+                    }
+                    sink.write(data.reset(MessageType.DATA).addArgument(getId()).addArgument(chunk, 0, len));
+                }
+                position += len;
+                addTransferredBytes(len);
+            }
+        }
+        if (isCancelled()) return false;
+        sink.write(data.reset(MessageType.DATA).addArgument(getId()).addArgument(new byte[0], 0, 0));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onCancel() {
+        // wake up the sender so it sees the cancel
+        credit.release(WINDOW_SIZE);
+    }
+}
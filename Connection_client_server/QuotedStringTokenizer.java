@@ -1,7 +1,7 @@
 package Connection_client_server;
 
-import java.util.LinkedList;
-import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
+
 /**
  *
  * @author Aiman
@@ -11,7 +11,8 @@ import java.util.StringTokenizer;
  * An utility class for split a given string by the given delimiter.
  * This class works in the similar way as {@link java.util.StringTokenizer StringTokennizer}
  * except that if a delimiter is found between two double quote (") then the string between
- * the double quotes treated as single.
+ * the double quotes treated as single. Inside the double quotes a \" is read as a double
+ * quote and a \\ as a single backslash.
  *
  * For example:
  *
@@ -21,11 +22,21 @@ import java.util.StringTokenizer;
  *
  * PUSH
  * sample txt
+ *
+ * The string is scanned only once, the start and the end offset of each token is
+ * recorded into an int array which is reused when the tokenizer is {@link #reset(String) reset}
+ * with the next string, so tokenizing a line does not create any object except the returned tokens.
  */
 public class QuotedStringTokenizer
 {
-    private LinkedList<String> tokens;
+    // each token takes three slots: start offset, end offset and whether it has escapes
+    private static final int SLOTS = 3;
+
+    private String target;
     private String delim;
+    private int[] bounds = new int[8 * SLOTS];
+    private int count;
+    private int next;
 
     /**
      * Create a new instance with the string to tokenize and space character ( )
@@ -44,11 +55,26 @@ public class QuotedStringTokenizer
      * @param delim the delimiter to split the string
      */
     public QuotedStringTokenizer(String target, String delim){
-        if(null == target) throw new NullPointerException("target string is null");
         if(null == delim || "".equals(delim)) throw new NullPointerException("delimiter must not empty");
-        
+
         this.delim = delim;
-        tokens = new LinkedList<>(tokenize(target.trim()));
+        reset(target);
+    }
+
+    /**
+     * Tokenizes another string reusing the internal buffers of this tokenizer
+     *
+     * @param target the string to tokenize
+     * @return this tokenizer
+     */
+    public QuotedStringTokenizer reset(String target){
+        if(null == target) throw new NullPointerException("target string is null");
+
+        this.target = target;
+        this.count = 0;
+        this.next = 0;
+        tokenize();
+        return this;
     }
 
     /**
@@ -57,7 +83,7 @@ public class QuotedStringTokenizer
      * @return true if more token is available, false otherwise
      */
     public boolean hasMoreToken(){
-        return !tokens.isEmpty();
+        return next < count;
     }
 
     /**
@@ -66,49 +92,125 @@ public class QuotedStringTokenizer
      * @return the total available token
      */
     public int countTokens(){
-        return tokens.size();
+        return count - next;
     }
 
     /**
      * Returns the next token
      *
      * @return the next token
+     * @throws java.util.NoSuchElementException if there is no more token
      */
     public String nextToken(){
-        return tokens.removeFirst();
+        if (!hasMoreToken()) throw new NoSuchElementException();
+        return token(next++);
     }
 
     /**
-     * Tokenizes the string
+     * Returns the token at the specified index, regardless of the tokens already returned by nextToken()
      *
-     * @param target the string to tokenize
-     * @return the list of tokens
+     * @param index the index of the token
+     * @return the token
+     */
+    public String token(int index){
+        checkIndex(index);
+        int start = bounds[index * SLOTS];
+        int end = bounds[index * SLOTS + 1];
+        return bounds[index * SLOTS + 2] == 0 ? target.substring(start, end) : unescape(start, end);
+    }
+
+    /**
+     * Returns the offset of the first character of the token in the tokenized string
+     *
+     * @param index the index of the token
+     * @return the start offset, inclusive
+     */
+    public int tokenStart(int index){
+        checkIndex(index);
+        return bounds[index * SLOTS];
+    }
+
+    /**
+     * Returns the offset after the last character of the token in the tokenized string
+     *
+     * @param index the index of the token
+     * @return the end offset, exclusive
+     */
+    public int tokenEnd(int index){
+        checkIndex(index);
+        return bounds[index * SLOTS + 1];
+    }
+
+    /**
+     * Scans the string once and records the bounds of each token
      */
-    private LinkedList<String> tokenize(String target){
-        LinkedList<String> tmp = new LinkedList<>();
-        int quoteStart = target.indexOf('"');
-        int quoteEnd = target.indexOf('"',quoteStart+1);
-        
-        if(quoteStart < 0){
-            StringTokenizer tokenizer = new StringTokenizer(target, delim);
-            while(tokenizer.hasMoreTokens()){
-                tmp.add(tokenizer.nextToken());
+    private void tokenize(){
+        final String s = target;
+        final int length = s.length();
+        int i = 0;
+        while (i < length){
+            char c = s.charAt(i);
+            if (isDelimiter(c)){
+                i++;
+            }
+            else if (c == '"'){
+                int start = ++i;
+                boolean escaped = false;
+                while (i < length && s.charAt(i) != '"'){
+                    if (s.charAt(i) == '\\' && i + 1 < length){
+                        escaped = true;
+                        i++;
+                    }
+                    i++;
+                }
+                if (i >= length){
+                    throw new IllegalArgumentException("broken quote at "+(start - 1));
+                }
+                add(start, i, escaped);
+                i++;
+            }
+            else {
+                int start = i;
+                while (i < length && !isDelimiter(s.charAt(i)) && s.charAt(i) != '"'){
+                    i++;
+                }
+                add(start, i, false);
             }
         }
-        else if(quoteEnd < 0) {
-            throw new IllegalArgumentException("broken quote at "+quoteStart);
+    }
+
+    private boolean isDelimiter(char c){
+        return delim.length() == 1 ? delim.charAt(0) == c : delim.indexOf(c) >= 0;
+    }
+
+    private void add(int start, int end, boolean escaped){
+        if ((count + 1) * SLOTS > bounds.length){
+            int[] bigger = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, bigger, 0, bounds.length);
+            bounds = bigger;
         }
-        else {
-            String quotedToken = target.substring(quoteStart+1, quoteEnd);
-            tmp.addFirst(quotedToken);
-            if(quoteStart > 0){
-                tmp.addAll(0, tokenize(target.substring(0, quoteStart-1).trim()));
-            }
-            if(target.length()-quoteEnd > 0){
-                tmp.addAll(tokenize(target.substring(quoteEnd+1, target.length()).trim()));
+        int slot = count * SLOTS;
+        bounds[slot] = start;
+        bounds[slot + 1] = end;
+        bounds[slot + 2] = escaped ? 1 : 0;
+        count++;
+    }
+
+    private String unescape(int start, int end){
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++){
+            char c = target.charAt(i);
+            if (c == '\\' && i + 1 < end){
+                c = target.charAt(++i);
             }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private void checkIndex(int index){
+        if (index < 0 || index >= count){
+            throw new IndexOutOfBoundsException("token "+index+" of "+count);
         }
-        
-        return tmp;
     }
 }
@@ -0,0 +1,71 @@
+package Connection_client_server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The original line based wire format. Each message is sent as a single
+ * <code>\r\n</code> terminated line built by {@link Message#create()}.
+ * This codec is kept for the clients which do not negotiate the binary codec.
+ */
+public class TextMessageCodec extends MessageCodec {
+
+    private final QuotedStringTokenizer tokenizer = new QuotedStringTokenizer("", Message.ARG_SEPARATOR);
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return TEXT;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void encodeTo(Message message) {
+        line.setLength(0);
+        message.appendTo(line).append("\r\n");
+        putUtf8(line);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(ByteBuffer in) throws ProtocolException {
+        while (in.hasRemaining()){
+            int start = in.position();
+            int end = indexOfLineFeed(in, start);
+            if (end < 0){
+                if (in.remaining() > MAX_FRAME_SIZE){
+                    in.position(in.limit());
+                    throw new ProtocolException("line exceeds the max frame size of "+MAX_FRAME_SIZE+" bytes");
+                }
+                return null;
+            }
+            in.position(end + 1);
+            if (end > start && in.get(end - 1) == '\r') end--;
+            if (end > start){
+                String line = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+                return new Message(line, tokenizer);
+            }
+        }
+        return null;
+    }
+
+    private static int indexOfLineFeed(ByteBuffer in, int from){
+        for (int i = from; i < in.limit(); i++){
+            if (in.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+}
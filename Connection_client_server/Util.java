@@ -9,9 +9,6 @@ import java.io.File;
 
 public class Util {
 
-    // indicate weather to print the debugging message to the console or not
-    public static final boolean DEBUG = false;
-
     /**
      * Checks weather the specified string is not empty. A string is non-empty
      * if and only if the string instance is non-null and the string length is greater than 0
@@ -69,17 +66,16 @@ public class Util {
     }
 
     /**
-     * Prints a formatted message in the console for debugging purpose
-     * The message includes the class name and the method name where the
-     * following method is called.
+     * Logs an INFO record with the {@link Log} of the calling class.
+     * The record includes the class name and the method name where the
+     * following method is called, found with a StackWalker.
+     * New code uses its own {@link Log}, which only walks the stack if asked to.
      *
-     * @param message the debug message
+     * @param message the message
      */
     public static void log(String message){
-        StackTraceElement e = new Throwable().getStackTrace()[1];
-        String className = e.getClassName();
-        String methodName = e.getMethodName();
-        message = isNotEmptyString(message) ? message : "";
-        System.out.println("["+className+"] ["+methodName+"] "+message);
+        String caller = Log.findCaller(Util.class.getName());
+        String category = null == caller ? Util.class.getName() : caller.substring(0, caller.lastIndexOf('.'));
+        Log.forCategory(category).log(LogLevel.INFO, caller, isNotEmptyString(message) ? message : "", null, null);
     }
 }
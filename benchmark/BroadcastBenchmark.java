@@ -0,0 +1,232 @@
+package benchmark;
+
+import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
+import Connection_client_server.MessageType;
+import Connection_client_server.NegotiatedCodec;
+import Connection_client_server.Util;
+import server.ClientHandler;
+import server.DFSServer;
+import server.DFSServerCallback;
+import server.ReplicationMode;
+import server.ServerEngine;
+import server.ServerSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Logs in many simulated clients to an in-process {@link server.DFSServer DFSServer} and measures
+ * the logins and the broadcast of the INVALID notices sent to all of them after each push.
+ * The clients are non blocking channels served by a single selector of this benchmark,
+ * each one only counts the notices it reads.
+ *
+ * Run with: java benchmark.BroadcastBenchmark [clients] [rounds] [ENGINE]
+ * The defaults are 10000 clients, 20 rounds and the EVENT_LOOP engine.
+ * The process needs about two file descriptors per client.
+ */
+public class BroadcastBenchmark {
+
+    private static final String FILENAME = "broadcast.bin";
+    private static final long TIMEOUT_MILLIS = 60_000;
+
+    private final NegotiatedCodec codec = new NegotiatedCodec();
+    private final Selector selector;
+    private final SimulatedClient[] clients;
+
+    private int loggedIn = 0;
+    private long notices = 0;
+    private boolean pushed = false;
+
+    private BroadcastBenchmark(int clients) throws IOException {
+        this.selector = Selector.open();
+        this.clients = new SimulatedClient[clients];
+        codec.setCodec(MessageCodec.BINARY);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        ServerEngine engine = args.length > 2 ? ServerEngine.valueOf(args[2].toUpperCase()) : ServerEngine.EVENT_LOOP;
+
+        File serverDirectory = Files.createTempDirectory("dfs-broadcast").toFile();
+        ServerSettings.setServerDirectory(serverDirectory);
+        ServerSettings.setServerEngine(engine);
+        ServerSettings.setMaxClient(clients);
+        ServerSettings.setReplicationMode(ReplicationMode.INVALIDATE);
+        DFSServer server = new DFSServer(new SilentCallback());
+        server.start();
+        if (!server.isRunning()){
+            System.out.println(engine+" failed to start");
+            System.exit(1);
+        }
+        BroadcastBenchmark benchmark = new BroadcastBenchmark(clients);
+        try {
+            benchmark.run(rounds, engine);
+        }
+        finally {
+            benchmark.close();
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    private void run(int rounds, ServerEngine engine) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(ServerSettings.getCommandIP(), ServerSettings.getCommandPort());
+        long start = System.nanoTime();
+        for (int i = 0; i < clients.length; i++){
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            clients[i] = new SimulatedClient(channel);
+            channel.register(selector, SelectionKey.OP_READ, clients[i]);
+            clients[i].send(new Message(MessageType.LOGIN).addArgument("user"+i).addArgument(MessageCodec.BINARY));
+        }
+        await(() -> loggedIn == clients.length, "logins");
+        double loginMillis = (System.nanoTime() - start) / 1e6;
+
+        // each push of the first client is broadcast to all the others,
+        // measured from the push until every other client has read its notice
+        long expected = 0;
+        double[] broadcastMillis = new double[rounds];
+        for (int round = 0; round < rounds; round++){
+            pushed = false;
+            expected += clients.length - 1;
+            final long target = expected;
+            long broadcastStart = System.nanoTime();
+            clients[0].send(new Message(MessageType.PUSH).addArgument(FILENAME));
+            await(() -> pushed && notices >= target, "notices");
+            broadcastMillis[round] = (System.nanoTime() - broadcastStart) / 1e6;
+        }
+        Arrays.sort(broadcastMillis);
+        double total = 0;
+        for (double millis : broadcastMillis) total += millis;
+
+        System.out.println(String.format("%-18s %10s %10s %12s %14s %14s %14s", "engine", "clients", "login ms", "logins/s",
+                "broadcast ms", "p99 ms", "notices/s"));
+        System.out.println(String.format("%-18s %10d %10.0f %12.0f %14.2f %14.2f %14.0f", engine, clients.length, loginMillis,
+                clients.length / (loginMillis / 1000), total / rounds,
+                broadcastMillis[Math.min(rounds - 1, (int) Math.ceil(rounds * 0.99) - 1)],
+                (clients.length - 1) * rounds / (total / 1000)));
+    }
+
+    /**
+     * Reads the responses of all the clients until the condition holds
+     */
+    private void await(BooleanSupplier condition, String what) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()){
+            if (System.currentTimeMillis() > deadline){
+                throw new IllegalStateException("timeout waiting for the "+what+", logged in "+loggedIn+" notices "+notices);
+            }
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                ((SimulatedClient) key.attachment()).onReadable();
+            }
+        }
+    }
+
+    private void onMessage(SimulatedClient client, Message message) throws IOException {
+        switch (message.getMessageType()){
+            case OK:
+                loggedIn++;
+                break;
+            case ABORT:
+                throw new IllegalStateException("request aborted : "+message);
+            case OPEN:
+                // the pusher sends a small file and the end of file frame
+                int transferId = message.getArgumentInteger(0);
+                byte[] data = new byte[1024];
+                client.send(new Message(MessageType.DATA).addArgument(transferId).addArgument(data, 0, data.length));
+                client.send(new Message(MessageType.DATA).addArgument(transferId).addArgument(data, 0, 0));
+                break;
+            case CLOSE:
+                pushed = true;
+                break;
+            case INVALID:
+                notices++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void close(){
+        for (SimulatedClient client : clients){
+            if (null != client) Util.closeSilently(client.channel);
+        }
+        Util.closeSilently(selector);
+    }
+
+    /**
+     * A client which only logs in and reads its notices
+     */
+    private class SimulatedClient {
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+        SimulatedClient(SocketChannel channel){
+            this.channel = channel;
+        }
+
+        void send(Message message) throws IOException {
+            ByteBuffer frame = codec.encode(message);
+            while (frame.hasRemaining()){
+                channel.write(frame);
+            }
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(readBuffer) < 0) throw new IOException("connection closed by the server");
+            readBuffer.flip();
+            try {
+                Message message;
+                while (null != (message = codec.decode(readBuffer))){
+                    onMessage(this, message);
+                }
+            }
+            finally {
+                readBuffer.compact();
+            }
+        }
+    }
+
+    /**
+     * A server callback which ignores all the events
+     */
+    private static class SilentCallback implements DFSServerCallback {
+
+        @Override
+        public void onServerConnectedOrDisconnected(String server, boolean isConnected) {}
+
+        @Override
+        public void onError(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {}
+
+        @Override
+        public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {}
+
+        @Override
+        public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {}
+    }
+}
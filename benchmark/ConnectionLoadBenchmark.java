@@ -0,0 +1,119 @@
+package benchmark;
+
+import Connection_client_server.Message;
+import Connection_client_server.Util;
+import server.ClientHandler;
+import server.DFSServer;
+import server.DFSServerCallback;
+import server.ServerEngine;
+import server.ServerSettings;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Opens many idle connections against an in-process {@link server.DFSServer DFSServer}
+ * for each {@link server.ServerEngine ServerEngine} and reports the time to open them,
+ * the platform threads alive and the heap used while they are all connected.
+ *
+ * Run with: java benchmark.ConnectionLoadBenchmark [connections] [ENGINE ...]
+ * The process needs about two file descriptors per connection.
+ */
+public class ConnectionLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        List<ServerEngine> engines = new ArrayList<>();
+        for (int i = 1; i < args.length; i++){
+            engines.add(ServerEngine.valueOf(args[i].toUpperCase()));
+        }
+        if (engines.isEmpty()){
+            for (ServerEngine engine : ServerEngine.values()) engines.add(engine);
+        }
+
+        File serverDirectory = Files.createTempDirectory("dfs-load").toFile();
+        ServerSettings.setServerDirectory(serverDirectory);
+
+        System.out.println(String.format("%-18s %12s %12s %16s %12s", "engine", "connections", "open ms", "platform threads", "heap MB"));
+        for (ServerEngine engine : engines){
+            ServerSettings.setServerEngine(engine);
+            DFSServer server = new DFSServer(new SilentCallback());
+            server.start();
+            if (!server.isRunning()){
+                System.out.println(engine+" failed to start");
+                continue;
+            }
+            long baseHeap = usedHeap();
+            int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            List<Socket> sockets = new ArrayList<>(connections);
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < connections; i++){
+                    sockets.add(new Socket(ServerSettings.getCommandIP(), ServerSettings.getCommandPort()));
+                }
+                // give the server time to accept and start a handler for each connection
+                Thread.sleep(1000);
+                long openMillis = (System.nanoTime() - start) / 1_000_000 - 1000;
+                int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+                long heap = usedHeap() - baseHeap;
+                System.out.println(String.format("%-18s %12d %12d %16d %12.1f", engine, sockets.size(), openMillis,
+                        threads, heap / (1024.0 * 1024.0)));
+            }
+            finally {
+                for (Socket socket : sockets) Util.closeSilently(socket);
+                server.stop();
+                awaitThreads(baseThreads);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Waits until the handler threads of the stopped server have ended,
+     * so the next engine starts from the same thread count
+     */
+    private static void awaitThreads(int threads) throws InterruptedException {
+        for (int i = 0; i < 100 && ManagementFactory.getThreadMXBean().getThreadCount() > threads; i++){
+            Thread.sleep(100);
+        }
+    }
+
+    private static long usedHeap(){
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A server callback which ignores all the events
+     */
+    private static class SilentCallback implements DFSServerCallback {
+
+        @Override
+        public void onServerConnectedOrDisconnected(String server, boolean isConnected) {}
+
+        @Override
+        public void onError(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {}
+
+        @Override
+        public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {}
+
+        @Override
+        public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {}
+    }
+}
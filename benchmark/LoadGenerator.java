@@ -0,0 +1,401 @@
+package benchmark;
+
+import Connection_client_server.LaunchOptions;
+import Connection_client_server.Message;
+import Connection_client_server.MessageType;
+import client.DFSClient;
+import client.DFSClientCallback;
+import client.VotePolicy;
+import server.ClientHandler;
+import server.DFSServer;
+import server.DFSServerCallback;
+import server.LatencyHistogram;
+import server.ReplicationMode;
+import server.ServerEngine;
+import server.ServerSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Runs an in-process {@link server.DFSServer DFSServer} and many synthetic clients speaking the
+ * real protocol over loopback through {@link client.DFSClient DFSClient}, then reports the
+ * throughput and the p50/p99/p99.9 latency of each request type and of the full 2PC rounds.
+ *
+ * Each client logs in, then loops until the end of the run: it waits a think time drawn from an
+ * exponential distribution, then pushes a new file of a size drawn from the size mix, pulls a file
+ * pushed by any client, or deletes one of its own files, by the operation ratios, and waits for the
+ * result before the next operation. The clients vote for the deletes of the others with the given
+ * probability of YES, on the vote thread of DFSClient.
+ *
+ * LOGIN, PUSH and PULL are measured until their final response, CLOSE or ABORT. DELETE is measured
+ * until its response and VOTE from the decision until its response. A 2PC round lasts from the
+ * delete request until the requester gets the REMOVE or RESTORE notice.
+ *
+ * Run with: java benchmark.LoadGenerator [--clients 50] [--duration 30] [--warmup 5]
+ *           [--push 0.4] [--pull 0.4] [--delete 0.2] [--sizes 1K:70,64K:25,1M:5] [--think 100]
+ *           [--vote-yes 0.9] [--vote-delay 0] [--engine EVENT_LOOP] [--replication FAN_OUT]
+ *           [--vote-timeout 30000] [--config FILE]
+ * The durations are in seconds, the think time and the delays in milliseconds.
+ * The process needs about two file descriptors and four threads per client.
+ */
+public class LoadGenerator {
+
+    private static final String ROUND = "2PC round";
+    private static final MessageType[] MEASURED = {MessageType.LOGIN, MessageType.PUSH, MessageType.PULL,
+            MessageType.DELETE, MessageType.VOTE};
+
+    private final int clientCount;
+    private final double pushRatio;
+    private final double pullRatio;
+    private final long[] sizes;
+    private final int[] sizeWeights;
+    private final long thinkMillis;
+    private final double voteYes;
+    private final long voteDelayMillis;
+    private final long operationTimeoutMillis;
+
+    // replaced at the end of the warmup, so only the measured interval is reported
+    private volatile Stats stats = new Stats();
+    private volatile boolean running = true;
+    // the files on the server, pulled by any client
+    private final List<String> serverFiles = Collections.synchronizedList(new ArrayList<>());
+
+    LoadGenerator(LaunchOptions options){
+        clientCount = options.getInt("clients", 50);
+        double push = Double.parseDouble(options.getString("push", "0.4"));
+        double pull = Double.parseDouble(options.getString("pull", "0.4"));
+        double delete = Double.parseDouble(options.getString("delete", "0.2"));
+        double total = push + pull + delete;
+        if (clientCount < 1 || push < 0 || pull < 0 || delete < 0 || total <= 0){
+            throw new IllegalArgumentException("the clients and the operation ratios must be positive");
+        }
+        pushRatio = push / total;
+        pullRatio = pull / total;
+        String[] mix = options.getString("sizes", "1K:70,64K:25,1M:5").split(",");
+        sizes = new long[mix.length];
+        sizeWeights = new int[mix.length];
+        for (int i = 0; i < mix.length; i++){
+            String[] sizeAndWeight = mix[i].trim().split(":");
+            sizes[i] = parseSize(sizeAndWeight[0]);
+            sizeWeights[i] = sizeAndWeight.length > 1 ? Integer.parseInt(sizeAndWeight[1].trim()) : 1;
+        }
+        thinkMillis = options.getLong("think", 100);
+        voteYes = Double.parseDouble(options.getString("vote-yes", "0.9"));
+        voteDelayMillis = options.getLong("vote-delay", 0);
+        operationTimeoutMillis = ServerSettings.getVoteTimeout() + voteDelayMillis + 10_000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LaunchOptions options = new LaunchOptions(args);
+        File serverDirectory = Files.createTempDirectory("dfs-load-server").toFile();
+        ServerSettings.setServerDirectory(serverDirectory);
+        ServerSettings.setServerEngine(options.getEnum("engine", ServerEngine.class, ServerEngine.EVENT_LOOP));
+        ServerSettings.setReplicationMode(options.getEnum("replication", ReplicationMode.class, ReplicationMode.FAN_OUT));
+        ServerSettings.setVoteTimeout(options.getLong("vote-timeout", ServerSettings.VOTE_TIMEOUT));
+        LoadGenerator generator = new LoadGenerator(options);
+        ServerSettings.setMaxClient(generator.clientCount);
+        long warmupSeconds = options.getLong("warmup", 5);
+        long durationSeconds = options.getLong("duration", 30);
+
+        DFSServer server = new DFSServer(new SilentCallback());
+        server.start();
+        if (!server.isRunning()) System.exit(1);
+
+        List<File> directories = new ArrayList<>();
+        directories.add(serverDirectory);
+        CountDownLatch finished = new CountDownLatch(generator.clientCount);
+        List<SyntheticClient> clients = new ArrayList<>();
+        for (int i = 0; i < generator.clientCount; i++){
+            File directory = Files.createTempDirectory("dfs-load-client").toFile();
+            directories.add(directory);
+            SyntheticClient client = generator.new SyntheticClient("load"+i, directory, finished);
+            clients.add(client);
+            client.start();
+        }
+        System.out.println(String.format("%d clients on %s, %d s warmup, %d s measured",
+                generator.clientCount, ServerSettings.getServerEngine(), warmupSeconds, durationSeconds));
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        generator.stats = new Stats();
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        Stats measured = generator.stats;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        generator.running = false;
+        finished.await(generator.operationTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        measured.print(seconds);
+        System.out.println("server delete latency "+server.getDeleteLatency());
+        for (SyntheticClient client : clients) client.stopClient();
+        server.stop();
+        for (File directory : directories) deleteRecursively(directory);
+        System.exit(0);
+    }
+
+    /**
+     * A client running operations one at a time in its own thread
+     */
+    private class SyntheticClient extends Thread implements DFSClientCallback {
+
+        private final String username;
+        private final File directory;
+        private final CountDownLatch finished;
+        private final DFSClient client;
+        // the files pushed by this client and still on the server
+        private final List<String> ownFiles = new ArrayList<>();
+        private final Map<String, Long> voteStarts = new ConcurrentHashMap<>();
+        private final Semaphore completed = new Semaphore(0);
+
+        // the running operation, written by this thread before the request is sent
+        private volatile MessageType pendingType;
+        private volatile String pendingFilename;
+        private volatile long pendingStart;
+        private volatile boolean pendingAborted;
+        private int fileCount = 0;
+
+        SyntheticClient(String username, File directory, CountDownLatch finished){
+            super("load-"+username);
+            setDaemon(true);
+            this.username = username;
+            this.directory = directory;
+            this.finished = finished;
+            this.client = new DFSClient(this);
+            client.changeSharedDirectory(directory);
+            client.setVotePolicy(this::vote, voteDelayMillis);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!client.connect()) return;
+                if (!call(MessageType.LOGIN, null, () -> client.login(username))) return;
+                while (running){
+                    if (thinkMillis > 0){
+                        TimeUnit.MICROSECONDS.sleep((long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * thinkMillis * 1000));
+                    }
+                    double operation = ThreadLocalRandom.current().nextDouble();
+                    if (operation < pushRatio || (operation < pushRatio + pullRatio ? serverFiles.isEmpty() : ownFiles.isEmpty())){
+                        push();
+                    }
+                    else if (operation < pushRatio + pullRatio){
+                        pull();
+                    }
+                    else {
+                        delete();
+                    }
+                }
+            }
+            catch (InterruptedException | IOException e){
+                if (running) System.out.println(username+" stopped : "+e);
+            }
+            finally {
+                finished.countDown();
+            }
+        }
+
+        void stopClient(){
+            client.end();
+            client.disconnect();
+        }
+
+        private void push() throws IOException, InterruptedException {
+            String filename = username+"-"+(fileCount++)+".bin";
+            try (RandomAccessFile file = new RandomAccessFile(new File(directory, filename), "rw")){
+                file.setLength(pickSize());
+            }
+            if (call(MessageType.PUSH, filename, () -> client.push(new File(directory, filename)))){
+                ownFiles.add(filename);
+                serverFiles.add(filename);
+            }
+        }
+
+        private void pull() throws InterruptedException {
+            String filename;
+            synchronized (serverFiles){
+                if (serverFiles.isEmpty()) return;
+                filename = serverFiles.get(ThreadLocalRandom.current().nextInt(serverFiles.size()));
+            }
+            call(MessageType.PULL, filename, () -> client.pull(new File(directory, filename)));
+        }
+
+        private void delete() throws InterruptedException {
+            String filename = ownFiles.get(ThreadLocalRandom.current().nextInt(ownFiles.size()));
+            long start = System.nanoTime();
+            if (call(MessageType.DELETE, filename, () -> client.delete(new File(directory, filename)))){
+                // the round ends with the REMOVE or RESTORE notice
+                boolean removed = completed.tryAcquire(operationTimeoutMillis, TimeUnit.MILLISECONDS) && !pendingAborted;
+                stats.record(ROUND, System.nanoTime() - start, !removed);
+                if (removed){
+                    ownFiles.remove(filename);
+                    serverFiles.remove(filename);
+                }
+            }
+            pendingType = null;
+        }
+
+        /**
+         * Sends a request and waits for its final response, recording its latency
+         *
+         * @return true if the request succeeded
+         */
+        private boolean call(MessageType type, String filename, Runnable send) throws InterruptedException {
+            // a response arriving after a timeout does not complete the next operation
+            completed.drainPermits();
+            pendingFilename = filename;
+            pendingAborted = false;
+            pendingStart = System.nanoTime();
+            pendingType = type;
+            send.run();
+            if (!completed.tryAcquire(operationTimeoutMillis, TimeUnit.MILLISECONDS)){
+                stats.record(type, System.nanoTime() - pendingStart, true);
+                pendingType = null;
+                return false;
+            }
+            if (MessageType.DELETE != type) pendingType = null;
+            return !pendingAborted;
+        }
+
+        /**
+         * The vote policy, called on the vote thread right before the vote is sent
+         */
+        private boolean vote(List<File> files){
+            voteStarts.put(files.get(0).getName(), System.nanoTime());
+            return ThreadLocalRandom.current().nextDouble() < voteYes;
+        }
+
+        @Override
+        public void onReply(Message request, Message response) {
+            MessageType requestType = request.getMessageType();
+            MessageType responseType = response.getMessageType();
+            if (MessageType.VOTE == requestType){
+                Long start = voteStarts.remove(request.getArgumentString(1));
+                if (null != start) stats.record(MessageType.VOTE, System.nanoTime() - start, MessageType.ABORT == responseType);
+                return;
+            }
+            if (requestType != pendingType || MessageType.OPEN == responseType) return;
+            if (null != pendingFilename && !pendingFilename.equals(request.getArgumentString(0))) return;
+            // a push or a pull ends with CLOSE or ABORT, the other requests with their response
+            if ((MessageType.PUSH == requestType || MessageType.PULL == requestType)
+                    && MessageType.CLOSE != responseType && MessageType.ABORT != responseType) return;
+            pendingAborted = MessageType.ABORT == responseType;
+            stats.record(requestType, System.nanoTime() - pendingStart, pendingAborted);
+            if (MessageType.DELETE == requestType && !pendingAborted){
+                // the requester keeps waiting for the end of the round
+                pendingFilename = request.getArgumentString(0);
+            }
+            completed.release();
+        }
+
+        @Override
+        public void onNotification(Message response) {
+            MessageType type = response.getMessageType();
+            if ((MessageType.REMOVE == type || MessageType.RESTORE == type) && MessageType.DELETE == pendingType
+                    && response.getArgumentString(0).equals(pendingFilename)){
+                pendingAborted = MessageType.RESTORE == type;
+                completed.release();
+            }
+        }
+    }
+
+    private long pickSize(){
+        int total = 0;
+        for (int weight : sizeWeights) total += weight;
+        int pick = ThreadLocalRandom.current().nextInt(Math.max(1, total));
+        for (int i = 0; i < sizes.length; i++){
+            pick -= sizeWeights[i];
+            if (pick < 0) return sizes[i];
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private static long parseSize(String size){
+        String value = size.trim().toUpperCase();
+        long unit = 1;
+        if (value.endsWith("K")) unit = 1024;
+        else if (value.endsWith("M")) unit = 1024 * 1024;
+        else if (value.endsWith("G")) unit = 1024 * 1024 * 1024;
+        if (unit > 1) value = value.substring(0, value.length() - 1);
+        return Long.parseLong(value) * unit;
+    }
+
+    private static void deleteRecursively(File file){
+        File[] children = file.listFiles();
+        if (null != children) for (File child : children) deleteRecursively(child);
+        file.delete();
+    }
+
+    /**
+     * The latencies of each request type and of the 2PC rounds, with the requests which were
+     * aborted or timed out and the rounds which ended with RESTORE
+     */
+    private static class Stats {
+        private final Map<Object, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+        private final Map<Object, AtomicLong> failures = new ConcurrentHashMap<>();
+
+        void record(Object what, long nanos, boolean failed){
+            latencies.computeIfAbsent(what, key -> new LatencyHistogram()).record(nanos);
+            if (failed) failures.computeIfAbsent(what, key -> new AtomicLong()).incrementAndGet();
+        }
+
+        void print(double seconds){
+            System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s", "request", "count",
+                    "aborted", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+            List<Object> rows = new ArrayList<>();
+            Collections.addAll(rows, (Object[]) MEASURED);
+            rows.add(ROUND);
+            long total = 0;
+            for (Object row : rows){
+                LatencyHistogram histogram = latencies.get(row);
+                if (null == histogram) continue;
+                long count = histogram.count();
+                AtomicLong failed = failures.get(row);
+                if (!ROUND.equals(row)) total += count;
+                System.out.println(String.format("%-10s %10d %10d %10.1f %10.2f %10.2f %10.2f %10.2f", row, count,
+                        null == failed ? 0 : failed.get(), count / seconds, histogram.percentile(50),
+                        histogram.percentile(99), histogram.percentile(99.9), histogram.percentile(100)));
+            }
+            System.out.println(String.format("%-10s %10d %10s %10.1f", "total", total, "", total / seconds));
+        }
+    }
+
+    /**
+     * A server callback which only prints the errors
+     */
+    private static class SilentCallback implements DFSServerCallback {
+
+        @Override
+        public void onServerConnectedOrDisconnected(String server, boolean isConnected) {}
+
+        @Override
+        public void onError(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {}
+
+        @Override
+        public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {}
+
+        @Override
+        public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {}
+    }
+}
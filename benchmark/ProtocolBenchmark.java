@@ -0,0 +1,275 @@
+package benchmark;
+
+import Connection_client_server.BinaryMessageCodec;
+import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
+import Connection_client_server.MessageType;
+import Connection_client_server.QuotedStringTokenizer;
+import Connection_client_server.TextMessageCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Measures the hot paths of the protocol with JMH, in nanoseconds per operation:
+ *
+ * typeFrom       MessageType.from over the names of all the message types
+ * parse          new Message(line, tokenizer) from a command line
+ * format         the text codec encoding a message into a command line
+ * binaryEncode   the binary codec encoding a message into a frame
+ * binaryDecode   the binary codec decoding a frame into a message
+ * tokenize       QuotedStringTokenizer over a DELETE line with quoted filenames
+ * copy           a file copied through the 512 byte loop with a flush per chunk of the first
+ *                ClientHandler, through a 64 KB buffer, and with FileChannel.transferTo
+ *
+ * The messages are the ones seen on a connection: a login, a push with its id, a vote and
+ * a QUERYDELETE of 8 files.
+ *
+ * Run with: mvn -B package, then
+ *           java -jar benchmark/target/benchmarks.jar ProtocolBenchmark -rf json -rff protocol-benchmark.json
+ * The defaults are 5 warmups and 5 iterations of 1 s in one fork, -wi, -i, -r and -f change them
+ * and -p sizeKb=4096 the size of the copied file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The names of all the message types, taken in turn
+     */
+    @State(Scope.Thread)
+    public static class Types {
+        String[] names;
+        int next;
+
+        @Setup
+        public void setUp(){
+            MessageType[] types = MessageType.values();
+            names = new String[types.length];
+            for (int i = 0; i < types.length; i++) names[i] = types[i].name();
+        }
+    }
+
+    /**
+     * A message seen on a connection, with its command line and its binary frame
+     */
+    @State(Scope.Thread)
+    public static class Messages {
+        @Param({"login", "push", "vote", "querydelete-8"})
+        public String message;
+
+        final TextMessageCodec text = new TextMessageCodec();
+        final BinaryMessageCodec binary = new BinaryMessageCodec();
+        final QuotedStringTokenizer tokenizer = new QuotedStringTokenizer("", Message.ARG_SEPARATOR);
+        Message sample;
+        String line;
+        ByteBuffer frame;
+
+        @Setup
+        public void setUp(){
+            sample = sampleMessage(message);
+            line = lineOf(text, sample);
+            frame = copyOf(binary.encode(sample));
+        }
+    }
+
+    /**
+     * A DELETE line with a number of quoted filenames
+     */
+    @State(Scope.Thread)
+    public static class DeleteLine {
+        @Param({"1", "8", "64"})
+        public int quoted;
+
+        final QuotedStringTokenizer tokenizer = new QuotedStringTokenizer("", Message.ARG_SEPARATOR);
+        String line;
+
+        @Setup
+        public void setUp(){
+            StringBuilder builder = new StringBuilder("DELETE");
+            for (int i = 0; i < quoted; i++){
+                builder.append(" \"shared folder/report ").append(i).append(".txt\"");
+            }
+            line = builder.toString();
+        }
+    }
+
+    /**
+     * A file copied by each loop, created once for the trial
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+        @Param({"legacy-512", "buffered-64k", "channel"})
+        public String loop;
+
+        @Param({"1024"})
+        public int sizeKb;
+
+        File directory;
+        File source;
+        File target;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("dfs-protocol").toFile();
+            source = createFile(new File(directory, "source.bin"), sizeKb * 1024L);
+            target = new File(directory, "target.bin");
+        }
+
+        @TearDown
+        public void tearDown(){
+            source.delete();
+            target.delete();
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public MessageType typeFrom(Types types){
+        return MessageType.from(types.names[types.next++ % types.names.length]);
+    }
+
+    @Benchmark
+    public Message parse(Messages messages){
+        return new Message(messages.line, messages.tokenizer);
+    }
+
+    @Benchmark
+    public ByteBuffer format(Messages messages){
+        return messages.text.encode(messages.sample);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryEncode(Messages messages){
+        return messages.binary.encode(messages.sample);
+    }
+
+    @Benchmark
+    public Message binaryDecode(Messages messages) throws IOException {
+        messages.frame.position(0);
+        return messages.binary.decode(messages.frame);
+    }
+
+    @Benchmark
+    public void tokenize(DeleteLine delete, Blackhole blackhole){
+        delete.tokenizer.reset(delete.line);
+        while (delete.tokenizer.hasMoreToken()) blackhole.consume(delete.tokenizer.nextToken());
+    }
+
+    @Benchmark
+    public long copy(Copy copy) throws IOException {
+        switch (copy.loop){
+            case "legacy-512": return streamCopy(copy.source, copy.target, LEGACY_BUFFER_SIZE, true);
+            case "buffered-64k": return streamCopy(copy.source, copy.target, BUFFER_SIZE, false);
+            default: return channelCopy(copy.source, copy.target);
+        }
+    }
+
+    private static Message sampleMessage(String name){
+        switch (name){
+            case "login":
+                return new Message(MessageType.LOGIN).addArgument("alice").addArgument(MessageCodec.BINARY);
+            case "push":
+                return new Message(MessageType.PUSH).addArgument("quarterly report 2024.xlsx").addArgument(1_048_576L).setId(12);
+            case "vote":
+                return new Message(MessageType.VOTE).addArgument("YES").addArgument("quarterly report 2024.xlsx").addArgument(42L).setId(13);
+            default:
+                Message query = new Message(MessageType.QUERYDELETE);
+                for (int i = 0; i < 8; i++) query.addArgument("shared folder/report "+i+".txt").addArgument(42L);
+                return query;
+        }
+    }
+
+    private static String lineOf(TextMessageCodec codec, Message message){
+        ByteBuffer buffer = codec.encode(message);
+        String line = StandardCharsets.UTF_8.decode(buffer).toString();
+        return line.substring(0, line.length() - 2);
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer buffer){
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        return copy;
+    }
+
+    /**
+     * Copies through a byte array, flushing after each chunk like the first ClientHandler did
+     */
+    private static long streamCopy(File source, File target, int bufferSize, boolean flushEachChunk) throws IOException {
+        long copied = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(target))){
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = in.read(buffer)) > 0){
+                out.write(buffer, 0, read);
+                if (flushEachChunk) out.flush();
+                copied += read;
+            }
+        }
+        return copied;
+    }
+
+    private static long channelCopy(File source, File target) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            long size = in.size();
+            long copied = 0;
+            while (copied < size){
+                copied += in.transferTo(copied, size - copied, out);
+            }
+            return copied;
+        }
+    }
+
+    private static File createFile(File file, long size) throws IOException {
+        byte[] chunk = new byte[BUFFER_SIZE];
+        new Random(1).nextBytes(chunk);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")){
+            for (long written = 0; written < size; written += chunk.length){
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+}
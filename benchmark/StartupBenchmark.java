@@ -0,0 +1,196 @@
+package benchmark;
+
+import Connection_client_server.Message;
+import server.ClientHandler;
+import server.DFSServer;
+import server.DFSServerCallback;
+import server.ServerSettings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Starts the headless launchers in new JVMs and reports the time until they are ready:
+ *
+ * server  java server.HeadlessServer, ready once the server socket is bound
+ * client  java client.HeadlessClient against a server of this process, ready once logged in
+ *
+ * For each mode it prints the wall time from the process start until the ready line, the time
+ * spent in main reported by the launcher and the resident memory of the ready process, when the
+ * platform reports it in /proc. The launchers run with the class path of this process.
+ *
+ * Run with: java benchmark.StartupBenchmark [runs] [extra JVM option ...]
+ */
+public class StartupBenchmark {
+
+    private static final int PORT = 8911;
+    private static final long READY_TIMEOUT_SECONDS = 30;
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> jvmOptions = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) jvmOptions.add(args[i]);
+
+        File serverDirectory = Files.createTempDirectory("dfs-startup-server").toFile();
+        File clientDirectory = Files.createTempDirectory("dfs-startup-client").toFile();
+
+        List<Sample> serverSamples = new ArrayList<>();
+        for (int i = 0; i < runs; i++){
+            serverSamples.add(launch(jvmOptions, "server.HeadlessServer",
+                    "--directory", serverDirectory.getAbsolutePath(), "--port", String.valueOf(PORT)));
+        }
+
+        ServerSettings.setServerDirectory(serverDirectory);
+        ServerSettings.setCommandPort(PORT);
+        ServerSettings.setMaxClient(runs + 1);
+        DFSServer server = new DFSServer(new SilentCallback());
+        server.start();
+        List<Sample> clientSamples = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs; i++){
+                clientSamples.add(launch(jvmOptions, "client.HeadlessClient",
+                        "--directory", clientDirectory.getAbsolutePath(), "--username", "startup"+i,
+                        "--port", String.valueOf(PORT)));
+            }
+        }
+        finally {
+            server.stop();
+        }
+
+        System.out.println(String.format("%-8s %6s %12s %12s %12s %12s %10s", "mode", "runs",
+                "min ms", "median ms", "max ms", "main ms", "RSS MB"));
+        print("server", serverSamples);
+        print("client", clientSamples);
+        System.exit(0);
+    }
+
+    /**
+     * Starts a launcher and waits for the line telling it is ready, then stops it
+     *
+     * @param jvmOptions the options of the new JVM
+     * @param mainClass the launcher class
+     * @param args the arguments of the launcher
+     * @return the measures of the run
+     */
+    private static Sample launch(List<String> jvmOptions, String mainClass, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        Collections.addAll(command, args);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))){
+            String line;
+            while (null != (line = reader.readLine())){
+                if (line.contains(" ready ")){
+                    Sample sample = new Sample();
+                    sample.wallMillis = (System.nanoTime() - start) / 1_000_000;
+                    sample.mainMillis = parseMainMillis(line);
+                    sample.rssKilobytes = residentKilobytes(process.pid());
+                    return sample;
+                }
+            }
+            throw new IOException(mainClass+" exited with "+process.waitFor()+" before it was ready");
+        }
+        finally {
+            process.destroy();
+            if (!process.waitFor(READY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Reads the time spent in main from a ready line like "... in 52 ms, 410 ms since the JVM started"
+     */
+    private static long parseMainMillis(String line){
+        int end = line.indexOf(" ms,");
+        int begin = line.lastIndexOf(" in ", end);
+        if (end < 0 || begin < 0) return -1;
+        try {
+            return Long.parseLong(line.substring(begin + 4, end).trim());
+        }
+        catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the resident memory of a process from /proc, -1 where it is not available
+     */
+    private static long residentKilobytes(long pid){
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))){
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        catch (IOException | NumberFormatException e){
+            // not a Linux system
+        }
+        return -1;
+    }
+
+    private static void print(String mode, List<Sample> samples){
+        List<Long> wall = new ArrayList<>();
+        long main = 0;
+        long rss = 0;
+        for (Sample sample : samples){
+            wall.add(sample.wallMillis);
+            main += sample.mainMillis;
+            rss = rss < 0 || sample.rssKilobytes < 0 ? -1 : rss + sample.rssKilobytes;
+        }
+        Collections.sort(wall);
+        System.out.println(String.format("%-8s %6d %12d %12d %12d %12d %10s", mode, samples.size(),
+                wall.get(0), wall.get(wall.size() / 2), wall.get(wall.size() - 1), main / samples.size(),
+                rss < 0 ? "n/a" : String.format("%.1f", rss / 1024.0 / samples.size())));
+    }
+
+    /**
+     * The measures of a single launch
+     */
+    private static class Sample {
+        long wallMillis;
+        long mainMillis;
+        long rssKilobytes;
+    }
+
+    /**
+     * A server callback which ignores all the events
+     */
+    private static class SilentCallback implements DFSServerCallback {
+
+        @Override
+        public void onServerConnectedOrDisconnected(String server, boolean isConnected) {}
+
+        @Override
+        public void onError(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {}
+
+        @Override
+        public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {}
+
+        @Override
+        public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {}
+    }
+}
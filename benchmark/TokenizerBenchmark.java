@@ -0,0 +1,126 @@
+package benchmark;
+
+import Connection_client_server.QuotedStringTokenizer;
+
+import java.util.LinkedList;
+import java.util.StringTokenizer;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Compares the single pass {@link Connection_client_server.QuotedStringTokenizer QuotedStringTokenizer}
+ * with the previous recursive implementation on command lines carrying many quoted filenames.
+ *
+ * Run with: java benchmark.TokenizerBenchmark [iterations]
+ */
+public class TokenizerBenchmark {
+
+    private static final int[] QUOTED_ARGUMENTS = {1, 8, 64, 512};
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        System.out.println(String.format("%-10s %16s %16s %8s", "quoted", "recursive ns/op", "single ns/op", "speedup"));
+        for (int k : QUOTED_ARGUMENTS){
+            String line = buildLine(k);
+            int rounds = Math.max(10, iterations / k);
+            QuotedStringTokenizer tokenizer = new QuotedStringTokenizer("");
+
+            // warm up both implementations before measuring
+            runRecursive(line, rounds);
+            runSinglePass(tokenizer, line, rounds);
+
+            long recursive = runRecursive(line, rounds);
+            long single = runSinglePass(tokenizer, line, rounds);
+            System.out.println(String.format("%-10d %16d %16d %7.1fx", k, recursive / rounds, single / rounds,
+                    (double) recursive / Math.max(1, single)));
+        }
+    }
+
+    private static String buildLine(int quotedArguments){
+        StringBuilder builder = new StringBuilder("DELETE");
+        for (int i = 0; i < quotedArguments; i++){
+            builder.append(" \"shared folder/report ").append(i).append(".txt\"");
+        }
+        return builder.toString();
+    }
+
+    private static long runRecursive(String line, int rounds){
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++){
+            LegacyTokenizer tokenizer = new LegacyTokenizer(line, " ");
+            while (tokenizer.hasMoreToken()){
+                sink += tokenizer.nextToken().length();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.println();
+        return elapsed;
+    }
+
+    private static long runSinglePass(QuotedStringTokenizer tokenizer, String line, int rounds){
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++){
+            tokenizer.reset(line);
+            while (tokenizer.hasMoreToken()){
+                sink += tokenizer.nextToken().length();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.println();
+        return elapsed;
+    }
+
+    /**
+     * The previous recursive implementation, kept here only as the baseline
+     */
+    private static class LegacyTokenizer {
+
+        private LinkedList<String> tokens;
+        private String delim;
+
+        LegacyTokenizer(String target, String delim){
+            this.delim = delim;
+            tokens = new LinkedList<>(tokenize(target.trim()));
+        }
+
+        boolean hasMoreToken(){
+            return !tokens.isEmpty();
+        }
+
+        String nextToken(){
+            return tokens.removeFirst();
+        }
+
+        private LinkedList<String> tokenize(String target){
+            LinkedList<String> tmp = new LinkedList<>();
+            int quoteStart = target.indexOf('"');
+            int quoteEnd = target.indexOf('"',quoteStart+1);
+
+            if(quoteStart < 0){
+                StringTokenizer tokenizer = new StringTokenizer(target, delim);
+                while(tokenizer.hasMoreTokens()){
+                    tmp.add(tokenizer.nextToken());
+                }
+            }
+            else if(quoteEnd < 0) {
+                throw new IllegalArgumentException("broken quote at "+quoteStart);
+            }
+            else {
+                String quotedToken = target.substring(quoteStart+1, quoteEnd);
+                tmp.addFirst(quotedToken);
+                if(quoteStart > 0){
+                    tmp.addAll(0, tokenize(target.substring(0, quoteStart-1).trim()));
+                }
+                if(target.length()-quoteEnd > 0){
+                    tmp.addAll(tokenize(target.substring(quoteEnd+1, target.length()).trim()));
+                }
+            }
+            return tmp;
+        }
+    }
+}
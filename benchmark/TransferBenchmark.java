@@ -0,0 +1,205 @@
+package benchmark;
+
+import Connection_client_server.FileTransfer;
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
+import Connection_client_server.MessageStream;
+import Connection_client_server.MessageType;
+import Connection_client_server.OutgoingTransfer;
+import Connection_client_server.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Moves files over loopback and reports the throughput of the data paths:
+ *
+ * legacy     a new ServerSocket per file, copied through a 512 byte array with a flush per chunk
+ * copy       DATA frames on one connection, each chunk copied into a message
+ * zero-copy  DATA frames on one connection, sent with transferTo and stored straight from the channel
+ *
+ * Run with: java benchmark.TransferBenchmark [size in MB ...]
+ * The default sizes are 1, 100 and 2048 MB, the files are created in the temp directory.
+ */
+public class TransferBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 512;
+    private static final int TRANSFER_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = args.length > 0 ? new long[args.length] : new long[]{1, 100, 2048};
+        for (int i = 0; i < args.length; i++){
+            sizes[i] = Long.parseLong(args[i]);
+        }
+        File directory = Files.createTempDirectory("dfs-transfer").toFile();
+        File target = new File(directory, "target.bin");
+
+        // warm up all the paths before measuring
+        File warmup = createFile(directory, 1);
+        for (int i = 0; i < 3; i++){
+            legacy(warmup, target);
+            framed(warmup, target, false);
+            framed(warmup, target, true);
+        }
+        warmup.delete();
+
+        System.out.println(String.format("%-10s %14s %14s %14s %10s", "size MB", "legacy MB/s", "copy MB/s", "zero-copy MB/s", "speedup"));
+        for (long size : sizes){
+            File source = createFile(directory, size);
+            try {
+                double legacy = throughput(size, legacy(source, target), source, target);
+                double copy = throughput(size, framed(source, target, false), source, target);
+                double direct = throughput(size, framed(source, target, true), source, target);
+                System.out.println(String.format("%-10d %14.1f %14.1f %14.1f %9.1fx", size, legacy, copy, direct, direct / legacy));
+            }
+            finally {
+                source.delete();
+                target.delete();
+            }
+        }
+        directory.delete();
+        System.exit(0);
+    }
+
+    /**
+     * The path before the transfers were multiplexed over the command connection
+     *
+     * @return the elapsed nanoseconds
+     */
+    private static long legacy(File source, File target) throws Exception {
+        long start = System.nanoTime();
+        ServerSocket dataServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread receiver = new Thread(() -> {
+            try (Socket client = dataServer.accept();
+                 BufferedInputStream bin = new BufferedInputStream(client.getInputStream());
+                 BufferedOutputStream bout = new BufferedOutputStream(new FileOutputStream(target))){
+                byte[] buff = new byte[LEGACY_BUFFER_SIZE];
+                int readlen;
+                while ((readlen = bin.read(buff)) > 0){
+                    bout.write(buff, 0, readlen);
+                    bout.flush();
+                }
+            }
+            catch (IOException e){
+                System.out.println(e.toString());
+            }
+        });
+        receiver.start();
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), dataServer.getLocalPort());
+             BufferedInputStream bin = new BufferedInputStream(new FileInputStream(source));
+             BufferedOutputStream bout = new BufferedOutputStream(client.getOutputStream())){
+            byte[] buff = new byte[LEGACY_BUFFER_SIZE];
+            int readlen;
+            while ((readlen = bin.read(buff)) > 0){
+                bout.write(buff, 0, readlen);
+                bout.flush();
+            }
+        }
+        receiver.join();
+        Util.closeSilently(dataServer);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * A single transfer over a connection using the binary codec, as done by the
+     * server and the client. Without direct the streams are used instead of the channel,
+     * so each chunk is copied into and out of a message.
+     *
+     * @return the elapsed nanoseconds
+     */
+    private static long framed(File source, File target, boolean direct) throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()){
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel senderChannel = SocketChannel.open(server.getLocalAddress());
+            SocketChannel receiverChannel = server.accept();
+            MessageStream sender = open(senderChannel, direct);
+            MessageStream receiver = open(receiverChannel, direct);
+
+            long start = System.nanoTime();
+            OutgoingTransfer outgoing = new OutgoingTransfer(TRANSFER_ID, null, source, sender);
+            IncomingTransfer incoming = new IncomingTransfer(TRANSFER_ID, null, target, receiver);
+            receiver.setIncomingTransfers(id -> TRANSFER_ID == id ? incoming : null);
+
+            Thread receiving = new Thread(() -> {
+                try {
+                    Message data;
+                    do {
+                        data = receiver.read();
+                    } while (MessageType.DATA != data.getMessageType() || !incoming.receive(data));
+                }
+                catch (IOException e){
+                    System.out.println(e.toString());
+                }
+            });
+            // reads the ACKs and grants the credit to the sender
+            Thread acknowledging = new Thread(() -> {
+                try {
+                    while (true){
+                        Message ack = sender.read();
+                        if (MessageType.ACK == ack.getMessageType()) outgoing.grant(ack.getArgumentInteger(1));
+                    }
+                }
+                catch (IOException e){}
+            });
+            acknowledging.setDaemon(true);
+            receiving.start();
+            acknowledging.start();
+            outgoing.send();
+            receiving.join();
+            long elapsed = System.nanoTime() - start;
+
+            Util.closeSilently(sender, receiver, senderChannel, receiverChannel);
+            return elapsed;
+        }
+    }
+
+    private static MessageStream open(SocketChannel channel, boolean direct) throws IOException {
+        MessageStream stream = direct
+                ? new MessageStream(channel)
+                : new MessageStream(channel.socket().getInputStream(), channel.socket().getOutputStream());
+        stream.getCodec().setCodec(MessageCodec.BINARY);
+        return stream;
+    }
+
+    private static double throughput(long sizeMb, long nanos, File source, File target){
+        if (source.length() != target.length()){
+            throw new IllegalStateException("received "+target.length()+" of "+source.length()+" bytes");
+        }
+        return sizeMb / (nanos / 1e9);
+    }
+
+    /**
+     * Creates a file of random bytes, one random block repeated to the size
+     */
+    private static File createFile(File directory, long sizeMb) throws IOException {
+        File file = new File(directory, "source-"+sizeMb+".bin");
+        byte[] block = new byte[FileTransfer.DIRECT_CHUNK_SIZE];
+        new Random(sizeMb).nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")){
+            long size = sizeMb * 1024 * 1024;
+            for (long written = 0; written < size; written += block.length){
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+}
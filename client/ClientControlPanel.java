@@ -1,9 +1,9 @@
 
 package client;
 
+import Connection_client_server.Log;
 import Connection_client_server.Message;
 import Connection_client_server.MessageType;
-import Connection_client_server.Util;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -13,10 +13,15 @@ import javafx.stage.WindowEvent;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
-import static Connection_client_server.Util.DEBUG;
 
 /**
  *
@@ -28,6 +33,12 @@ import static Connection_client_server.Util.DEBUG;
  */
 public class ClientControlPanel implements Initializable, DFSClientCallback, FileObserverCallback {
 
+    private static final Log LOG = Log.forClass(ClientControlPanel.class);
+
+    // the system properties choosing how the deletes are voted, see VotePolicy.parse
+    public static final String VOTE_POLICY_PROPERTY = "dfs.vote.policy";
+    public static final String VOTE_DELAY_PROPERTY = "dfs.vote.delay";
+
     @FXML
     private TextField mSharedDirectory;
     @FXML
@@ -39,11 +50,21 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
     private FileObserver observer;
 
     private File lastPulledFile = null;
-    private File lastRemovedFile = null;
+    // the files removed by a REMOVE notice, their deletes are not sent back to the server
+    private final Set<File> removedFiles = ConcurrentHashMap.newKeySet();
 
     public ClientControlPanel(){
         client = new DFSClient(this);
         observer = new FileObserver(this);
+        VotePolicy policy;
+        try {
+            policy = VotePolicy.parse(System.getProperty(VOTE_POLICY_PROPERTY, "ask"), this::askDelete);
+        }
+        catch (IllegalArgumentException e){
+            LOG.warn("vote policy ignored, asking instead", e);
+            policy = this::askDelete;
+        }
+        client.setVotePolicy(policy, Long.getLong(VOTE_DELAY_PROPERTY, 0));
     }
 
     /**
@@ -74,13 +95,17 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
     @Override
     public void onNotification(Message response) {
         MessageType type = response.getMessageType();
-        if (DEBUG) Util.log(type.toString());
+        if (LOG.isDebugEnabled()) LOG.debug(type.toString());
         if (null != type) switch (type) {
             case INVALID:
                 onDownload(new File(client.getSharedDirectory(), response.getArgumentString(0)));
                 break;
-            case QUERYDELETE:
-                onQueryDelete(new File(client.getSharedDirectory(), response.getArgumentString(0)));
+            case OPEN:
+                // a file pushed by another client is sent by the server
+                Platform.runLater(() -> lastPulledFile = new File(client.getSharedDirectory(), response.getArgumentString(1)));
+                break;
+            case CLOSE:
+                Platform.runLater(() -> onDownloadComplete(true, "File \"" + response.getArgumentString(0) + "\" update successfully"));
                 break;
             case REMOVE:
             case RESTORE:
@@ -95,7 +120,7 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
     /**
      * Called when a new response is available.
      *
-     * @param request the last sent request
+     * @param request the sent request this response belongs to
      * @param response the response
      */
     @Override
@@ -120,7 +145,9 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
                         break;
                     case DELETE:
                         showAlertMessage(Alert.AlertType.ERROR, "Delete Fail", response.getArgumentString(1));
-                        onDownload(new File(client.getSharedDirectory(), response.getArgumentString(0)));
+                        for (int i = 0; i < request.argumentCount(); i++){
+                            onDownload(new File(client.getSharedDirectory(), request.getArgumentString(i)));
+                        }
                         break;
                     default:
                         break;
@@ -150,7 +177,7 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
      */
     @Override
     public void onCreated(File which) {
-        if (DEBUG) Util.log(which.getAbsolutePath());
+        if (LOG.isDebugEnabled()) LOG.debug(which.getAbsolutePath());
         Platform.runLater(() -> {
             if (!which.equals(lastPulledFile)){
                 onUpload(which);
@@ -165,12 +192,27 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
      */
     @Override
     public void onDeleted(File which) {
-        if (DEBUG) Util.log(which.getAbsolutePath());
-        if (!which.equals(lastRemovedFile)){
+        if (LOG.isDebugEnabled()) LOG.debug(which.getAbsolutePath());
+        if (!removedFiles.remove(which)){
             client.delete(which);
         }
     }
 
+    /**
+     * Called with the files deleted together, they are sent in a single delete request
+     *
+     * @param which the deleted files or child directories
+     */
+    @Override
+    public void onDeleted(List<File> which) {
+        if (LOG.isDebugEnabled()) LOG.debug(which.size()+" files deleted");
+        List<File> deleted = new ArrayList<>();
+        for (File file : which){
+            if (!removedFiles.remove(file)) deleted.add(file);
+        }
+        if (!deleted.isEmpty()) client.delete(deleted);
+    }
+
     /**
      * Called when a file is modified
      *
@@ -210,26 +252,51 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
     }
 
     /**
+     * The interactive vote policy, asks the user on the GUI thread and waits for the answer
+     * on the voting thread
      *
-     * @param file
+     * @param files the files to delete
+     * @return true if the user votes YES, false otherwise
      */
-    private void onQueryDelete(File file){
+    private boolean askDelete(List<File> files){
+        File file = files.get(0);
+        CompletableFuture<Boolean> answer = new CompletableFuture<>();
         Platform.runLater(() -> {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
             alert.setTitle(buildTitle("Vote For Global Delete"));
-            alert.setContentText("The file \""+file.getName()+"\" is deleted in a remote client, do you want to delete the local file?");
+            alert.setContentText(1 == files.size()
+                    ? "The file \""+file.getName()+"\" is deleted in a remote client, do you want to delete the local file?"
+                    : files.size()+" files, like \""+file.getName()+"\", are deleted in a remote client, do you want to delete the local files?");
             ButtonType yes = new ButtonType("Yes");
             ButtonType no = new ButtonType("No");
             alert.getButtonTypes().clear();
             alert.getButtonTypes().addAll(yes, no);
             Optional<ButtonType> optional = alert.showAndWait();
-            if (null != optional && optional.isPresent() && yes == optional.get()){
-                client.vote("YES", file);
-            }
-            else {
-                client.vote("NO", file);
-            }
+            answer.complete(null != optional && optional.isPresent() && yes == optional.get());
         });
+        try {
+            return answer.get();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e){
+            return false;
+        }
+    }
+
+    /**
+     * Called once a delete is voted, shows the vote in the title
+     *
+     * @param files the files of the delete
+     * @param yes the vote sent
+     */
+    @Override
+    public void onVoted(List<File> files, boolean yes) {
+        String what = 1 == files.size() ? "\""+files.get(0).getName()+"\"" : files.size()+" files";
+        Platform.runLater(() -> ClientApplication.getInstance().getPrimaryStage()
+                .setTitle(buildTitle("Client - voted "+(yes ? "YES" : "NO")+" to delete "+what)));
     }
 
     /**
@@ -245,13 +312,13 @@ public class ClientControlPanel implements Initializable, DFSClientCallback, Fil
         }
         else {
             try {
-                which.delete();
-                lastRemovedFile = which;
+                removedFiles.add(which);
+                if (!which.delete()) removedFiles.remove(which);
             }
             catch (Exception e){
-                if (DEBUG) {
+                if (LOG.isDebugEnabled()) {
                 }
-                lastRemovedFile = null;
+                removedFiles.remove(which);
             }
         }
     }
@@ -1,13 +1,20 @@
 
 package client;
 
+import Connection_client_server.Log;
 import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
 import Connection_client_server.MessageType;
 import Connection_client_server.Util;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import static Connection_client_server.Util.DEBUG;
 
 /**
  *
@@ -19,15 +26,27 @@ import static Connection_client_server.Util.DEBUG;
  */
 public class DFSClient implements DFSClientCallback {
 
+    private static final Log LOG = Log.forClass(DFSClient.class);
+
     private static final String SERVER_ADDRESS = "127.0.0.1";
     private static final int SERVER_PORT = 8910;
+    // the files of a single delete request, bounded so the request and the notices
+    // with a number after each filename fit in a frame
+    private static final int MAX_DELETE_BATCH = MessageCodec.MAX_ARGUMENTS / 2;
 
     private File sharedDirectory;
+    private String serverAddress = SERVER_ADDRESS;
+    private int serverPort = SERVER_PORT;
 
     private DFSClientThread dfsClientThread;
     private DFSClientCallback dfsClientCallback;
     private boolean isConnected = false;
 
+    // votes for the deletes off the thread reading the responses and off the GUI thread
+    private volatile VotePolicy votePolicy;
+    private volatile long voteDelayMillis = 0;
+    private ScheduledExecutorService voteExecutor;
+
     /**
      * Sets the shared directory
      *
@@ -37,6 +56,17 @@ public class DFSClient implements DFSClientCallback {
         sharedDirectory = directory;
     }
 
+    /**
+     * Sets the address of the server, used the next time the client connects
+     *
+     * @param address the host name or ip address, <code>null</code> for the local server
+     * @param port the port, the default port if it is not between 1 and 65535
+     */
+    public void setServerAddress(String address, int port){
+        serverAddress = Util.isNotEmptyString(address) ? address : SERVER_ADDRESS;
+        serverPort = port > 0 && port <= 65535 ? port : SERVER_PORT;
+    }
+
     /**
      * Returns the selected shared directory
      * @return the selected shared directory
@@ -71,6 +101,25 @@ public class DFSClient implements DFSClientCallback {
         this.dfsClientCallback = callback;
     }
 
+    /**
+     * Sets the policy voting for the deletes asked by the server, the QUERYDELETE notices
+     * are then voted by the policy instead of passed to the callback
+     *
+     * @param policy the vote policy, <code>null</code> to pass the QUERYDELETE notices to the callback
+     * @param delayMillis the time to wait before asking the policy
+     */
+    public synchronized void setVotePolicy(VotePolicy policy, long delayMillis){
+        this.votePolicy = policy;
+        this.voteDelayMillis = Math.max(0, delayMillis);
+        if (null != policy && null == voteExecutor){
+            voteExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "vote");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
     /**
      * Connects to the server
      *
@@ -78,12 +127,12 @@ public class DFSClient implements DFSClientCallback {
      */
     public boolean connect(){
         try {
-            dfsClientThread = new DFSClientThread(sharedDirectory, SERVER_ADDRESS, SERVER_PORT, this);
+            dfsClientThread = new DFSClientThread(sharedDirectory, serverAddress, serverPort, this);
             dfsClientThread.start();
             return true;
         }
         catch (Exception e){
-            System.out.println(e.toString());
+            LOG.error("not connected to "+serverAddress+":"+serverPort, e);
         }
         return false;
     }
@@ -109,12 +158,14 @@ public class DFSClient implements DFSClientCallback {
     }
 
     /**
-     * Send login request
+     * Send login request, asking the server to switch to the binary codec
+     * and to send the files pushed by the other clients
      *
      * @param username the username for the login
      */
     public void login(String username) {
-        sendRequest(new Message(MessageType.LOGIN).addArgument(username));
+        sendRequest(new Message(MessageType.LOGIN).addArgument(username).addArgument(MessageCodec.BINARY));
+        sendRequest(new Message(MessageType.SUBSCRIBE));
     }
 
     /**
@@ -137,14 +188,52 @@ public class DFSClient implements DFSClientCallback {
         sendRequest(new Message(MessageType.PULL).addArgument(filename));
     }
 
+    /**
+     * Sends a delete request
+     *
+     * @param file the deleted file
+     */
     public void delete(File file){
-        String filename = extractRelativeFilename(file);
-        sendRequest(new Message(MessageType.DELETE).addArgument(filename));
+        delete(Collections.singletonList(file));
     }
 
-    public void vote(String yourvote, File file){
+    /**
+     * Sends the delete requests of many files. The files are sent in as few requests as fit
+     * in a frame, thousands of files in one, the other clients vote once for all the files of a request.
+     *
+     * @param files the deleted files
+     */
+    public void delete(List<File> files){
+        Message request = null;
+        int size = 0;
+        for (File file : files){
+            String filename = extractRelativeFilename(file);
+            int entrySize = MessageCodec.fileEntrySize(filename);
+            if (null != request && (request.argumentCount() >= MAX_DELETE_BATCH
+                    || size + entrySize > MessageCodec.MAX_FILE_LIST_SIZE)){
+                sendRequest(request);
+                request = null;
+            }
+            if (null == request){
+                request = new Message(MessageType.DELETE);
+                size = 0;
+            }
+            request.addArgument(filename);
+            size += entrySize;
+        }
+        if (null != request) sendRequest(request);
+    }
+
+    /**
+     * Sends a vote for a delete asked by a QUERYDELETE notice
+     *
+     * @param yourvote YES or NO
+     * @param file the file to delete
+     * @param transactionId the transaction id sent with the QUERYDELETE notice
+     */
+    public void vote(String yourvote, File file, long transactionId){
         String filename = extractRelativeFilename(file);
-        sendRequest(new Message(MessageType.VOTE).addArgument(yourvote).addArgument(filename));
+        sendRequest(new Message(MessageType.VOTE).addArgument(yourvote).addArgument(filename).addArgument(transactionId));
     }
 
     /**
@@ -157,7 +246,7 @@ public class DFSClient implements DFSClientCallback {
     /**
      * Called when a new response is available.
      *
-     * @param request  the last sent request
+     * @param request  the sent request this response belongs to
      * @param response the response
      */
     @Override
@@ -180,9 +269,41 @@ public class DFSClient implements DFSClientCallback {
      */
     @Override
     public void onNotification(Message response) {
+        VotePolicy policy = votePolicy;
+        if (MessageType.QUERYDELETE == response.getMessageType() && null != policy){
+            scheduleVote(policy, response);
+            return;
+        }
         if (null != dfsClientCallback) dfsClientCallback.onNotification(response);
     }
 
+    /**
+     * Asks the policy for the vote once the vote delay elapsed and sends the vote.
+     * A policy failing to decide votes NO.
+     *
+     * @param policy the vote policy
+     * @param query the QUERYDELETE notice, each filename followed by the transaction id
+     */
+    private void scheduleVote(VotePolicy policy, Message query){
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < query.argumentCount(); i += 2){
+            files.add(new File(sharedDirectory, query.getArgumentString(i)));
+        }
+        long transactionId = query.getArgumentLong(1);
+        voteExecutor.schedule(() -> {
+            boolean yes = false;
+            try {
+                yes = policy.allowDelete(files);
+            }
+            catch (RuntimeException e){
+                LOG.error("vote policy failed, voting NO", e);
+            }
+            if (LOG.isDebugEnabled()) LOG.debug("vote "+(yes ? "YES" : "NO")+" for "+files.size()+" files");
+            vote(yes ? "YES" : "NO", files.get(0), transactionId);
+            if (null != dfsClientCallback) dfsClientCallback.onVoted(files, yes);
+        }, voteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
     private String extractRelativeFilename(File file){
         return file.getName();
     }
@@ -3,6 +3,9 @@ package client;
 
 import Connection_client_server.Message;
 
+import java.io.File;
+import java.util.List;
+
 /**
  *
  * @author Aiman
@@ -16,7 +19,7 @@ public interface DFSClientCallback {
     /**
      * Called when a new response is available.
      *
-     * @param request the last sent request
+     * @param request the sent request this response belongs to
      * @param response the response
      */
     void onReply(Message request, Message response);
@@ -27,4 +30,13 @@ public interface DFSClientCallback {
      * @param response the response
      */
     void onNotification(Message response);
+
+    /**
+     * Called once the {@link VotePolicy VotePolicy} of the client voted for a delete,
+     * a QUERYDELETE voted by the policy is not passed to {@link #onNotification(Message)}
+     *
+     * @param files the files of the delete
+     * @param yes the vote sent
+     */
+    default void onVoted(List<File> files, boolean yes){}
 }
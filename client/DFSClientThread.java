@@ -2,16 +2,27 @@
 package client;
 
 import Connection_client_server.DaemonWorker;
+import Connection_client_server.FileTransfer;
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Log;
 import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
+import Connection_client_server.MessageStream;
 import Connection_client_server.MessageType;
+import Connection_client_server.OutgoingTransfer;
 import Connection_client_server.Util;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static Connection_client_server.Util.DEBUG;
 
 /**
  *
@@ -24,16 +35,27 @@ import static Connection_client_server.Util.DEBUG;
  */
 class DFSClientThread extends DaemonWorker {
 
-    private static final int BUFFER_SIZE = 512;
-
-    private Object lock = new Object();
+    private static final Log LOG = Log.forClass(DFSClientThread.class);
 
     private File sharedDirectory = null;
     private Socket clientSocket;
-    private BufferedReader reader;
-    private BufferedWriter writer;
+    private MessageStream stream;
     private DFSClientCallback dfsClientCallback;
-    private Queue<Message> requestQueue;
+
+    // the requests waiting for a response, keyed by their correlation id
+    private final Map<Integer, Message> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger lastRequestId = new AtomicInteger();
+
+    // drops the notices of the file versions already received or requested
+    private final VersionTracker versions = new VersionTracker();
+
+    // the running file transfers, keyed by the transfer id assigned by the server
+    private final Map<Integer, FileTransfer> transfers = new ConcurrentHashMap<>();
+    private final ExecutorService transferExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file-transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * The constructor to create a new DFSClientThread instance with the specified values
@@ -47,7 +69,6 @@ class DFSClientThread extends DaemonWorker {
         connect(serverAddress, serverPort);
         changeSharedDirectory(sharedDirectory);
         this.dfsClientCallback = callback;
-        requestQueue = new ArrayDeque<>();
     }
 
     /**
@@ -58,9 +79,13 @@ class DFSClientThread extends DaemonWorker {
      * @throws Exception any exception occurred during the connection
      */
     private void connect(String serverAddress, int serverPort) throws Exception {
-        clientSocket = new Socket(serverAddress, serverPort);
-        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+        // a blocking channel, so the file data is sent and received without copying
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverAddress, serverPort));
+        // the requests and votes are small, they are sent at once instead of waiting for an ACK
+        channel.socket().setTcpNoDelay(true);
+        clientSocket = channel.socket();
+        stream = new MessageStream(channel);
+        stream.setIncomingTransfers(this::incomingTransfer);
     }
 
     /**
@@ -74,18 +99,19 @@ class DFSClientThread extends DaemonWorker {
     }
 
     /**
-     * Call this method send a new request
+     * Call this method send a new request.
+     * Each request gets a new correlation id, so any number of requests can be
+     * in flight at the same time without waiting for the previous responses.
      *
      * @param request the request to send
      */
     public void sendRequest(Message request){
         if (null == request) return;
-        MessageType type = request.getMessageType();
-        if (MessageType.PULL == type || MessageType.PUSH == type) {
-            requestQueue.add(request);
-            requestQueue.add(request);
-        } else {
-            requestQueue.add(request);
+        int id = nextRequestId();
+        request.setId(id);
+        pendingRequests.put(id, request);
+        if (MessageType.PULL == request.getMessageType() && request.argumentCount() > 0){
+            versions.onFetchRequested(request.getArgumentString(0));
         }
         write(request);
     }
@@ -95,9 +121,7 @@ class DFSClientThread extends DaemonWorker {
         while (!clientSocket.isClosed()){
             Message response = read();
             if (null != response) {
-                synchronized (lock) {
-                    onResponse(response);
-                }
+                onResponse(response);
             }
         }
     }
@@ -107,7 +131,10 @@ class DFSClientThread extends DaemonWorker {
      */
     @Override
     protected void onTerminate() throws Throwable {
-        Util.closeSilently(reader, writer, clientSocket);
+        for (FileTransfer transfer : transfers.values()) transfer.cancel();
+        transfers.clear();
+        transferExecutor.shutdownNow();
+        Util.closeSilently(stream, clientSocket);
     }
 
     /**
@@ -117,12 +144,53 @@ class DFSClientThread extends DaemonWorker {
      */
     private void onResponse(Message response){
         MessageType type = response.getMessageType();
+        if (MessageType.DATA == type || MessageType.ACK == type){
+            onTransferFrame(response);
+            return;
+        }
         if (MessageType.INVALID == type || MessageType.QUERYDELETE == type
                 || MessageType.REMOVE == type || MessageType.RESTORE == type){
+            if (MessageType.QUERYDELETE != type && response.argumentCount() > 2){
+                // a notice of many files is delivered as a notice per file
+                for (int i = 0; i + 1 < response.argumentCount(); i += 2){
+                    onResponse(new Message(type).addArgument(response.getArgumentString(i)).addArgument(response.getArgumentLong(i + 1)));
+                }
+                return;
+            }
+            if (MessageType.QUERYDELETE != type && !versions.accept(response)){
+                if (LOG.isDebugEnabled()) LOG.debug("notice dropped : "+response);
+                return;
+            }
             if (null != dfsClientCallback) dfsClientCallback.onNotification(response);
             return;
         }
-        Message request = requestQueue.poll();
+        if (0 == response.getId() && (MessageType.OPEN == type || MessageType.CLOSE == type || MessageType.ABORT == type)){
+            onReplica(response);
+            return;
+        }
+        // OPEN is followed by CLOSE or ABORT for the same request, any other response completes it
+        Message request = MessageType.OPEN == type
+                ? pendingRequests.get(response.getId())
+                : pendingRequests.remove(response.getId());
+        if (null == request){
+            if (LOG.isDebugEnabled()) LOG.debug("no pending request for response : "+response);
+            return;
+        }
+        if (MessageType.LOGIN == request.getMessageType() && MessageType.OK == type
+                && response.argumentCount() > 0 && MessageCodec.BINARY.equals(response.getArgumentString(0))){
+            stream.getCodec().setCodec(MessageCodec.BINARY);
+        }
+        if (MessageType.ABORT == type){
+            cancelTransfers(request);
+        }
+        // a notice held back while the pull was pending
+        Message held = MessageType.PULL == request.getMessageType() && MessageType.OPEN != type
+                ? versions.onFetchEnded(request.getArgumentString(0))
+                : null;
+        // the callback learns about a pulled file before it appears in the shared directory,
+        // so its creation is not taken for a new local file
+        if (null != dfsClientCallback) dfsClientCallback.onReply(request, response);
+        if (null != held && null != dfsClientCallback) dfsClientCallback.onNotification(held);
         if (MessageType.OPEN == type) {
             if (MessageType.PUSH == request.getMessageType()){
                 openPush(request, response);
@@ -131,105 +199,182 @@ class DFSClientThread extends DaemonWorker {
                 openPull(request, response);
             }
         }
-        if (null != dfsClientCallback) dfsClientCallback.onReply(request, response);
     }
 
     /**
-     * Handles a push request. This method is called only when a push is allowed,
+     * Starts sending the file of a push request. This method is called only when a push is allowed,
      * means only when OPEN response is received.
      *
      * @param request the sent push request
-     * @param response the response of the push request
+     * @param response the response of the push request carrying the transfer id
      */
     private void openPush(Message request, Message response){
-        String address = response.getArgumentString(0);
-        int port = response.getArgumentInteger(1);
-        Socket client = null;
-        BufferedInputStream bin = null;
-        BufferedOutputStream bout = null;
-        try{
-            if (DEBUG) Util.log("connecting to server");
-            client = new Socket(address, port);
-            if (DEBUG) Util.log("connected to server from "+client.getLocalSocketAddress()+" to "+client.getRemoteSocketAddress());
-            String filename = request.getArgumentString(0);
-            File file = new File(sharedDirectory, filename);
-            bin = new BufferedInputStream(new FileInputStream(file));
-            bout = new BufferedOutputStream(client.getOutputStream());
-            byte[] buff = new byte[BUFFER_SIZE];
-            int readlen = 0;
-            if (DEBUG) Util.log("file transfer start "+filename);
-            while ((readlen = bin.read(buff)) > 0){
-                bout.write(buff, 0, readlen);
-                bout.flush();
+        File file = new File(sharedDirectory, request.getArgumentString(0));
+        OutgoingTransfer transfer = new OutgoingTransfer(response.getArgumentInteger(0), request, file, stream);
+        transfers.put(transfer.getId(), transfer);
+        transferExecutor.execute(() -> {
+            try {
+                if (LOG.isDebugEnabled()) LOG.debug("file transfer start "+file.getName());
+                if (transfer.send() && LOG.isDebugEnabled()) LOG.debug("file transfer complete "+file.getName());
             }
-            if (DEBUG) Util.log("file transfer complete "+filename);
-        }
-        catch (IOException e){
-            System.out.println(e.toString());
-        }
-        finally {
-            Util.closeSilently(bin, bout, client);
-            if (DEBUG) Util.log("closing connection");
-        }
+            catch (IOException e){
+                if (!transfer.isCancelled()){
+                    LOG.warn("push of \""+file.getName()+"\" failed", e);
+                    write(new Message(MessageType.ABORT).addArgument(transfer.getId()));
+                }
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                transfers.remove(transfer.getId());
+            }
+        });
     }
 
     /**
-     * handles a pull request. This method is called only when a pull is allowed,
+     * Prepares to receive the file of a pull request. This method is called only when a pull is allowed,
      * means only when OPEN response is received.
      *
      * @param request the sent pull request
-     * @param response the response for the pull request
+     * @param response the response for the pull request carrying the transfer id
      */
     private void openPull(Message request, Message response){
-        String address = response.getArgumentString(0);
-        int port = response.getArgumentInteger(1);
-        Socket client = null;
-        BufferedInputStream bin = null;
-        BufferedOutputStream bout = null;
-        try{
-            if (DEBUG) Util.log("connecting to server");
-            client = new Socket(address, port);
-            if (DEBUG) Util.log("connected to server from "+client.getLocalSocketAddress()+" to "+client.getRemoteSocketAddress());
-            String filename = request.getArgumentString(0);
+        if (response.argumentCount() > 1){
+            versions.onFetchStarted(request.getArgumentString(0), response.getArgumentLong(1));
+        }
+        receiveFile(response.getArgumentInteger(0), request, request.getArgumentString(0));
+    }
+
+    /**
+     * Handles the notices of a file pushed by another client and sent by the server,
+     * received only once subscribed. OPEN starts receiving the file and carries its version,
+     * CLOSE tells it is complete and ABORT with the transfer id cancels it.
+     *
+     * @param notice the OPEN, CLOSE or ABORT notice
+     */
+    private void onReplica(Message notice){
+        if (notice.argumentCount() < 1) return;
+        switch (notice.getMessageType()){
+            case OPEN:
+                if (notice.argumentCount() < 2) return;
+                if (notice.argumentCount() > 2){
+                    versions.onFetchStarted(notice.getArgumentString(1), notice.getArgumentLong(2));
+                }
+                // the callback learns about the file before it appears in the shared directory
+                if (null != dfsClientCallback) dfsClientCallback.onNotification(notice);
+                receiveFile(notice.getArgumentInteger(0), notice, notice.getArgumentString(1));
+                return;
+            case ABORT:
+                FileTransfer transfer = transfers.remove(notice.getArgumentInteger(0));
+                if (null != transfer) transfer.cancel();
+                break;
+            default:
+                break;
+        }
+        if (null != dfsClientCallback) dfsClientCallback.onNotification(notice);
+    }
+
+    /**
+     * Prepares to receive a file sent by the server over the connection
+     *
+     * @param transferId the transfer id assigned by the server
+     * @param request the request or the notice the transfer belongs to
+     * @param filename the name of the file in the shared directory
+     */
+    private void receiveFile(int transferId, Message request, String filename){
+        try {
             File file = new File(sharedDirectory, filename);
-            bin = new BufferedInputStream(client.getInputStream());
-            bout = new BufferedOutputStream(new FileOutputStream(file));
-            byte[] buff = new byte[BUFFER_SIZE];
-            int readlen = 0;
-            if (DEBUG) Util.log("file transfer start "+filename);
-            while((readlen = bin.read(buff)) > 0){
-                bout.write(buff, 0, readlen);
-                bout.flush();
-            }
-            if (DEBUG) Util.log("file transfer complete "+filename);
+            transfers.put(transferId, new IncomingTransfer(transferId, request, file, stream));
+            if (LOG.isDebugEnabled()) LOG.debug("file transfer start "+file.getName());
         }
         catch (IOException e){
-            System.out.println(e.toString());
-        }
-        finally {
-            Util.closeSilently(bout, bin, client);
-            if (DEBUG) Util.log("closing connection");
+            LOG.error("file \""+filename+"\" not created", e);
+            write(new Message(MessageType.ABORT).addArgument(transferId));
         }
     }
 
     /**
-     * Writes the request message to the OutputStream connected to the command server
+     * Handles the DATA and ACK frames of the running transfers
      *
-     * @param request the Message object of the request to send
+     * @param frame the frame with the transfer id as the first argument
      */
-    private void write(Message request){
-        synchronized (lock) {
+    private void onTransferFrame(Message frame){
+        int transferId = frame.getArgumentInteger(0);
+        FileTransfer transfer = transfers.get(transferId);
+        if (transfer instanceof IncomingTransfer && MessageType.DATA == frame.getMessageType()){
             try {
-                writer.write(request.create());
-                writer.flush();
-                if (DEBUG) Util.log("request sent : " + request);
+                if (((IncomingTransfer) transfer).receive(frame)){
+                    transfers.remove(transferId);
+                    if (LOG.isDebugEnabled()) LOG.debug("file transfer complete "+transfer.getFile().getName());
+                }
+            }
+            catch (IOException e){
+                LOG.warn("pull of \""+transfer.getFile().getName()+"\" failed", e);
+                transfers.remove(transferId);
+                transfer.cancel();
+                write(new Message(MessageType.ABORT).addArgument(transferId));
             }
-            catch (IOException e) {
-                System.out.println(e.toString());
+        }
+        else if (transfer instanceof OutgoingTransfer && MessageType.ACK == frame.getMessageType()){
+            ((OutgoingTransfer) transfer).grant(frame.getArgumentInteger(1));
+        }
+    }
+
+    /**
+     * Returns the running incoming transfer with the specified id
+     *
+     * @param transferId the transfer id
+     * @return the transfer or <code>null</code> if there is no such incoming transfer
+     */
+    private IncomingTransfer incomingTransfer(int transferId){
+        FileTransfer transfer = transfers.get(transferId);
+        return transfer instanceof IncomingTransfer ? (IncomingTransfer) transfer : null;
+    }
+
+    /**
+     * Cancels the transfers of the request, called when the server aborts it
+     *
+     * @param request the aborted request
+     */
+    private void cancelTransfers(Message request){
+        for (FileTransfer transfer : transfers.values()){
+            if (transfer.getRequest() == request && null != transfers.remove(transfer.getId())){
+                transfer.cancel();
             }
         }
     }
 
+    /**
+     * Returns the next correlation id, never 0 which means not correlated
+     *
+     * @return the next correlation id
+     */
+    private int nextRequestId(){
+        int id;
+        do {
+            id = lastRequestId.incrementAndGet();
+        } while (0 == id);
+        return id;
+    }
+
+    /**
+     * Writes the request message to the OutputStream connected to the command server.
+     * The stream serializes the concurrent writes itself.
+     *
+     * @param request the Message object of the request to send
+     */
+    private void write(Message request){
+        try {
+            stream.write(request);
+            if (LOG.isDebugEnabled()) LOG.debug("request sent : " + request);
+        }
+        catch (IOException e) {
+            pendingRequests.remove(request.getId());
+            LOG.warn("request "+request.getMessageType()+" not sent", e);
+        }
+    }
+
     /**
      * Reads the next command from the InputStream connected to the command server.
      *
@@ -238,15 +383,20 @@ class DFSClientThread extends DaemonWorker {
      */
     private Message read(){
         try {
-            String line = reader.readLine();
-            if (Util.isNotEmptyString(line)){
-                Message response = new Message(line);
-                if (DEBUG) Util.log("response received : "+response);
-                return response;
-            }
+            Message response = stream.read();
+            if (LOG.isDebugEnabled()) LOG.debug("response received : "+response);
+            return response;
+        }
+        catch (EOFException | AsynchronousCloseException e) {
+            // the server or this client closed the connection
+            terminate();
         }
         catch (IOException e) {
-            System.out.println(e.toString());
+            LOG.warn("connection to the server lost", e);
+            terminate();
+        }
+        catch (Exception e) {
+            LOG.error("response not read", e);
         }
         return null;
     }
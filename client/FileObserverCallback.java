@@ -3,6 +3,7 @@
 package client;
 
 import java.io.File;
+import java.util.List;
 
 /**
  *
@@ -37,4 +38,14 @@ public interface FileObserverCallback {
      * @param which the deleted file or child directory
      */
     void onDeleted(File which);
+
+    /**
+     * Called with the files deleted together, like the files of a deleted folder.
+     * By default each file is passed to {@link #onDeleted(File)}
+     *
+     * @param which the deleted files or child directories
+     */
+    default void onDeleted(List<File> which){
+        for (File file : which) onDeleted(file);
+    }
 }
@@ -2,13 +2,16 @@
 package client;
 
 import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
 import Connection_client_server.Util;
 
-import static Connection_client_server.Util.DEBUG;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
@@ -18,10 +21,20 @@ import static java.nio.file.StandardWatchEventKinds.*;
  */
 
 /**
- * The Thread class a observers a single directory infinitely
+ * The Thread class a observers a single directory infinitely.
+ * The deletes are collected until no event arrives for a short time,
+ * so the files deleted together are passed to the callback at once.
+ * A create passes the collected deletes first, so the events keep their order.
  */
 public class FileObserverThread extends DaemonWorker {
 
+    private static final Log LOG = Log.forClass(FileObserverThread.class);
+
+    // how long to wait for more deletes before passing the collected ones
+    private static final long DELETE_BATCH_WINDOW_MILLIS = 100;
+    // the longest a delete is held back while more keep arriving
+    private static final long DELETE_BATCH_MAX_DELAY_MILLIS = 1000;
+
     private File observeDirectory;
     private FileObserverCallback fileObserverCallback;
 
@@ -48,9 +61,18 @@ public class FileObserverThread extends DaemonWorker {
             Path dir = Paths.get(observeDirectory.getAbsolutePath());
             dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE);
 
+            List<File> deleted = new ArrayList<>();
+            long firstDeleteAt = 0;
             while (!isTerminated()) {
                 try {
-                    WatchKey key = watcher.take();
+                    WatchKey key = deleted.isEmpty()
+                            ? watcher.take()
+                            : watcher.poll(DELETE_BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+                    if (null == key) {
+                        // no more events, the deletes seen so far belong together
+                        deleted = flushDeleted(deleted);
+                        continue;
+                    }
 
                     for (WatchEvent<?> event : key.pollEvents()) {
                         WatchEvent.Kind<?> kind = event.kind();
@@ -61,24 +83,41 @@ public class FileObserverThread extends DaemonWorker {
                         File which = new File(observeDirectory, path.toString());
 
                         if (kind == ENTRY_CREATE) {
+                            deleted = flushDeleted(deleted);
                             fileObserverCallback.onCreated(which);
                         }
                         else if (kind == ENTRY_DELETE) {
-                            fileObserverCallback.onDeleted(which);
+                            if (deleted.isEmpty()) firstDeleteAt = System.currentTimeMillis();
+                            deleted.add(which);
                         }
                     }
+                    if (!deleted.isEmpty() && System.currentTimeMillis() - firstDeleteAt >= DELETE_BATCH_MAX_DELAY_MILLIS) {
+                        deleted = flushDeleted(deleted);
+                    }
                     boolean valid = key.reset();
                     if (!valid) {
                         break;
                     }
                 } catch (InterruptedException ex) {
-                    if (Util.DEBUG) ex.printStackTrace();
+                    if (LOG.isDebugEnabled()) LOG.debug("observer interrupted", "error", ex);
                     break;
                 }
             }
         }
         catch (IOException ex) {
-            System.out.println(ex.toString());
+            LOG.error("shared directory not watched", ex);
         }
     }
+
+    /**
+     * Passes the collected deletes to the callback
+     *
+     * @param deleted the collected deletes
+     * @return the list to collect the next deletes
+     */
+    private List<File> flushDeleted(List<File> deleted){
+        if (deleted.isEmpty()) return deleted;
+        fileObserverCallback.onDeleted(deleted);
+        return new ArrayList<>();
+    }
 }
\ No newline at end of file
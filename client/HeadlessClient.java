@@ -0,0 +1,255 @@
+package client;
+
+import Connection_client_server.LaunchOptions;
+import Connection_client_server.Log;
+import Connection_client_server.Message;
+import Connection_client_server.MessageType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Runs a client without the JavaFX control panel, configured by command line options
+ * or a config file, see {@link LaunchOptions}. It logs in, keeps the shared directory in sync
+ * like the control panel does and votes for the deletes with the given {@link VotePolicy},
+ * until the process is stopped. No JavaFX class is loaded, so it runs on a machine without a display.
+ */
+public class HeadlessClient implements DFSClientCallback, FileObserverCallback {
+
+    private static final Log LOG = Log.forClass(HeadlessClient.class);
+
+    private static final String USAGE = "usage: java client.HeadlessClient --directory DIR --username NAME"
+            + " [--host HOST] [--port PORT] [--vote yes|no|random:p|rules:glob=yes,...] [--vote-delay MILLIS]"
+            + " [--log-level INFO,client=DEBUG] [--log-file FILE] [--log-caller true] [--config FILE]";
+
+    private final DFSClient client;
+    private final FileObserver observer;
+    private final String username;
+    private final long startNanos;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile int exitCode = 0;
+
+    private volatile File lastPulledFile = null;
+    // the files removed by a REMOVE notice, their deletes are not sent back to the server
+    private final Set<File> removedFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the client from the options
+     *
+     * @param options the launch options
+     * @param startNanos the time the launcher started, to measure the startup time
+     * @throws IllegalArgumentException if an option is missing or not valid
+     */
+    HeadlessClient(LaunchOptions options, long startNanos){
+        this.username = options.require("username");
+        this.startNanos = startNanos;
+        this.client = new DFSClient(this);
+        this.observer = new FileObserver(this);
+        client.changeSharedDirectory(new File(options.require("directory")));
+        if (!client.canUseSharedDirectory()){
+            throw new IllegalArgumentException("the shared directory can not be used : "+client.getSharedDirectory());
+        }
+        client.setServerAddress(options.getString("host", null), options.getInt("port", 0));
+        client.setVotePolicy(VotePolicy.parse(options.getString("vote", "yes"), null), options.getLong("vote-delay", 0));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long mainNanos = System.nanoTime();
+        HeadlessClient headless = null;
+        try {
+            LaunchOptions options = new LaunchOptions(args);
+            options.configureLogging();
+            headless = new HeadlessClient(options, mainNanos);
+        }
+        catch (IllegalArgumentException | IOException e){
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(headless.run());
+    }
+
+    /**
+     * Connects and logs in, then waits until the process is stopped or the login fails
+     *
+     * @return the exit code of the process
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    private int run() throws InterruptedException {
+        if (!client.connect()){
+            System.err.println("fail to connect to the server");
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "shutdown"));
+        client.login(username);
+        // the client threads are daemons, the main thread keeps the process alive
+        stopped.await();
+        return exitCode;
+    }
+
+    /**
+     * Logs out and stops observing the shared directory
+     */
+    private void stop(){
+        if (client.isConnected()){
+            client.end();
+            client.disconnect();
+        }
+        observer.stopObserving();
+        stopped.countDown();
+    }
+
+    /**
+     * Called when a new response is available.
+     *
+     * @param request the sent request this response belongs to
+     * @param response the response
+     */
+    @Override
+    public void onReply(Message request, Message response) {
+        MessageType requestType = request.getMessageType();
+        MessageType responseType = response.getMessageType();
+        if (MessageType.LOGIN == requestType){
+            if (MessageType.OK == responseType){
+                observer.startObserving(client.getSharedDirectory());
+                System.out.println(String.format("client %s ready in %d ms, %d ms since the JVM started",
+                        username, (System.nanoTime() - startNanos) / 1_000_000, LaunchOptions.millisSinceStart()));
+            }
+            else if (MessageType.ABORT == responseType){
+                System.err.println("login failed : "+response.getArgumentString(0));
+                exitCode = 1;
+                stopped.countDown();
+            }
+        }
+        else if (MessageType.ABORT == responseType){
+            System.err.println("a "+requestType+" request is aborted : "+response.getArgumentString(response.argumentCount() - 1));
+            if (MessageType.DELETE == requestType){
+                for (int i = 0; i < request.argumentCount(); i++){
+                    client.pull(new File(client.getSharedDirectory(), request.getArgumentString(i)));
+                }
+            }
+        }
+        else if (MessageType.OPEN == responseType && MessageType.PULL == requestType){
+            lastPulledFile = new File(client.getSharedDirectory(), request.getArgumentString(0));
+        }
+        else if (MessageType.CLOSE == responseType){
+            System.out.println("file \""+response.getArgumentString(0)+"\" "
+                    +(MessageType.PUSH == requestType ? "uploaded" : "updated"));
+        }
+    }
+
+    /**
+     * Called when a server sends a response without any request from the client.
+     *
+     * @param response the response
+     */
+    @Override
+    public void onNotification(Message response) {
+        MessageType type = response.getMessageType();
+        if (LOG.isDebugEnabled()) LOG.debug(String.valueOf(type));
+        if (null != type) switch (type) {
+            case INVALID:
+                client.pull(new File(client.getSharedDirectory(), response.getArgumentString(0)));
+                break;
+            case OPEN:
+                // a file pushed by another client is sent by the server
+                lastPulledFile = new File(client.getSharedDirectory(), response.getArgumentString(1));
+                break;
+            case CLOSE:
+                System.out.println("file \""+response.getArgumentString(0)+"\" updated");
+                break;
+            case REMOVE:
+            case RESTORE:
+                onRestoreOrRemove(new File(client.getSharedDirectory(), response.getArgumentString(0)),
+                        MessageType.RESTORE == type);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Called once a delete is voted
+     *
+     * @param files the files of the delete
+     * @param yes the vote sent
+     */
+    @Override
+    public void onVoted(List<File> files, boolean yes) {
+        System.out.println("voted "+(yes ? "YES" : "NO")+" to delete "
+                +(1 == files.size() ? "\""+files.get(0).getName()+"\"" : files.size()+" files"));
+    }
+
+    /**
+     * Called when a new file or child directory is created or moved to the observing directory
+     *
+     * @param which the newly created or moved file or child directory
+     */
+    @Override
+    public void onCreated(File which) {
+        if (!which.equals(lastPulledFile)){
+            client.push(which);
+        }
+    }
+
+    /**
+     * Called when a file is modified
+     *
+     * @param which the file or directory which is modified
+     */
+    @Override
+    public void onModified(File which) {}
+
+    /**
+     * Called when a file or child directory is deleted or moved from the observing directory
+     *
+     * @param which the deleted file or child directory
+     */
+    @Override
+    public void onDeleted(File which) {
+        if (!removedFiles.remove(which)){
+            client.delete(which);
+        }
+    }
+
+    /**
+     * Called with the files deleted together, they are sent in a single delete request
+     *
+     * @param which the deleted files or child directories
+     */
+    @Override
+    public void onDeleted(List<File> which) {
+        List<File> deleted = new ArrayList<>();
+        for (File file : which){
+            if (!removedFiles.remove(file)) deleted.add(file);
+        }
+        if (!deleted.isEmpty()) client.delete(deleted);
+    }
+
+    /**
+     * Removes the file deleted by all the clients or downloads again the file kept by a client
+     *
+     * @param which the file
+     * @param restore true if the file is kept, false if it is removed
+     */
+    private void onRestoreOrRemove(File which, boolean restore){
+        if (restore){
+            if (!which.exists()) client.pull(which);
+        }
+        else {
+            removedFiles.add(which);
+            if (!which.delete()) removedFiles.remove(which);
+        }
+    }
+}
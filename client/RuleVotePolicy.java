@@ -0,0 +1,94 @@
+package client;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Votes by the name of the files. Each file takes the vote of the first rule whose glob matches
+ * its name, or the default vote if none matches, and the policy votes YES only if every file
+ * takes YES. The glob syntax is the one of {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+ */
+public class RuleVotePolicy implements VotePolicy {
+
+    private final List<PathMatcher> matchers = new ArrayList<>();
+    private final List<Boolean> votes = new ArrayList<>();
+    private boolean defaultVote = false;
+
+    /**
+     * Adds a rule after the rules already added
+     *
+     * @param glob the glob matched against the name of a file
+     * @param yes the vote for a matching file
+     * @return this policy
+     */
+    public RuleVotePolicy addRule(String glob, boolean yes){
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:"+glob));
+        votes.add(yes);
+        return this;
+    }
+
+    /**
+     * Sets the vote for a file no rule matches, NO by default
+     *
+     * @param yes the vote
+     * @return this policy
+     */
+    public RuleVotePolicy setDefaultVote(boolean yes){
+        this.defaultVote = yes;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean allowDelete(List<File> files) {
+        for (File file : files){
+            if (!voteFor(file)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the policy from rules like <code>*.tmp=yes,*.doc=no,default=yes</code>
+     *
+     * @param rules the rules separated by commas
+     * @return the policy
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    public static RuleVotePolicy parse(String rules){
+        RuleVotePolicy policy = new RuleVotePolicy();
+        for (String rule : rules.split(",")){
+            if (rule.trim().isEmpty()) continue;
+            int equals = rule.lastIndexOf('=');
+            if (equals <= 0) throw new IllegalArgumentException("a rule must be glob=yes or glob=no : "+rule);
+            String glob = rule.substring(0, equals).trim();
+            String vote = rule.substring(equals + 1).trim();
+            if (!"yes".equalsIgnoreCase(vote) && !"no".equalsIgnoreCase(vote)){
+                throw new IllegalArgumentException("a rule must be glob=yes or glob=no : "+rule);
+            }
+            if ("default".equalsIgnoreCase(glob)){
+                policy.setDefaultVote("yes".equalsIgnoreCase(vote));
+            }
+            else {
+                policy.addRule(glob, "yes".equalsIgnoreCase(vote));
+            }
+        }
+        return policy;
+    }
+
+    private boolean voteFor(File file){
+        for (int i = 0; i < matchers.size(); i++){
+            if (matchers.get(i).matches(file.toPath().getFileName())) return votes.get(i);
+        }
+        return defaultVote;
+    }
+}
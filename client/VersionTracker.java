@@ -0,0 +1,114 @@
+package client;
+
+import Connection_client_server.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Keeps the versions of the files announced by the notices of the server and received
+ * with the files, so the notices which would download a version already received or
+ * requested are dropped. If a file is pushed many times while a pull of it is pending only
+ * the latest INVALID notice is kept and delivered once the pull ends, and only if the
+ * pull did not already get that version. So a client downloads at most two versions of a
+ * file pushed in quick succession instead of every intermediate one.
+ * A notice without a version is always delivered.
+ */
+class VersionTracker {
+
+    private final Map<String, FileState> files = new HashMap<>();
+
+    /**
+     * Called for each INVALID, REMOVE or RESTORE notice
+     *
+     * @param notice the notice with the filename and the version as the arguments
+     * @return true if the notice should be delivered now, false if it is dropped or held back
+     */
+    synchronized boolean accept(Message notice){
+        if (notice.argumentCount() < 2) return true;
+        FileState state = stateOf(notice.getArgumentString(0));
+        long version = notice.getArgumentLong(1);
+        long known = Math.max(state.announced, state.received);
+        switch (notice.getMessageType()){
+            case INVALID:
+                if (version <= known) return false;
+                state.announced = version;
+                if (state.pendingFetches > 0){
+                    // the pending pull may already get this version, decided once it starts
+                    state.held = notice;
+                    return false;
+                }
+                return true;
+            case REMOVE:
+                if (version < known) return false;
+                state.announced = version;
+                state.held = null;
+                return true;
+            case RESTORE:
+                if (version < known) return false;
+                state.announced = version;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Called when a pull of the file is sent
+     *
+     * @param filename the name of the pulled file
+     */
+    synchronized void onFetchRequested(String filename){
+        stateOf(filename).pendingFetches++;
+    }
+
+    /**
+     * Called when the server starts sending a file, either for a pull or on its own
+     *
+     * @param filename the name of the file
+     * @param version the version of the file being sent
+     */
+    synchronized void onFetchStarted(String filename, long version){
+        FileState state = stateOf(filename);
+        state.received = Math.max(state.received, version);
+        if (null != state.held && state.held.getArgumentLong(1) <= state.received){
+            state.held = null;
+        }
+    }
+
+    /**
+     * Called when a pull of the file is complete or aborted
+     *
+     * @param filename the name of the pulled file
+     * @return the held back INVALID notice to deliver now, <code>null</code> if none
+     */
+    synchronized Message onFetchEnded(String filename){
+        FileState state = stateOf(filename);
+        if (state.pendingFetches > 0) state.pendingFetches--;
+        if (state.pendingFetches > 0 || null == state.held) return null;
+        Message held = state.held;
+        state.held = null;
+        return held;
+    }
+
+    private FileState stateOf(String filename){
+        return files.computeIfAbsent(filename, name -> new FileState());
+    }
+
+    /**
+     * What the client knows about a single file
+     */
+    private static class FileState {
+        // the highest version announced by a notice
+        private long announced;
+        // the highest version the server started sending
+        private long received;
+        private int pendingFetches;
+        private Message held;
+    }
+}
@@ -0,0 +1,99 @@
+package client;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Decides the vote of the client for a delete asked by the server with a QUERYDELETE notice.
+ * A policy is called by the voting thread of the {@link DFSClient DFSClient}, never by the
+ * GUI thread, so it may block, for example to wait for the answer of the user.
+ */
+public interface VotePolicy {
+
+    /**
+     * Decides if the files deleted in a remote client are deleted here too.
+     * The files of a single QUERYDELETE are voted for at once.
+     *
+     * @param files the files to delete, inside the shared directory
+     * @return true to vote YES, false to vote NO
+     */
+    boolean allowDelete(List<File> files);
+
+    /**
+     * Returns a policy voting YES for every delete
+     *
+     * @return the policy
+     */
+    static VotePolicy alwaysYes(){
+        return files -> true;
+    }
+
+    /**
+     * Returns a policy voting NO for every delete
+     *
+     * @return the policy
+     */
+    static VotePolicy alwaysNo(){
+        return files -> false;
+    }
+
+    /**
+     * Returns a policy voting YES with the given probability
+     *
+     * @param probability the probability of YES between 0 and 1
+     * @return the policy
+     */
+    static VotePolicy random(double probability){
+        return files -> ThreadLocalRandom.current().nextDouble() < probability;
+    }
+
+    /**
+     * Creates a policy from its description:
+     * <ul>
+     *     <li><code>yes</code> or <code>no</code> always votes the same</li>
+     *     <li><code>random:p</code> votes YES with the probability p</li>
+     *     <li><code>rules:glob=yes,glob=no,...</code> votes by the first glob matching each file,
+     *          see {@link RuleVotePolicy}</li>
+     *     <li><code>ask</code> asks the user with the interactive policy</li>
+     * </ul>
+     *
+     * @param spec the description of the policy
+     * @param interactive the policy asking the user, <code>null</code> if there is no user
+     * @return the policy
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    static VotePolicy parse(String spec, VotePolicy interactive){
+        String value = null == spec ? "" : spec.trim();
+        int colon = value.indexOf(':');
+        String name = (colon < 0 ? value : value.substring(0, colon)).toLowerCase();
+        String argument = colon < 0 ? "" : value.substring(colon + 1);
+        switch (name){
+            case "yes":
+                return alwaysYes();
+            case "no":
+                return alwaysNo();
+            case "random":
+                try {
+                    double probability = argument.isEmpty() ? 0.5 : Double.parseDouble(argument);
+                    if (probability < 0 || probability > 1) throw new NumberFormatException();
+                    return random(probability);
+                }
+                catch (NumberFormatException e){
+                    throw new IllegalArgumentException("the probability must be between 0 and 1 : "+argument);
+                }
+            case "rules":
+                return RuleVotePolicy.parse(argument);
+            case "ask":
+                if (null != interactive) return interactive;
+                throw new IllegalArgumentException("no user to ask the vote");
+            default:
+                throw new IllegalArgumentException("unknown vote policy : "+spec);
+        }
+    }
+}
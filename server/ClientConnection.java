@@ -0,0 +1,75 @@
+package server;
+
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Message;
+import Connection_client_server.MessageSink;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The transport used by a {@link server.ClientHandler ClientHandler} to talk to its client.
+ * The handler does not know if the connection is a blocking socket or a channel
+ * served by an event loop.
+ */
+interface ClientConnection extends MessageSink {
+
+    /**
+     * Writes the message to the client.
+     * This method is safe to be called from multiple threads.
+     *
+     * @param message the message to write
+     * @throws IOException if the connection is closed or broken
+     */
+    @Override
+    void write(Message message) throws IOException;
+
+    /**
+     * Writes the messages to the client in order with a single flush.
+     * This method is safe to be called from multiple threads.
+     *
+     * @param messages the messages to write
+     * @throws IOException if the connection is closed or broken
+     */
+    void write(List<Message> messages) throws IOException;
+
+    /**
+     * Changes the codec used to encode the messages written to the client
+     *
+     * @param name the name of the codec
+     */
+    void setCodec(String name);
+
+    /**
+     * Sets the lookup of the incoming transfers, the DATA frames read from the
+     * connection are stored straight into their files
+     *
+     * @param transfers returns the transfer for a transfer id, or <code>null</code>
+     */
+    void setIncomingTransfers(IntFunction<IncomingTransfer> transfers);
+
+    /**
+     * Returns the address of the client as ip:port
+     *
+     * @return the address of the client
+     */
+    String getRemoteAddress();
+
+    /**
+     * Returns weather the connection is closed
+     *
+     * @return true if closed, false otherwise
+     */
+    boolean isClosed();
+
+    /**
+     * Closes the connection without throwing any exception
+     */
+    void close();
+}
@@ -1,16 +1,26 @@
 
 package server;
 
+import Connection_client_server.FileTransfer;
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Log;
+import Connection_client_server.MalformedMessageException;
 import Connection_client_server.Message;
+import Connection_client_server.MessagePool;
 import Connection_client_server.MessageType;
+import Connection_client_server.NegotiatedCodec;
+import Connection_client_server.OutgoingTransfer;
 import Connection_client_server.Util;
 
 import java.io.*;
-import java.net.InetAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static Connection_client_server.Util.DEBUG;
 
 /**
  *
@@ -18,84 +28,173 @@ import static Connection_client_server.Util.DEBUG;
  */
 
 /**
- * This class handles each incoming request from a single client
+ * This class handles each incoming request from a single client.
+ * The requests are read from a {@link server.ClientConnection ClientConnection}, either by the
+ * thread running this handler or, with the event loop engine, by the I/O thread which then
+ * calls {@link #handle(Message)} from a worker thread.
+ * The file data of PUSH and PULL flows over the same connection as {@link FileTransfer}s,
+ * so the requests of a client keep being handled while its transfers are running.
+ * Responses and notices are queued on an {@link OutboundQueue}, so writing to a client never blocks
+ * the thread handling the request or broadcasting the notice.
  */
 public class ClientHandler implements Runnable {
 
-    private static final int BUFFER_SIZE = 512;
+    private static final Log LOG = Log.forClass(ClientHandler.class);
 
-    private final Object lock = new Object();
+    // a ReentrantLock instead of a monitor, so a virtual thread blocked in I/O while
+    // holding it does not pin its carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
 
-    private Socket clientSocket;
-    private BufferedReader reader;
-    private BufferedWriter writer;
+    private ClientConnection connection;
+    private final MessagePool messagePool = new MessagePool();
+    private final OutboundQueue outbound;
+
+    // the running transfers of this client, keyed by their transfer id
+    private final Map<Integer, FileTransfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicInteger lastTransferId = new AtomicInteger();
+    private final Executor transferExecutor;
 
     private ClientHandlerCallback clientHandlerCallback;
+    private final ServerMetrics metrics;
 
     private String username;
-    private boolean authenticated = false;
+    private volatile boolean authenticated = false;
+    private volatile boolean subscribed = false;
+    private boolean disconnected = false;
 
     /**
      * The constructor method
      *
      * @param clientSocket the {@link java.net.Socket} object which is bound a client
      * @param clientHandlerCallback the {@link server.ClientHandlerCallback} callback
+     * @param transferExecutor the executor running the file transfers to the client
      * @throws IOException thrown by clientSocket
      */
-    public ClientHandler(Socket clientSocket, ClientHandlerCallback clientHandlerCallback) throws IOException {
-        if (null == clientHandlerCallback){
-            throw new NullPointerException("requestCallback must not null");
+    public ClientHandler(Socket clientSocket, ClientHandlerCallback clientHandlerCallback, Executor transferExecutor) throws IOException {
+        this(new StreamClientConnection(clientSocket), clientHandlerCallback, transferExecutor);
+    }
+
+    /**
+     * The constructor method
+     *
+     * @param connection the connection to the client
+     * @param clientHandlerCallback the {@link server.ClientHandlerCallback} callback
+     * @param transferExecutor the executor running the file transfers to the client
+     */
+    ClientHandler(ClientConnection connection, ClientHandlerCallback clientHandlerCallback, Executor transferExecutor) {
+        if (null == clientHandlerCallback || null == transferExecutor){
+            throw new NullPointerException("requestCallback and transferExecutor must not null");
         }
-        this.clientSocket = clientSocket;
-        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+        this.connection = connection;
         this.clientHandlerCallback = clientHandlerCallback;
+        this.transferExecutor = transferExecutor;
+        this.metrics = clientHandlerCallback.getMetrics();
+        this.outbound = new OutboundQueue(connection, transferExecutor, messagePool,
+                ServerSettings.getOutboundQueueSize(), ServerSettings.getOverflowPolicy(),
+                ServerSettings.isNoticeCoalescing());
+        connection.setIncomingTransfers(this::incomingTransfer);
     }
 
     /**
      * Send a invalidation notice to the connected client
      *
      * @param filename the name of file to invalidate
+     * @param version the version of the file published by the push
      */
-    public void invalidate(String filename){
-        synchronized (lock)  {
-            write(new Message(MessageType.INVALID).addArgument(filename));
-        }
+    public void invalidate(String filename, long version){
+        sendNotice(MessageType.INVALID, filename, version);
     }
 
     /**
-     * Prepares and send a QUERYDELETE response
+     * Prepares and send a QUERYDELETE response, with each filename followed by the transaction id
      *
-     * @param filename the file for which voting for delete is required
+     * @param filenames the files for which voting for delete is required
+     * @param transactionId the id of the delete the client votes for
      */
-    public void queryDelete(String filename){
-        synchronized (lock){
-            write(new Message(MessageType.QUERYDELETE).addArgument(filename));
-        }
+    public void queryDelete(List<String> filenames, long transactionId){
+        Message notice = messagePool.acquire(MessageType.QUERYDELETE);
+        for (String filename : filenames) notice.addArgument(filename).addArgument(transactionId);
+        outbound.offerNotice(notice);
     }
 
     /**
      * Prepares and sends a REMOVE response
      *
-     * @param filename the file to remove
+     * @param filenames the files to remove
+     * @param versions the versions of the files published by the delete
      */
-    public void remove(String filename){
-        synchronized (lock){
-            write(new Message(MessageType.REMOVE).addArgument(filename));
-        }
+    public void remove(List<String> filenames, long[] versions){
+        sendNotice(MessageType.REMOVE, filenames, versions);
     }
 
     /**
      * Prepares and send a RESTORE response
      *
-     * @param filename the file to restore
+     * @param filenames the files to restore
+     * @param versions the current versions of the files
+     */
+    public void restore(List<String> filenames, long[] versions){
+        sendNotice(MessageType.RESTORE, filenames, versions);
+    }
+
+    /**
+     * Sends the file just pushed by another client. The file is announced with an OPEN notice
+     * carrying the transfer id, the filename and the version, then sent by a transfer running on the transfer
+     * executor and completed with a CLOSE notice. A replica of the same file still being sent is
+     * aborted, the client only needs the latest version.
+     *
+     * @param replication the replication of the pushed file
      */
-    public void restore(String filename){
-        synchronized (lock){
-            write(new Message(MessageType.RESTORE).addArgument(filename));
+    void replicate(Replication replication){
+        if (connection.isClosed() || !replication.retain()) return;
+        String filename = replication.getFilename();
+        for (FileTransfer running : transfers.values()){
+            if (running instanceof ReplicaTransfer && filename.equals(((ReplicaTransfer) running).getFilename())
+                    && transfers.remove(running.getId(), running)){
+                running.cancel();
+                write(new Message(MessageType.ABORT).addArgument(running.getId()));
+            }
+        }
+        int transferId = nextTransferId();
+        Message notice = new Message(MessageType.OPEN).addArgument(transferId).addArgument(filename)
+                .addArgument(replication.getVersion());
+        ReplicaTransfer transfer = new ReplicaTransfer(transferId, notice, replication, connection);
+        transfers.put(transferId, transfer);
+        if (LOG.isDebugEnabled()) LOG.debug("replica "+transferId+" begin for "+filename);
+        // the DATA frames are written straight to the connection, so they must follow OPEN
+        if (!outbound.offer(notice, () -> transferExecutor.execute(() -> sendReplica(transfer)))){
+            transfers.remove(transferId);
+            transfer.cancel();
         }
     }
 
+    /**
+     * Returns weather the client gets the pushed files instead of the INVALID notices
+     *
+     * @return true if the client is subscribed, false otherwise
+     */
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * Returns the number of messages waiting to be written to the client
+     *
+     * @return the queued messages
+     */
+    int getQueuedMessages() {
+        return outbound.size();
+    }
+
+    /**
+     * Returns the number of running transfers of the client
+     *
+     * @return the running transfers
+     */
+    int getTransferCount() {
+        return transfers.size();
+    }
+
     /**
      * Returns the username of the client
      *
@@ -105,48 +204,121 @@ public class ClientHandler implements Runnable {
         return username;
     }
 
+    /**
+     * Reads and handles the requests until the connection is closed.
+     * Used only with a blocking connection.
+     */
     @Override
     public void run() {
-        while (!clientSocket.isClosed()) {
+        while (!connection.isClosed()) {
             Message request = read();
-            if (null != request) {
-                synchronized (lock) {
-                    MessageType type = request.getMessageType();
-                    if (MessageType.LOGIN == type) {
-                        authenticate(request);
-                        if (!authenticated) break;
-                    }
-                    else {
-                        boolean allowed = clientHandlerCallback.onBeforeRequestHandle(this, request);
-                        boolean handled = false;
-                        if (null != type) switch (type) {
-                            case PUSH:
-                                handled = push(request, allowed);
-                                break;
-                            case PULL:
-                                handled = pull(request, allowed);
-                                break;
-                            case DELETE:
-                                handled = delete(request, allowed);
-                                break;
-                            case VOTE:
-                            case END:
-                                if (allowed){
-                                    write(new Message(MessageType.OK));
-                                    handled = true;
-                                }
-                                else {
-                                    handled = false;
-                                }   break;
-                            default:
-                                break;
+            if (null != request && !handle(request)) break;
+        }
+        onDisconnected();
+        terminate();
+    }
+
+    /**
+     * Handles a single request
+     *
+     * @param request the request {@link Connection_client_server.Message Message} object
+     * @return false if no more request should be read from this client, true otherwise
+     */
+    boolean handle(Message request) {
+        try {
+            return handleRequest(request);
+        }
+        catch (RuntimeException e){
+            // answered, so the client does not wait for it, and the next requests are still handled
+            LOG.error("("+this+") request "+request.getMessageType()+" failed", e);
+            if (!isTransferFrame(request.getMessageType())){
+                write(new Message(MessageType.ABORT).correlate(request).addArgument("the request failed on the server"));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Handles a single request, see {@link #handle(Message)}
+     */
+    private boolean handleRequest(Message request) {
+        MessageType type = request.getMessageType();
+        if (isTransferFrame(type)){
+            // the frames of a running transfer bypass the callbacks
+            onTransferFrame(request);
+            return true;
+        }
+        long startNanos = System.nanoTime();
+        lock.lock();
+        try {
+            if (MessageType.LOGIN == type) {
+                authenticate(request);
+                metrics.recordRequest(type, System.nanoTime() - startNanos, authenticated);
+                return authenticated;
+            }
+            else {
+                boolean allowed = clientHandlerCallback.onBeforeRequestHandle(this, request);
+                boolean handled = false;
+                if (null != type) switch (type) {
+                    case PUSH:
+                        // a started transfer calls onAfterRequestHandle when it ends
+                        if (push(request, allowed)) return true;
+                        break;
+                    case PULL:
+                        if (pull(request, allowed)) return true;
+                        break;
+                    case DELETE:
+                        handled = delete(request, allowed);
+                        break;
+                    case SUBSCRIBE:
+                        handled = subscribe(request, allowed);
+                        break;
+                    case VOTE:
+                        if (allowed){
+                            write(new Message(MessageType.OK).correlate(request));
+                            handled = true;
                         }
-                        clientHandlerCallback.onAfterRequestHandle(this, request, handled);
-                        if (MessageType.END == type) break;
-                    }
+                        else {
+                            write(new Message(MessageType.ABORT).correlate(request).addArgument("no delete in progress"));
+                        }   break;
+                    case END:
+                        if (allowed){
+                            write(new Message(MessageType.OK).correlate(request));
+                            handled = true;
+                        }
+                        else {
+                            handled = false;
+                        }   break;
+                    default:
+                        break;
                 }
+                metrics.recordRequest(type, System.nanoTime() - startNanos, handled);
+                clientHandlerCallback.onAfterRequestHandle(this, request, handled);
+                return MessageType.END != type;
             }
         }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once when no more request will be handled, cancels the running transfers
+     * and notifies the callback if the client was authenticated
+     */
+    void onDisconnected() {
+        lock.lock();
+        try {
+            if (disconnected) return;
+            disconnected = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        for (FileTransfer transfer : transfers.values()){
+            transfer.cancel();
+            if (transfer instanceof IncomingTransfer) completePush(transfer, false);
+        }
         if (authenticated) clientHandlerCallback.onClientDisconnected(this);
     }
 
@@ -162,20 +334,41 @@ public class ClientHandler implements Runnable {
 
     @Override
     public String toString() {
-        return username+" ("+clientSocket.getInetAddress().getHostAddress()+":"+clientSocket.getPort()+")";
+        return username+" ("+connection.getRemoteAddress()+")";
     }
 
     /**
-     * Closes all the bound sockets.
+     * Closes the connection once the queued messages are written.
      * This method should be called before closing the thread.
      */
     public void terminate(){
-        Util.closeSilently(reader, writer, clientSocket);
+        outbound.shutdown();
+    }
+
+    /**
+     * Answers a request which could not be parsed with an ABORT, so the client does not wait for it.
+     * The frame was consumed and the next requests are still read, but a request whose id
+     * could not be read can not be answered, so the client is disconnected instead.
+     *
+     * @param error the parse failure, a {@link MalformedMessageException} carries the id
+     */
+    void rejectMalformedRequest(IllegalArgumentException error){
+        int id = error instanceof MalformedMessageException ? ((MalformedMessageException) error).getId() : 0;
+        if (0 == id){
+            LOG.warn("("+this+") malformed request without an id, disconnecting", error);
+            terminate();
+        }
+        else {
+            LOG.warn("("+this+") malformed request "+id+" rejected", error);
+            write(new Message(MessageType.ABORT).setId(id).addArgument("malformed request"));
+        }
     }
 
     /**
      * Authenticates the new user.
-     * A new user is authenticated if and only if it has a non empty and unique username
+     * A new user is authenticated if and only if it has a non empty and unique username.
+     * The optional second argument is the codec the client wants to use, if the codec is
+     * supported its name is returned with OK and all the following responses use that codec.
      *
      * @param request the request {@link Connection_client_server.Message Message} object
      */
@@ -188,123 +381,258 @@ public class ClientHandler implements Runnable {
             }
         }
         if (authenticated){
-            write(new Message(MessageType.OK));
+            String codec = request.argumentCount() > 1 ? request.getArgumentString(1) : null;
+            if (NegotiatedCodec.isSupported(codec)){
+                write(new Message(MessageType.OK).correlate(request).addArgument(codec.toUpperCase()));
+                connection.setCodec(codec);
+            }
+            else {
+                write(new Message(MessageType.OK).correlate(request));
+            }
         }
         else {
-            write(new Message(MessageType.ABORT).addArgument("Double Names Not allwoed"));
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("Double Names Not allwoed"));
         }
         clientHandlerCallback.onAfterRequestHandle(this, request, authenticated);
     }
 
     /**
      * Handles a pull request.
+     * If allowed the file is sent by a transfer running on the transfer executor,
+     * CLOSE or ABORT is written once it ends. OPEN carries the transfer id and the version
+     * of the file, the version is read before the file is opened so the sent file is never older.
      *
      * @param request the request {@link Connection_client_server.Message Message} object
+     * @param allowed true if the pull is allowed, false otherwise
+     * @return true if the transfer is started, false if refused or the client is disconnected
      */
-    private boolean  pull(Message request, boolean allowed){
-        if (allowed){
-            ServerSocket dataServer = null;
-            try {
-                dataServer = new ServerSocket(0, 1, InetAddress.getByName(ServerSettings.getDataIP()));
-                write(new Message(MessageType.OPEN)
-                        .addArgument(ServerSettings.getDataIP())
-                        .addArgument(dataServer.getLocalPort()));
-            }
-            catch (IOException e){
-               
-                write(new Message(MessageType.ABORT).addArgument("error in establishing data connection"));
-                return false;
-            }
-            Socket dataClient = null;
-            BufferedInputStream bin = null;
-            BufferedOutputStream bout = null;
-            String filename = request.getArgumentString(0);
-            try {
-                if (DEBUG) Util.log("waiting for new client @ "+dataServer.getLocalSocketAddress());
-                dataClient = dataServer.accept();
-                if (DEBUG)  Util.log("client connected "+dataClient.getRemoteSocketAddress());
-                File file = new File(ServerSettings.getServerDirectory(), filename);
-                bin = new BufferedInputStream(new FileInputStream(file));
-                bout = new BufferedOutputStream(dataClient.getOutputStream());
-                byte[] buff = new byte[BUFFER_SIZE];
-                int readlen = 0;
-                if (DEBUG)  Util.log("data transfer begin for "+filename);
-                while ((readlen = bin.read(buff)) > 0) {
-                    bout.write(buff, 0, readlen);
-                    bout.flush();
-                }
-                if (DEBUG)  Util.log("data transfer complete for "+filename);
-            }
-            catch (IOException e){
-                System.out.println(e.toString());
-            }
-            finally {
-                Util.closeSilently(bin, bout, dataServer);
-                if (DEBUG) Util.log("closing server");
-            }
-            write(new Message(MessageType.CLOSE).addArgument(filename));
-            return true;
+    private boolean pull(Message request, boolean allowed){
+        if (!allowed){
+            write(new Message(MessageType.ABORT).correlate(request).addArgument(request.argumentCount() > 0
+                    ? "the file is not shared" : "no file specified"));
+            return false;
         }
-        else {
-            write(new Message(MessageType.ABORT).addArgument("can not complete due to another push request in progress"));
-            return true;
+        String filename = request.getArgumentString(0);
+        File file = new File(ServerSettings.getServerDirectory(), filename);
+        if (!file.isFile()){
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("file not found"));
+            return false;
         }
+        long version = clientHandlerCallback.getFileVersion(filename);
+        OutgoingTransfer transfer = new OutgoingTransfer(nextTransferId(), request, file, connection);
+        transfers.put(transfer.getId(), transfer);
+        if (LOG.isDebugEnabled()) LOG.debug("data transfer "+transfer.getId()+" begin for "+filename);
+        // the DATA frames are written straight to the connection, so they must follow OPEN
+        if (!outbound.offer(new Message(MessageType.OPEN).correlate(request).addArgument(transfer.getId()).addArgument(version),
+                () -> transferExecutor.execute(() -> sendFile(transfer)))){
+            // the client is disconnected, no response can reach it
+            transfers.remove(transfer.getId());
+            transfer.cancel();
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Handles a push request
+     * Runs an outgoing transfer and completes its pull request
+     *
+     * @param transfer the transfer to run
+     */
+    private void sendFile(OutgoingTransfer transfer){
+        Message request = transfer.getRequest();
+        boolean sent = false;
+        try {
+            sent = transfer.send();
+        }
+        catch (IOException e){
+            LOG.warn("("+this+") pull of \""+transfer.getFile().getName()+"\" failed", e);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            transfers.remove(transfer.getId());
+        }
+        if (LOG.isDebugEnabled()) LOG.debug("data transfer "+transfer.getId()+(sent ? " complete" : " failed"));
+        if (sent){
+            write(new Message(MessageType.CLOSE).correlate(request).addArgument(request.getArgumentString(0)));
+        }
+        else if (!connection.isClosed()){
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("error in sending the file"));
+        }
+        // the transfer starts with the request, so it measures the whole pull
+        metrics.recordTransfer(TransferKind.PULL, transfer, sent);
+        metrics.recordRequest(MessageType.PULL, transfer.getElapsedNanos(), sent);
+        clientHandlerCallback.onAfterRequestHandle(this, request, sent);
+    }
+
+    /**
+     * Runs a replica transfer and writes the CLOSE notice once the file is sent,
+     * or an ABORT notice with the transfer id if it fails
+     *
+     * @param transfer the transfer to run
+     */
+    private void sendReplica(ReplicaTransfer transfer){
+        boolean sent = false;
+        try {
+            sent = transfer.send();
+        }
+        catch (IOException e){
+            if (!transfer.isCancelled()) LOG.warn("("+this+") replica of \""+transfer.getFilename()+"\" not sent", e);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            transfer.release();
+            transfers.remove(transfer.getId(), transfer);
+        }
+        if (LOG.isDebugEnabled()) LOG.debug("replica "+transfer.getId()+(sent ? " complete" : " failed"));
+        metrics.recordTransfer(TransferKind.REPLICA, transfer, sent);
+        if (sent){
+            write(new Message(MessageType.CLOSE).addArgument(transfer.getFilename()));
+        }
+        else if (!transfer.isCancelled() && !connection.isClosed()){
+            write(new Message(MessageType.ABORT).addArgument(transfer.getId()));
+        }
+    }
+
+    /**
+     * Handles a push request.
+     * If allowed the file is received from the DATA frames which follow OPEN into the staging
+     * directory and moved over the shared file once complete, so running pulls of the file keep
+     * reading the previous version. CLOSE or ABORT is written once the transfer ends.
      *
      * @param request the request {@link Connection_client_server.Message Message} object
+     * @param allowed true if the push is allowed, false otherwise
+     * @return true if the transfer is started, false otherwise
      */
     private boolean push(Message request, boolean allowed){
-        if (allowed){
-            ServerSocket dataServer = null;
-            try{
-                dataServer = new ServerSocket(0, 1, InetAddress.getByName(ServerSettings.getDataIP()));
-                if (DEBUG) Util.log("data server connected @ "+dataServer.getLocalSocketAddress());
-                write(new Message(MessageType.OPEN)
-                        .addArgument(ServerSettings.getDataIP())
-                        .addArgument(dataServer.getLocalPort()));
-            }
-            catch (IOException e){
-               
-                write(new Message(MessageType.ABORT).addArgument("error in establishing data connection"));
-                return false;
-            }
-            Socket dataClient = null;
-            BufferedInputStream bin = null;
-            BufferedOutputStream bout = null;
-            String filename = request.getArgumentString(0);
-            try{
-                if (DEBUG) Util.log("waiting for new client @ "+dataServer.getLocalSocketAddress());
-                dataClient = dataServer.accept();
-                if (DEBUG) Util.log("client connected: "+dataClient.getRemoteSocketAddress());
-                File file = new File(ServerSettings.getServerDirectory(), filename);
-                bin = new BufferedInputStream(dataClient.getInputStream());
-                bout = new BufferedOutputStream(new FileOutputStream(file));
-                byte[] buff = new byte[BUFFER_SIZE];
-                int readlen = 0;
-                if (DEBUG) Util.log("data transfer begin for "+filename);
-                while((readlen = bin.read(buff)) > 0){
-                    bout.write(buff, 0, readlen);
-                    bout.flush();
+        if (!allowed){
+            boolean shared = request.argumentCount() > 0 && ServerSettings.isSharedFilename(request.getArgumentString(0));
+            write(new Message(MessageType.ABORT).correlate(request).addArgument(shared
+                    ? "can not complete due to another push of the file in progress" : "the file can not be shared"));
+            return false;
+        }
+        String filename = request.getArgumentString(0);
+        int transferId = nextTransferId();
+        try {
+            File file = new File(ServerSettings.getServerDirectory(), filename);
+            File stagingDirectory = ServerSettings.getStagingDirectory();
+            stagingDirectory.mkdirs();
+            File stagingFile = File.createTempFile("upload-", ".part", stagingDirectory);
+            transfers.put(transferId, new IncomingTransfer(transferId, request, file, stagingFile, connection));
+        }
+        catch (IOException e){
+            LOG.error("("+this+") staging file of \""+filename+"\" not created", e);
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("error in creating the file"));
+            return false;
+        }
+        write(new Message(MessageType.OPEN).correlate(request).addArgument(transferId));
+        if (LOG.isDebugEnabled()) LOG.debug("data transfer "+transferId+" begin for "+filename);
+        return true;
+    }
+
+    /**
+     * Handles the DATA, ACK and ABORT frames of the running transfers
+     *
+     * @param frame the frame with the transfer id as the first argument
+     */
+    private void onTransferFrame(Message frame){
+        if (frame.argumentCount() < 1) return;
+        int transferId = frame.getArgumentInteger(0);
+        FileTransfer transfer = transfers.get(transferId);
+        if (null == transfer){
+            if (LOG.isDebugEnabled()) LOG.debug("("+this+") no transfer for frame : "+frame.getMessageType()+" "+transferId);
+            return;
+        }
+        switch (frame.getMessageType()){
+            case DATA:
+                if (transfer instanceof IncomingTransfer){
+                    try {
+                        if (((IncomingTransfer) transfer).receive(frame)){
+                            completePush(transfer, true);
+                        }
+                    }
+                    catch (IOException e){
+                        LOG.warn("("+this+") push of \""+transfer.getFile().getName()+"\" failed", e);
+                        transfer.cancel();
+                        completePush(transfer, false);
+                    }
                 }
-                if (DEBUG) Util.log("data transfer complete for "+filename);
-            }
-            catch (IOException e){
-                System.out.println(e.toString());
-            }
-            finally {
-                Util.closeSilently(bout, bin, dataClient, dataServer);
-                if (DEBUG) Util.log("closing server");
-            }
-            write(new Message(MessageType.CLOSE).addArgument(filename));
-            return true;
+                break;
+            case ACK:
+                if (transfer instanceof OutgoingTransfer){
+                    ((OutgoingTransfer) transfer).grant(frame.getArgumentInteger(1));
+                }
+                break;
+            case ABORT:
+                transfer.cancel();
+                if (transfer instanceof IncomingTransfer) completePush(transfer, false);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Ends an incoming transfer and completes its push request
+     *
+     * @param transfer the ended transfer
+     * @param received true if the whole file is received, false otherwise
+     */
+    private void completePush(FileTransfer transfer, boolean received){
+        if (null == transfers.remove(transfer.getId())) return;
+        Message request = transfer.getRequest();
+        if (LOG.isDebugEnabled()) LOG.debug("data transfer "+transfer.getId()+(received ? " complete" : " failed"));
+        if (received){
+            write(new Message(MessageType.CLOSE).correlate(request).addArgument(request.getArgumentString(0)));
         }
         else {
-            write(new Message(MessageType.ABORT).addArgument("can not complete due to another push request in progress"));
-            return false;
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("error in receiving the file"));
         }
+        metrics.recordTransfer(TransferKind.PUSH, transfer, received);
+        metrics.recordRequest(MessageType.PUSH, transfer.getElapsedNanos(), received);
+        clientHandlerCallback.onAfterRequestHandle(this, request, received);
+    }
+
+    /**
+     * Returns the running incoming transfer with the specified id
+     *
+     * @param transferId the transfer id
+     * @return the transfer or <code>null</code> if there is no such incoming transfer
+     */
+    private IncomingTransfer incomingTransfer(int transferId){
+        FileTransfer transfer = transfers.get(transferId);
+        return transfer instanceof IncomingTransfer ? (IncomingTransfer) transfer : null;
+    }
+
+    /**
+     * Returns the next transfer id of this connection
+     *
+     * @return the next transfer id
+     */
+    private int nextTransferId(){
+        return lastTransferId.incrementAndGet();
+    }
+
+    /**
+     * Handles a subscribe request.
+     * If allowed the files pushed by the other clients are sent to this client.
+     *
+     * @param request the request Message object
+     * @param allowed true if the server replicates the pushed files, false otherwise
+     * @return same as allowed
+     */
+    private boolean subscribe(Message request, boolean allowed){
+        subscribed = allowed;
+        if (allowed){
+            write(new Message(MessageType.OK).correlate(request));
+        }
+        else {
+            write(new Message(MessageType.ABORT).correlate(request).addArgument("replication is not enabled"));
+        }
+        return allowed;
     }
 
     /**
@@ -316,45 +644,66 @@ public class ClientHandler implements Runnable {
      */
     private boolean delete(Message request, boolean allowed){
         if (allowed){
-            write(new Message(MessageType.OK));
+            write(new Message(MessageType.OK).correlate(request));
             return true;
         }
         else {
-            write(new Message(MessageType.ABORT)
+            write(new Message(MessageType.ABORT).correlate(request)
                     .addArgument(request.getArgumentString(0))
                     .addArgument("delete is currently not possible"));
             return false;
         }
     }
 
+    /**
+     * Queues a notice with the filename and the version of the file as the arguments
+     * using a pooled Message, the message is released once written
+     *
+     * @param type the type of the notice
+     * @param filename the filename argument
+     * @param version the version argument
+     */
+    private void sendNotice(MessageType type, String filename, long version){
+        outbound.offerNotice(messagePool.acquire(type).addArgument(filename).addArgument(version));
+    }
+
+    /**
+     * Queues a single notice with each filename followed by the version of the file
+     *
+     * @param type the type of the notice
+     * @param filenames the filenames
+     * @param versions the versions of the files
+     */
+    private void sendNotice(MessageType type, List<String> filenames, long[] versions){
+        Message notice = messagePool.acquire(type);
+        for (int i = 0; i < filenames.size(); i++) notice.addArgument(filenames.get(i)).addArgument(versions[i]);
+        outbound.offerNotice(notice);
+    }
+
     private void write(Message response){
-        try {
-            writer.write(response.create());
-            writer.flush();
-            if (DEBUG) Util.log("("+this+") response send : "+response);
-        }
-        catch (IOException e){
-            terminate();
-        }
-        catch (Exception e) {
-            System.out.println(e.toString());
-        }
+        outbound.offer(response);
+    }
+
+    private static boolean isTransferFrame(MessageType type){
+        return MessageType.DATA == type || MessageType.ACK == type || MessageType.ABORT == type;
     }
 
     private Message read(){
         try {
-            String line = reader.readLine();
-            if (Util.isNotEmptyString(line)){
-                Message request = new Message(line);
-                if (DEBUG) Util.log("("+this+") request received : "+request);
-                return request;
-            }
+            Message request = ((StreamClientConnection) connection).read();
+            if (LOG.isDebugEnabled()) LOG.debug("("+this+") request received : "+request);
+            return request;
         }
         catch (IOException e){
             terminate();
         }
-        catch (Exception e) {
-            System.out.println(e.toString());
+        catch (IllegalArgumentException e){
+            rejectMalformedRequest(e);
+        }
+        catch (RuntimeException e) {
+            // the state of the stream is unknown, so no more request is read
+            LOG.error("("+this+") request not read", e);
+            terminate();
         }
         return null;
     }
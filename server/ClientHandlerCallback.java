@@ -39,4 +39,19 @@ public interface ClientHandlerCallback {
      * @param handler the caller client
      */
     void onClientDisconnected(ClientHandler handler);
+
+    /**
+     * Returns the version of a file of the server, sent to the client with the file
+     *
+     * @param filename the name of the file
+     * @return the current version of the file
+     */
+    long getFileVersion(String filename);
+
+    /**
+     * Returns the metrics the handled requests and the transfers are recorded to
+     *
+     * @return the metrics of the server
+     */
+    ServerMetrics getMetrics();
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The logged in clients of the server keyed by their username.
+ * A login checks the username and the connection limit in constant time without a global lock,
+ * and a broadcast iterates over an immutable snapshot of the clients, so neither a login nor
+ * a logout waits for a broadcast to any number of clients. The snapshot is rebuilt by the first
+ * broadcast after the clients changed, so a burst of logins does not copy it each time.
+ */
+class ClientRegistry {
+
+    private static final ClientHandler[] NO_CLIENTS = new ClientHandler[0];
+
+    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // counts the changes, a snapshot is valid while it has the same count
+    private final AtomicLong changes = new AtomicLong();
+
+    private volatile Snapshot snapshot = new Snapshot(0, NO_CLIENTS);
+
+    /**
+     * Adds the client if its username is not used and the limit is not reached
+     *
+     * @param handler the client with its username set
+     * @param maxClients the max number of logged in clients
+     * @return true if added, false otherwise
+     */
+    boolean register(ClientHandler handler, int maxClients){
+        String username = handler.getUsername();
+        if (null == username) return false;
+        // reserve a place first, so concurrent logins never exceed the limit
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxClients) return false;
+        } while (!size.compareAndSet(current, current + 1));
+
+        if (null != clients.putIfAbsent(username, handler)){
+            size.decrementAndGet();
+            return false;
+        }
+        changes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes the client, nothing happens if it is not registered
+     *
+     * @param handler the client to remove
+     * @return true if removed, false otherwise
+     */
+    boolean unregister(ClientHandler handler){
+        String username = handler.getUsername();
+        if (null == username || !clients.remove(username, handler)) return false;
+        size.decrementAndGet();
+        changes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of registered clients
+     *
+     * @return the number of clients
+     */
+    int size(){
+        return size.get();
+    }
+
+    /**
+     * Returns the registered clients to iterate over without holding any lock.
+     * The returned array must not be modified.
+     *
+     * @return the clients registered when the snapshot was taken
+     */
+    ClientHandler[] snapshot(){
+        Snapshot current = snapshot;
+        long count = changes.get();
+        if (current.changes != count){
+            current = new Snapshot(count, clients.values().toArray(NO_CLIENTS));
+            snapshot = current;
+        }
+        return current.clients;
+    }
+
+    /**
+     * Removes all the clients
+     *
+     * @return the removed clients
+     */
+    ClientHandler[] clear(){
+        ClientHandler[] removed = snapshot();
+        for (ClientHandler handler : removed) unregister(handler);
+        return removed;
+    }
+
+    /**
+     * The clients at a count of changes
+     */
+    private static class Snapshot {
+        private final long changes;
+        private final ClientHandler[] clients;
+
+        Snapshot(long changes, ClientHandler[] clients){
+            this.changes = changes;
+            this.clients = clients;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 
 package server;
 
-import Connection_client_server.Util;
+import Connection_client_server.Log;
 import java.io.IOException;
 
 /**
@@ -15,6 +15,8 @@ import java.io.IOException;
  */
 public class DFSServer{
 
+    private static final Log LOG = Log.forClass(DFSServer.class);
+
     private boolean isRunning = false;
     private DFSServerThread serverThread;
     private DFSServerCallback dfsServerCallback;
@@ -34,7 +36,7 @@ public class DFSServer{
                 isRunning = true;
                 dfsServerCallback.onServerConnectedOrDisconnected(serverThread.toString(), true);
             } catch (IOException | NullPointerException e) {
-                Util.log(e.getMessage());
+                LOG.error("server not started", e);
                 if (null != dfsServerCallback) dfsServerCallback.onError("server not connected due to some error");
             }
         }
@@ -54,6 +56,26 @@ public class DFSServer{
         }
     }
 
+    /**
+     * Returns the latencies of the deletes, from the delete request until the votes
+     * of all the clients are received or the delete is aborted
+     *
+     * @return the latencies, <code>null</code> if the server was never started
+     */
+    public LatencyHistogram getDeleteLatency(){
+        return null == serverThread ? null : serverThread.getDeleteLatency();
+    }
+
+    /**
+     * Returns the metrics of the requests, transfers and deletes, also served over HTTP
+     * on {@link ServerSettings#getMetricsPort()}
+     *
+     * @return the metrics, <code>null</code> if the server was never started
+     */
+    public ServerMetrics getMetrics(){
+        return null == serverThread ? null : serverThread.getMetrics();
+    }
+
     /**
      * Tells weathr the server is running or not
      *
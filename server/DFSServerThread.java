@@ -3,19 +3,23 @@
 package server;
 
 import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
 import Connection_client_server.Message;
+import Connection_client_server.MessageCodec;
 import Connection_client_server.MessageType;
 import Connection_client_server.Util;
-import static Connection_client_server.Util.DEBUG;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -25,50 +29,99 @@ import java.util.concurrent.Executors;
  */
 
 /**
- * This class accepts incoming client and handles the inter client communications
+ * This class accepts incoming client and handles the inter client communications.
+ * Depending on the {@link server.ServerEngine ServerEngine} each accepted client either gets
+ * its own thread or is registered with one of the event loops.
  */
 class DFSServerThread extends DaemonWorker implements ClientHandlerCallback {
-    
-    private Object lock = new Object();
 
-    private ServerSocket commandServer;
+    private static final Log LOG = Log.forClass(DFSServerThread.class);
+
+    private ServerSocketChannel commandServer;
     private ExecutorService executor;
-    private List<ClientHandler> connectedClients;
+    private EventLoop[] eventLoops;
+    private int nextEventLoop = 0;
+    private final ClientRegistry connectedClients = new ClientRegistry();
     private DFSServerCallback dfsServerCallback;
 
-    // the client which is currently issued a push request
-    // null means no client doing push request. The current
-    // implementation of DFS server handles a single push at a time
-    private ClientHandler pushRequestBy = null;
+    // a push holds the lock of its file, so only the pushes of the same file exclude each other.
+    // Uploads are staged and published atomically, so a pull never waits
+    private final FileLockTable fileLocks = new FileLockTable();
+    private final FileVersions fileVersions = new FileVersions();
 
-    // the current delete action in progress, null means no action in progress
-    // the current implementation of the DFS server
-    // handles one delete request at a single time,
-    private DeleteAction actionInProgress = null;
+    // the deletes in progress, each one with its own participants and votes
+    private final DeleteTransactions deletes;
+    // aborts the deletes not complete by their deadline
+    private final TimerWheel deadlines;
+    // the requests, transfers and deletes are measured, and served over HTTP if enabled
+    private final ServerMetrics metrics = new ServerMetrics();
+    private MetricsEndpoint metricsEndpoint;
+    // the deletes are logged, so a crash during a delete is recovered when the server starts
+    private final TransactionLog transactionLog;
+    // the REMOVE and RESTORE notices of the recovered deletes, sent to each client when it logs in again
+    private final Map<String, List<RecoveredNotice>> recoveredNotices = new ConcurrentHashMap<>();
 
     public DFSServerThread(DFSServerCallback dfsServerCallback) throws NullPointerException, IOException {
         if (null == dfsServerCallback){
             throw new NullPointerException("DFSServerCallback is null");
         }
-        this.commandServer = new ServerSocket(ServerSettings.getCommandPort(), 0, InetAddress.getByName(ServerSettings.getCommandIP()));
-        this.executor = Executors.newCachedThreadPool();
-        this.connectedClients = Collections.synchronizedList(new ArrayList<>());
+        this.transactionLog = new TransactionLog(ServerSettings.getTransactionLogFile());
+        this.transactionLog.start();
+        // the ids of the recovered deletes are not given again, a late vote can not match a new delete
+        this.deletes = new DeleteTransactions(transactionLog.getLastTransactionId());
+        try {
+            recoverDeletes();
+            this.commandServer = ServerSocketChannel.open();
+            this.commandServer.bind(new InetSocketAddress(InetAddress.getByName(ServerSettings.getCommandIP()), ServerSettings.getCommandPort()),
+                    ServerSettings.getAcceptBacklog());
+        }
+        catch (IOException e) {
+            Util.closeSilently(commandServer);
+            transactionLog.terminate();
+            throw e;
+        }
+        this.executor = newExecutor(ServerSettings.getServerEngine());
+        if (ServerEngine.EVENT_LOOP == ServerSettings.getServerEngine()){
+            eventLoops = new EventLoop[ServerSettings.getIOThreads()];
+            for (int i = 0; i < eventLoops.length; i++){
+                eventLoops[i] = new EventLoop("dfs-io-"+i);
+                eventLoops[i].start();
+            }
+        }
+        this.deadlines = new TimerWheel("dfs-deadlines", 100, 512, executor);
+        this.deadlines.start();
         this.dfsServerCallback = dfsServerCallback;
+        registerGauges();
+        startMetricsEndpoint();
     }
 
     @Override
     public void run() {
-        while (!commandServer.isClosed()){
-            Socket clientSocket = null;
+        while (commandServer.isOpen()){
+            SocketChannel clientChannel = null;
             try {
-                clientSocket = commandServer.accept();
+                clientChannel = commandServer.accept();
             } catch (IOException e) {}
 
-            if (clientSocket != null && !clientSocket.isClosed()) {
+            if (clientChannel != null && clientChannel.isOpen()) {
                 try {
-                    ClientHandler handler = new ClientHandler(clientSocket, this);
-                    executor.execute(handler);
-                } catch (IOException e) {}
+                    // the queued messages are already written in batches, a small notice is not held back
+                    clientChannel.socket().setTcpNoDelay(true);
+                    if (null == eventLoops) {
+                        ClientHandler handler = new ClientHandler(clientChannel.socket(), this, executor);
+                        executor.execute(handler);
+                    }
+                    else {
+                        EventLoop eventLoop = eventLoops[nextEventLoop];
+                        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                        clientChannel.configureBlocking(false);
+                        NioClientConnection connection = new NioClientConnection(clientChannel, eventLoop, executor);
+                        connection.setHandler(new ClientHandler(connection, this, executor));
+                        eventLoop.register(connection);
+                    }
+                } catch (IOException e) {
+                    Util.closeSilently(clientChannel);
+                }
             }
         }
     }
@@ -78,10 +131,18 @@ class DFSServerThread extends DaemonWorker implements ClientHandlerCallback {
      */
     @Override
     protected void onTerminate() throws Throwable {
-        for (int i = 0; !connectedClients.isEmpty(); i++){
-            connectedClients.remove(0).terminate();
+        for (ClientHandler handler : connectedClients.clear()){
+            handler.terminate();
         }
         Util.closeSilently(commandServer);
+        if (null != metricsEndpoint) metricsEndpoint.terminate();
+        deadlines.terminate();
+        transactionLog.terminate();
+        if (null != eventLoops){
+            for (EventLoop eventLoop : eventLoops){
+                eventLoop.terminate();
+            }
+        }
         executor.shutdownNow();
     }
 
@@ -90,44 +151,45 @@ class DFSServerThread extends DaemonWorker implements ClientHandlerCallback {
      */
     @Override
     public boolean onBeforeRequestHandle(ClientHandler handler, Message request) {
-        if (DEBUG) Util.log(handler.toString());
+        if (LOG.isDebugEnabled()) LOG.debug(handler.toString());
         MessageType type = request.getMessageType();
         boolean allowed = false;
         if (null != type)switch (type) {
             case LOGIN:
-                allowed = !connectedClients.contains(handler)
-                        && connectedClients.size() < ServerSettings.getMaxClient();
+                // the username and the place of the client are taken at once
+                allowed = connectedClients.register(handler, ServerSettings.getMaxClient());
                 break;
             case PUSH:
-                synchronized (lock) {
-                    if (!isPushInProgress()) {
-                        pushRequestBy = handler;
-                        
-                        allowed = true;
-                    } else {
-                        allowed = false;
-                    }
-                }   break;
+                allowed = request.argumentCount() > 0 && ServerSettings.isSharedFilename(request.getArgumentString(0))
+                        && fileLocks.tryLock(request.getArgumentString(0), handler, request);
+                break;
             case PULL:
-                synchronized (lock) {
-                    allowed = !isPushInProgress();
-                }   break;
+                allowed = request.argumentCount() > 0 && ServerSettings.isSharedFilename(request.getArgumentString(0));
+                break;
+            case SUBSCRIBE:
+                allowed = ReplicationMode.FAN_OUT == ServerSettings.getReplicationMode();
+                break;
             case DELETE:
-                synchronized (lock){
-                    actionInProgress = new DeleteAction(handler, request);
-                    allowed = true;
-                }   break;
-            case VOTE:
-                synchronized (lock){
-                    if (null != actionInProgress){
-                        String requestedFile = actionInProgress.getRequest().getArgumentString(0);
-                        String votingFile = actionInProgress.getRequest().getArgumentString(0);
-                        if (DEBUG) Util.log("requestedFile : "+requestedFile+" | votingFile : "+votingFile);
-                        allowed = requestedFile.equals(votingFile);
-                    }
-                    else {
-                        allowed = true;
+                // the participants are the clients logged in when the delete starts,
+                // the notices carry a number after each filename so they must fit in a message
+                if (request.argumentCount() > 0 && 2 * request.argumentCount() <= MessageCodec.MAX_ARGUMENTS
+                        && fitsFileList(request) && areSharedFilenames(request)){
+                    DeleteAction action = deletes.begin(handler, request, connectedClients.snapshot());
+                    if ((allowed = null != action)){
+                        transactionLog.begin(action);
+                        action.setDeadline(deadlines.schedule(() -> {
+                            if (LOG.isDebugEnabled()) LOG.debug("delete "+action.getTransactionId()+" timed out");
+                            metrics.recordDeleteTimeout();
+                            action.presumeAbort();
+                            completeDelete(action);
+                        }, ServerSettings.getVoteTimeout()));
                     }
+                }
+                break;
+            case VOTE:{
+                DeleteAction action = deletes.find(request);
+                allowed = null != action && action.isParticipant(handler);
+                if (LOG.isDebugEnabled()) LOG.debug("vote of "+handler+" for "+(null == action ? "no delete" : "delete "+action.getTransactionId()));
                 }   break;
             default:
                 break;
@@ -141,70 +203,60 @@ class DFSServerThread extends DaemonWorker implements ClientHandlerCallback {
      */
     @Override
     public void onAfterRequestHandle(ClientHandler handler, Message request, boolean status) {
-        if (DEBUG) Util.log(handler.toString());
+        if (LOG.isDebugEnabled()) LOG.debug(handler.toString());
         MessageType type = request.getMessageType();
         if (null != type)switch (type) {
             case LOGIN:
                 if (status){
-                    connectedClients.add(handler);
                     ServerSettings.setConnectedClient(connectedClients.size());
                     dfsServerCallback.onClientConnectedOrDisconnected(handler, true);
+                    sendRecoveredNotices(handler);
                 }   break;
             case PUSH:
-                synchronized (lock) {
-                    if (status && handler == pushRequestBy) {
-                        String filename = request.getArgumentString(0);
-                        if (DEBUG) Util.log("push \""+filename+"\" successful, sending INVALID notice to other clients");
-                        for (ClientHandler h : connectedClients) {
-                            if (!h.equals(pushRequestBy)) {
-                                h.invalidate(filename);
+                if (request.argumentCount() > 0) {
+                    String filename = request.getArgumentString(0);
+                    fileLocks.unlock(filename, request);
+                    if (status) {
+                        long version = fileVersions.publish(filename);
+                        if (LOG.isDebugEnabled()) LOG.debug("push \""+filename+"\" successful, sending version "+version+" to the other clients");
+                        // the subscribed clients get the file itself, read once for all of them
+                        Replication replication = openReplication(filename, version);
+                        for (ClientHandler h : connectedClients.snapshot()) {
+                            if (h != handler) {
+                                if (null != replication && h.isSubscribed()) {
+                                    h.replicate(replication);
+                                }
+                                else {
+                                    h.invalidate(filename, version);
+                                }
                             }
                         }
-                        pushRequestBy = null;
+                        if (null != replication) replication.release();
                     }
                 }   break;
             case DELETE:
-                synchronized (lock){
-                    if (status && handler == actionInProgress.getRequestedBy()){
-                        String filename = request.getArgumentString(0);
-                        if (DEBUG) Util.log("delete for \""+filename+"\" successful, sending QUERYDELETE notice to other clients");
-                        for (ClientHandler h : connectedClients) {
-                            if (!h.equals(actionInProgress.getRequestedBy())) {
-                                h.queryDelete(filename);
-                            }
+                if (status){
+                    DeleteAction action = deletes.forFile(request.getArgumentString(0));
+                    if (null != action && handler == action.getRequestedBy()){
+                        if (LOG.isDebugEnabled()) LOG.debug("delete "+action.getTransactionId()+" of "+action.getFilenames().size()
+                                +" files successful, sending QUERYDELETE notice to other clients");
+                        ClientHandler[] participants = action.getParticipants();
+                        for (ClientHandler h : participants) {
+                            h.queryDelete(action.getFilenames(), action.getTransactionId());
                         }
+                        // nobody else to ask
+                        if (0 == participants.length) completeDelete(action);
                     }
                 }   break;
             case VOTE:
                 if (status){
-                    boolean votingComplete = false, voteResult = false;
-                    synchronized (lock){
-                        actionInProgress.receiveDecision(handler, request);
-                        if (DEBUG) Util.log(handler+" vote "+request.getArgumentString(0)
-                                +" for \""+request.getArgumentString(1)+"\"");
-                        
-                        if ((votingComplete = actionInProgress.isVotingComplete())) voteResult = actionInProgress.getVoteResult();
-                    }
-                    /**
-                     * In case of RESTORE the client send a pull request to download the deleted file
-                     * Since the all the ClientHandlers handles the requests in a separate thread in synchronized block,
-                     * so if the following is included into the synchronized block also the a dead lock may arise.
-                     * So, it is handled un-synchronized
-                     */
-                    if (votingComplete) {
-                        String filename = actionInProgress.getRequest().getArgumentString(0);
-                        if (voteResult) {
-                            sendRemoveOrRestoreNotice(filename, true);
-                            try {
-                                new File(ServerSettings.getServerDirectory(), filename).delete();
-                            } catch (Exception e) {
-                                
-                            }
-                        } else {
-                            sendRemoveOrRestoreNotice( filename, false);
-                        }
-                        actionInProgress = null;
+                    DeleteAction action = deletes.find(request);
+                    if (LOG.isDebugEnabled()) LOG.debug(handler+" vote "+request.getArgumentString(0)
+                            +" for \""+request.getArgumentString(1)+"\"");
+                    if (null != action && action.isParticipant(handler)) {
+                        transactionLog.vote(action, handler, "YES".equalsIgnoreCase(request.getArgumentString(0)));
                     }
+                    if (null != action && action.receiveDecision(handler, request)) completeDelete(action);
                 }   break;
             default:
                 break;
@@ -217,50 +269,318 @@ class DFSServerThread extends DaemonWorker implements ClientHandlerCallback {
      */
     @Override
     public void onClientDisconnected(ClientHandler handler) {
-        if (DEBUG) Util.log(handler+": Disconnected");
-        if (connectedClients.contains(handler)) {
-            connectedClients.remove(handler);
+        if (LOG.isDebugEnabled()) LOG.debug(handler+": Disconnected");
+        if (connectedClients.unregister(handler)) {
             dfsServerCallback.onClientConnectedOrDisconnected(handler, false);
         }
+        // the transfers release their locks when they end, this also covers a transfer still running
+        int released = fileLocks.unlockAll(handler);
+        if (LOG.isDebugEnabled() && released > 0) LOG.debug(handler+": released "+released+" file locks");
+        // a delete is not waited for its disconnected voters, and is aborted without its requester
+        for (DeleteAction action : deletes.inProgress()){
+            if (handler == action.getRequestedBy()){
+                action.presumeAbort();
+                completeDelete(action);
+            }
+            else if (action.removeParticipant(handler)){
+                completeDelete(action);
+            }
+        }
         handler.terminate();
         ServerSettings.setConnectedClient(connectedClients.size());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFileVersion(String filename) {
+        return fileVersions.current(filename);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the time from the start of the deletes until all their votes were received
+     * or they were aborted
+     *
+     * @return the latencies of the completed deletes
+     */
+    LatencyHistogram getDeleteLatency() {
+        return metrics.getDeleteVotingLatency();
+    }
+
     @Override
     public String toString() {
         try{
-            return " Server: " +commandServer.getLocalSocketAddress()+ "";
+            return " Server: " +commandServer.socket().getLocalSocketAddress()+ "";
         }
         catch (Exception e){}
         return " Server ";
     }
 
     /**
-     * Returns weather a push request by another client is in progress or not
+     * Creates the executor running the ClientHandlers.
+     * With the virtual thread engine each handler, and so each data transfer done by the handler,
+     * runs on its own virtual thread. Virtual threads are looked up by reflection so the server
+     * still runs on a JDK without them, falling back to the cached thread pool.
+     *
+     * @param engine the engine of the server
+     * @return the executor for the ClientHandlers
+     */
+    private static ExecutorService newExecutor(ServerEngine engine){
+        if (ServerEngine.VIRTUAL_THREADS == engine){
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            }
+            catch (ReflectiveOperationException e){
+                LOG.warn("virtual threads are not available, using the cached thread pool");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Weather the notices listing the files of a request, with a version after each filename, fit in a frame
+     *
+     * @param request the request with the filenames as arguments
+     * @return true if the notices can be encoded, false otherwise
+     */
+    private static boolean fitsFileList(Message request){
+        long size = 0;
+        for (int i = 0; i < request.argumentCount(); i++){
+            size += MessageCodec.fileEntrySize(request.getArgumentChars(i));
+        }
+        return size <= MessageCodec.MAX_FILE_LIST_SIZE;
+    }
+
+    /**
+     * Weather all the filenames of a request name shared files, see {@link ServerSettings#isSharedFilename(String)}
+     *
+     * @param request the request with the filenames as arguments
+     * @return true if all the files can be used by a client, false otherwise
+     */
+    private static boolean areSharedFilenames(Message request){
+        for (int i = 0; i < request.argumentCount(); i++){
+            if (!ServerSettings.isSharedFilename(request.getArgumentString(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Opens the replication of a pushed file if the server sends the pushed files to the clients
+     *
+     * @param filename the name of the pushed file
+     * @param version the version published by the push
+     * @return the replication, <code>null</code> if the file is not replicated
+     */
+    private Replication openReplication(String filename, long version){
+        if (ReplicationMode.FAN_OUT != ServerSettings.getReplicationMode()) return null;
+        try {
+            return new Replication(filename, new File(ServerSettings.getServerDirectory(), filename), version);
+        }
+        catch (IOException e){
+            LOG.warn("\""+filename+"\" not replicated, the clients pull it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Ends a delete once all its participants voted, the files are deleted only if all voted YES.
+     * The files are deleted only once the commit is logged, if it can not be logged the delete is aborted.
+     * In case of RESTORE the client send a pull request to download the deleted file,
+     * so no lock is held while the notices are sent.
+     *
+     * @param action the delete with the voting complete
+     */
+    private void completeDelete(DeleteAction action){
+        if (!deletes.end(action)) return;
+        action.cancelDeadline();
+        long votingNanos = action.getElapsedNanos();
+        if (LOG.isDebugEnabled()) LOG.debug("delete "+action.getTransactionId()+" complete, latency "+getDeleteLatency());
+        List<String> filenames = action.getFilenames();
+        long logStart = System.nanoTime();
+        boolean remove = action.getVoteResult() && transactionLog.commit(action.getTransactionId());
+        if (!remove) transactionLog.abort(action.getTransactionId());
+        long notifyStart = System.nanoTime();
+        long[] versions = new long[filenames.size()];
+        for (int i = 0; i < versions.length; i++) {
+            String filename = filenames.get(i);
+            versions[i] = remove ? fileVersions.publish(filename) : fileVersions.current(filename);
+        }
+        sendRemoveOrRestoreNotice(filenames, remove, versions);
+        if (remove) deleteFiles(filenames);
+        transactionLog.end(action.getTransactionId());
+        metrics.recordDelete(votingNanos, notifyStart - logStart, System.nanoTime() - notifyStart, remove);
+    }
+
+    /**
+     * Registers the gauges read from the state of this server when the metrics are written
+     */
+    private void registerGauges(){
+        MetricsRegistry registry = metrics.getRegistry();
+        registry.gauge("dfs_connected_clients", "Clients logged in", connectedClients::size);
+        registry.gauge("dfs_deletes_in_progress", "Deletes waiting for their votes", () -> deletes.inProgress().size());
+        registry.gauge("dfs_transfers_in_progress", "Running file transfers of all the clients", () -> {
+            long running = 0;
+            for (ClientHandler handler : connectedClients.snapshot()) running += handler.getTransferCount();
+            return running;
+        });
+        registry.gauge("dfs_outbound_queued_messages", "Messages waiting to be written to all the clients", () -> {
+            long queued = 0;
+            for (ClientHandler handler : connectedClients.snapshot()) queued += handler.getQueuedMessages();
+            return queued;
+        });
+        registry.gauge("dfs_outbound_queue_max_depth", "Messages waiting to be written to the slowest client", () -> {
+            long deepest = 0;
+            for (ClientHandler handler : connectedClients.snapshot()) deepest = Math.max(deepest, handler.getQueuedMessages());
+            return deepest;
+        });
+        registry.gauge("dfs_transaction_log_unwritten_records", "Delete records not yet on the disk",
+                transactionLog::unwrittenRecords);
+        if (null != eventLoops){
+            for (EventLoop eventLoop : eventLoops){
+                registry.gauge("dfs_event_loop_connections", "Connections served by each I/O thread",
+                        eventLoop::connectionCount, "loop", eventLoop.getName());
+            }
+        }
+    }
+
+    /**
+     * Serves the metrics over HTTP if a metrics port is set. The server runs without
+     * the endpoint if the port can not be bound.
+     */
+    private void startMetricsEndpoint(){
+        if (0 == ServerSettings.getMetricsPort()) return;
+        try {
+            metricsEndpoint = new MetricsEndpoint(ServerSettings.getMetricsIP(), ServerSettings.getMetricsPort(),
+                    metrics.getRegistry());
+            metricsEndpoint.start();
+            LOG.info("metrics served", "url", metricsEndpoint);
+        }
+        catch (IOException e){
+            metricsEndpoint = null;
+            dfsServerCallback.onError("metrics not served, port "+ServerSettings.getMetricsPort()+" : "+e.getMessage());
+        }
+    }
+
+    /**
+     * Finishes the deletes found unfinished in the transaction log. A delete with its commit logged
+     * is finished, any other is presumed aborted.
+     * No client is connected yet, so the REMOVE or RESTORE notice is kept for the requester
+     * and the voters of each delete, and sent when they log in again.
+     *
+     * @throws IOException if the log can not be written
+     */
+    private void recoverDeletes() throws IOException {
+        List<TransactionLog.Transaction> unfinished = transactionLog.getUnfinished();
+        if (unfinished.isEmpty()) return;
+        long start = System.nanoTime();
+        int finished = 0;
+        for (TransactionLog.Transaction transaction : unfinished) {
+            List<String> filenames = transaction.getFilenames();
+            // the commit is already on the disk, only the end is logged
+            boolean remove = transaction.isCommitted();
+            if (remove) {
+                deleteFiles(filenames);
+                finished++;
+            }
+            else {
+                transactionLog.abort(transaction.getTransactionId());
+            }
+            long[] versions = new long[filenames.size()];
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = remove ? fileVersions.publish(filenames.get(i)) : fileVersions.current(filenames.get(i));
+            }
+            RecoveredNotice notice = new RecoveredNotice(filenames, remove, versions);
+            for (String username : transaction.getUsernames()) {
+                recoveredNotices.computeIfAbsent(username, name -> new ArrayList<>()).add(notice);
+            }
+            transactionLog.end(transaction.getTransactionId());
+        }
+        try {
+            transactionLog.sync();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("deletes recovered", "recovered", unfinished.size(), "finished", finished,
+                "aborted", unfinished.size() - finished, "millis", (System.nanoTime() - start) / 1000000.0);
+    }
+
+    /**
+     * Sends the notices of the recovered deletes the client requested or voted for, once
      *
-     * @return <code>true</code> is a push request is in progress,
-     *          <code>false</code> otherwise
+     * @param handler the client which logged in
      */
-    private boolean isPushInProgress(){
-        return null != pushRequestBy;
+    private void sendRecoveredNotices(ClientHandler handler) {
+        if (recoveredNotices.isEmpty()) return;
+        List<RecoveredNotice> notices = recoveredNotices.remove(handler.getUsername());
+        if (null == notices) return;
+        if (LOG.isDebugEnabled()) LOG.debug("sending "+notices.size()+" notices of the recovered deletes to "+handler);
+        for (RecoveredNotice notice : notices) {
+            if (notice.remove){
+                handler.remove(notice.filenames, notice.versions);
+            }
+            else {
+                handler.restore(notice.filenames, notice.versions);
+            }
+        }
     }
 
     /**
-     * Send a REMOVE or RESTORE response to connected clients
+     * Deletes the files from the server directory
      *
-     * @param filename the filename to delete
+     * @param filenames the names of the files
+     */
+    private void deleteFiles(List<String> filenames) {
+        for (String filename : filenames) {
+            try {
+                new File(ServerSettings.getServerDirectory(), filename).delete();
+            } catch (Exception e) {
+
+            }
+        }
+    }
+
+    /**
+     * Send a REMOVE or RESTORE response to connected clients, a single notice for all the files
+     *
+     * @param filenames the filenames to delete
      * @param remove true means send REMOVE response, false means send RESTORE response
+     * @param versions the versions of the files sent with the notice
      */
-    private void sendRemoveOrRestoreNotice(String filename, boolean remove){
-        if (DEBUG) Util.log("vote for \"" + filename + "\" complete, sending "+(remove ? "REMOVE" : "RESTORE")+" notice to other clients");
-        final List<ClientHandler> clients = this.connectedClients;
-        for (ClientHandler h : clients) {
+    private void sendRemoveOrRestoreNotice(List<String> filenames, boolean remove, long[] versions){
+        if (LOG.isDebugEnabled()) LOG.debug("vote for " + filenames.size() + " files complete, sending "+(remove ? "REMOVE" : "RESTORE")+" notice to other clients");
+        for (ClientHandler h : connectedClients.snapshot()) {
             if (remove){
-                h.remove(filename);
+                h.remove(filenames, versions);
             }
             else {
-                h.restore(filename);
+                h.restore(filenames, versions);
             }
         }
     }
+
+    /**
+     * The outcome of a delete recovered when the server started, waiting for a client to log in
+     */
+    private static class RecoveredNotice {
+        private final List<String> filenames;
+        private final boolean remove;
+        private final long[] versions;
+
+        RecoveredNotice(List<String> filenames, boolean remove, long[] versions){
+            this.filenames = filenames;
+            this.remove = remove;
+            this.versions = versions;
+        }
+    }
 }
@@ -1,9 +1,14 @@
-
-
 package server;
 
 import Connection_client_server.Message;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  *
  * @author Aiman
@@ -14,17 +19,51 @@ import Connection_client_server.Message;
  * This class stores the client who initiated the delete request and the request
  * {@link Connection_client_server.Message Mesage} object. The required information like how may voting
  * already completed and the final voting result, are also stored into this class.
+ * The clients which vote are fixed when the delete starts, so a client logged in later
+ * is not waited for and each delete is independent of the others in progress.
+ * A delete not complete by its deadline is presumed aborted, so a missing vote restores the file.
+ * A request may carry many filenames, they are voted for once and deleted or restored together.
  */
 public class DeleteAction{
 
+    private final long transactionId;
     private ClientHandler requestedBy;
     private Message request;
-    private int voteCount = 0;
+    private final List<String> filenames;
+    // the clients asked to vote and the clients which voted
+    private final Set<ClientHandler> participants = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ClientHandler> voted = Collections.newSetFromMap(new IdentityHashMap<>());
     private boolean voteResult = true;
+    private final long startNanos = System.nanoTime();
+    private TimerWheel.Timeout deadline;
 
-    public DeleteAction(ClientHandler requestedBy, Message request){
+    /**
+     * The constructor method
+     *
+     * @param transactionId the id of the delete sent with QUERYDELETE and VOTE
+     * @param requestedBy the client who initiated the delete request
+     * @param request the delete request
+     * @param participants the clients which have to vote
+     */
+    public DeleteAction(long transactionId, ClientHandler requestedBy, Message request, ClientHandler[] participants){
+        this.transactionId = transactionId;
         this.requestedBy = requestedBy;
         this.request = request;
+        Set<String> unique = new LinkedHashSet<>();
+        for (int i = 0; i < request.argumentCount(); i++) unique.add(request.getArgumentString(i));
+        this.filenames = Collections.unmodifiableList(new ArrayList<>(unique));
+        for (ClientHandler participant : participants){
+            if (participant != requestedBy) this.participants.add(participant);
+        }
+    }
+
+    /**
+     * Returns the id of this delete
+     *
+     * @return the transaction id
+     */
+    public long getTransactionId() {
+        return transactionId;
     }
 
     /**
@@ -45,16 +84,51 @@ public class DeleteAction{
         return request;
     }
 
+    /**
+     * Returns the name of the first file to delete
+     *
+     * @return the first filename of the delete request
+     */
+    public String getFilename() {
+        return filenames.get(0);
+    }
+
+    /**
+     * Returns the names of all the files to delete, without duplicates
+     *
+     * @return the filenames of the delete request
+     */
+    public List<String> getFilenames() {
+        return filenames;
+    }
+
+    /**
+     * Returns the clients which have to vote
+     *
+     * @return a copy of the participants
+     */
+    public synchronized ClientHandler[] getParticipants() {
+        return participants.toArray(new ClientHandler[0]);
+    }
+
+    /**
+     * Returns weather the client has to vote for this delete
+     *
+     * @param handler the client
+     * @return true if the client is a participant, false otherwise
+     */
+    public synchronized boolean isParticipant(ClientHandler handler) {
+        return participants.contains(handler);
+    }
+
     /**
      * Returns the weather the voting process is complete or not.
-     * Voting will complete only when the expected count of clients for vote
-     * is equal to the number of votes already complete
+     * Voting will complete only when all the participants voted
      *
-     * @return true if the completed vote count is equal to the expected vote count,
-     *          false otherwise
+     * @return true if all the participants voted, false otherwise
      */
-    public boolean isVotingComplete(){
-        return voteCount == ServerSettings.getConnectedClient() - 1;
+    public synchronized boolean isVotingComplete(){
+        return voted.size() == participants.size();
     }
 
     /**
@@ -62,21 +136,67 @@ public class DeleteAction{
      *
      * @return true if the all vote YES, false if at least one client vote NO.
      */
-    public boolean getVoteResult(){
+    public synchronized boolean getVoteResult(){
         return voteResult;
     }
 
+    /**
+     * Returns the time since the delete started
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Sets the timeout which presumes the abort of this delete
+     *
+     * @param deadline the scheduled timeout
+     */
+    synchronized void setDeadline(TimerWheel.Timeout deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the timeout of this delete, called once the delete is complete
+     */
+    synchronized void cancelDeadline() {
+        if (null != deadline) deadline.cancel();
+    }
+
+    /**
+     * Completes the voting with the result NO, called when the votes can not all be received
+     */
+    public synchronized void presumeAbort() {
+        voteResult = false;
+        voted.addAll(participants);
+    }
+
+    /**
+     * Removes a client which disconnected before voting, so it is not waited for
+     *
+     * @param handler the disconnected client
+     * @return true if the voting is complete without it, false otherwise
+     */
+    public synchronized boolean removeParticipant(ClientHandler handler) {
+        if (voted.contains(handler) || !participants.remove(handler)) return false;
+        return isVotingComplete();
+    }
+
     /**
      * Call this method when a VOTE request is received for the deleted file is received.
-     * This method stores the stores the votes of the client and increases the completed
-     * vote count.
+     * This method stores the stores the votes of the client, a client which is not
+     * a participant or already voted is ignored.
      *
      * @param decisionBy the client who is voting
      * @param decision the vote of the client
+     * @return true if this vote completed the voting, false otherwise
      */
-    public void receiveDecision(ClientHandler decisionBy, Message decision) {
+    public synchronized boolean receiveDecision(ClientHandler decisionBy, Message decision) {
+        if (!participants.contains(decisionBy) || !voted.add(decisionBy)) return false;
         String vote = decision.getArgumentString(0);
         voteResult = voteResult && vote.equalsIgnoreCase("YES");
-        voteCount++;
+        return isVotingComplete();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package server;
+
+import Connection_client_server.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The deletes in progress, keyed by their transaction id and by their filename.
+ * Each delete has its own participants and votes, so the deletes of different files
+ * run in parallel. A file has at most one delete in progress, so a delete of many files
+ * starts only if none of them is being deleted.
+ */
+class DeleteTransactions {
+
+    private final AtomicLong lastTransactionId;
+    private final Map<Long, DeleteAction> byId = new ConcurrentHashMap<>();
+    private final Map<String, DeleteAction> byFilename = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the deletes, the first one gets the id following the last id
+     *
+     * @param lastTransactionId the highest id already given, read back from the transaction log
+     */
+    DeleteTransactions(long lastTransactionId){
+        this.lastTransactionId = new AtomicLong(lastTransactionId);
+    }
+
+    /**
+     * Starts a delete unless the file already has one in progress
+     *
+     * @param requestedBy the client who initiated the delete request
+     * @param request the delete request with the filenames as the arguments
+     * @param clients the logged in clients, all of them but the requester vote
+     * @return the started delete, <code>null</code> if any of the files already has one
+     */
+    DeleteAction begin(ClientHandler requestedBy, Message request, ClientHandler[] clients){
+        DeleteAction action = new DeleteAction(lastTransactionId.incrementAndGet(), requestedBy, request, clients);
+        List<String> filenames = action.getFilenames();
+        for (int i = 0; i < filenames.size(); i++){
+            if (null != byFilename.putIfAbsent(filenames.get(i), action)){
+                // release the files already taken by this delete
+                for (int j = 0; j < i; j++) byFilename.remove(filenames.get(j), action);
+                return null;
+            }
+        }
+        byId.put(action.getTransactionId(), action);
+        return action;
+    }
+
+    /**
+     * Finds the delete a vote is for. The transaction id is the third argument of the vote,
+     * a vote without it is matched by its filename
+     *
+     * @param vote the VOTE request
+     * @return the delete, <code>null</code> if none is in progress
+     */
+    DeleteAction find(Message vote){
+        if (vote.argumentCount() > 2) return byId.get(vote.getArgumentLong(2));
+        return vote.argumentCount() > 1 ? byFilename.get(vote.getArgumentString(1)) : null;
+    }
+
+    /**
+     * Returns the delete in progress for the file
+     *
+     * @param filename the name of the file
+     * @return the delete, <code>null</code> if none is in progress
+     */
+    DeleteAction forFile(String filename){
+        return byFilename.get(filename);
+    }
+
+    /**
+     * Returns the deletes in progress
+     *
+     * @return a view of the deletes, updated while iterated
+     */
+    Collection<DeleteAction> inProgress(){
+        return byId.values();
+    }
+
+    /**
+     * Removes a completed delete, so the file can be deleted again
+     *
+     * @param action the completed delete
+     * @return true if removed by this call, false if already removed
+     */
+    boolean end(DeleteAction action){
+        if (null == byId.remove(action.getTransactionId())) return false;
+        for (String filename : action.getFilenames()) byFilename.remove(filename, action);
+        return true;
+    }
+}
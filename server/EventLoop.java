@@ -0,0 +1,116 @@
+package server;
+
+import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
+import Connection_client_server.Util;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A single I/O thread of the {@link ServerEngine#EVENT_LOOP EVENT_LOOP} engine.
+ * It waits on a {@link java.nio.channels.Selector Selector} for any of its connections
+ * to become readable or writable, so one thread serves any number of idle clients.
+ */
+class EventLoop extends DaemonWorker {
+
+    private static final Log LOG = Log.forClass(EventLoop.class);
+
+    private final Selector selector;
+    private final Queue<NioClientConnection> registrations = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a new event loop with its own selector
+     *
+     * @param name the name of the I/O thread
+     * @throws IOException if the selector can not be opened
+     */
+    EventLoop(String name) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Hands a new connection to this loop.
+     * The channel is registered by the I/O thread itself.
+     *
+     * @param connection the connection with a non blocking channel
+     */
+    void register(NioClientConnection connection){
+        registrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Wakes up the I/O thread so it picks up the changed interest set
+     */
+    void wakeup(){
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the number of connections registered with this loop
+     *
+     * @return the number of connections
+     */
+    int connectionCount(){
+        return selector.isOpen() ? selector.keys().size() : 0;
+    }
+
+    @Override
+    public void run() {
+        while (!isTerminated() && selector.isOpen()){
+            try {
+                selector.select();
+                registerPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) connection.onReadable();
+                    if (key.isValid() && key.isWritable()) connection.onWritable();
+                }
+            }
+            catch (IOException | RuntimeException e){
+                if (selector.isOpen()) LOG.error("("+getName()+") select failed", e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTerminate() throws Throwable {
+        if (selector.isOpen()){
+            for (SelectionKey key : selector.keys()){
+                ((NioClientConnection) key.attachment()).close();
+            }
+        }
+        Util.closeSilently(selector);
+    }
+
+    private void registerPending(){
+        NioClientConnection connection;
+        while (null != (connection = registrations.poll())){
+            try {
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.onRegistered(key);
+            }
+            catch (ClosedChannelException e){
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package server;
+
+import Connection_client_server.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The upload locks of the files of the server, one lock for each filename.
+ * A push holds the lock of its file, so pushes to different files run in parallel
+ * while two pushes of the same file exclude each other. Pulls take no lock, an upload is
+ * staged and published atomically so a reader never sees a partially written file.
+ *
+ * A lock is held by a request and not by a thread, it is taken when the request is allowed and
+ * released when its transfer ends, which is usually on another thread. The filenames are spread
+ * over {@link #STRIPES} independently locked maps and an entry is removed once it is released.
+ */
+class FileLockTable {
+
+    private static final int STRIPES = 32;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final List<Map<String, Holder>> stripes = new ArrayList<>(STRIPES);
+
+    FileLockTable(){
+        for (int i = 0; i < STRIPES; i++){
+            locks[i] = new ReentrantLock();
+            stripes.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Takes the lock of the file if no other request holds it
+     *
+     * @param filename the name of the file
+     * @param client the client of the request
+     * @param request the request holding the lock
+     * @return true if the lock is taken, false otherwise
+     */
+    boolean tryLock(String filename, ClientHandler client, Message request){
+        int stripe = stripeOf(filename);
+        locks[stripe].lock();
+        try {
+            return null == stripes.get(stripe).putIfAbsent(filename, new Holder(client, request));
+        }
+        finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Releases the lock of the file held by the request,
+     * nothing happens if the request does not hold it
+     *
+     * @param filename the name of the file
+     * @param request the request holding the lock
+     */
+    void unlock(String filename, Message request){
+        int stripe = stripeOf(filename);
+        locks[stripe].lock();
+        try {
+            Map<String, Holder> holders = stripes.get(stripe);
+            Holder holder = holders.get(filename);
+            if (null != holder && holder.request == request) holders.remove(filename);
+        }
+        finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Releases all the locks held by the requests of the client,
+     * called when the client is disconnected
+     *
+     * @param client the disconnected client
+     * @return the number of released locks
+     */
+    int unlockAll(ClientHandler client){
+        int released = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++){
+            locks[stripe].lock();
+            try {
+                for (Iterator<Holder> it = stripes.get(stripe).values().iterator(); it.hasNext();){
+                    if (it.next().client == client){
+                        it.remove();
+                        released++;
+                    }
+                }
+            }
+            finally {
+                locks[stripe].unlock();
+            }
+        }
+        return released;
+    }
+
+    private static int stripeOf(String filename){
+        int h = filename.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * The request holding the lock of a file
+     */
+    private static class Holder {
+        private final ClientHandler client;
+        private final Message request;
+
+        Holder(ClientHandler client, Message request){
+            this.client = client;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The versions of the files of the server. A file gets a new version each time it is
+ * published by a push or removed by a delete, the versions are taken from a single counter
+ * so they only grow, even for a file removed and pushed again. The version is sent with the
+ * notices, so a client can tell an old notice from a new one.
+ * A file not changed since the server started has the version 0.
+ */
+class FileVersions {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Assigns a new version to the file, called once the change of the file is visible
+     *
+     * @param filename the name of the changed file
+     * @return the new version of the file
+     */
+    long publish(String filename){
+        return versions.compute(filename, (name, version) -> clock.incrementAndGet());
+    }
+
+    /**
+     * Returns the current version of the file
+     *
+     * @param filename the name of the file
+     * @return the version of the file, 0 if never changed
+     */
+    long current(String filename){
+        Long version = versions.get(filename);
+        return null == version ? 0 : version;
+    }
+}
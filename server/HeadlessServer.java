@@ -0,0 +1,133 @@
+package server;
+
+import Connection_client_server.LaunchOptions;
+import Connection_client_server.Message;
+import Connection_client_server.MessageType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Runs the server without the JavaFX control panel, configured by command line options
+ * or a config file, see {@link LaunchOptions}. The events are printed to the console and
+ * the server runs until the process is stopped, for example with Ctrl+C.
+ * No JavaFX class is loaded, so it runs on a machine without a display.
+ */
+public class HeadlessServer implements DFSServerCallback {
+
+    private static final String USAGE = "usage: java server.HeadlessServer --directory DIR [--bind IP] [--port PORT]"
+            + " [--engine THREAD_PER_CLIENT|VIRTUAL_THREADS|EVENT_LOOP] [--max-clients N] [--vote-timeout MILLIS]"
+            + " [--replication INVALIDATE|FAN_OUT] [--overflow-policy DISCONNECT|COALESCE]"
+            + " [--outbound-queue-size N] [--metrics-bind IP] [--metrics-port PORT, 0 to disable]"
+            + " [--log-level INFO,server.ClientHandler=DEBUG] [--log-file FILE] [--log-caller true] [--config FILE]";
+
+    /**
+     * Sets the {@link ServerSettings ServerSettings} from the options
+     *
+     * @param options the launch options
+     * @throws IllegalArgumentException if an option is missing or not valid
+     * @throws IOException if the log file can not be opened
+     */
+    static void configure(LaunchOptions options) throws IOException {
+        options.configureLogging();
+        ServerSettings.setServerDirectory(new File(options.require("directory")));
+        ServerSettings.setCommandIP(options.getString("bind", ServerSettings.COMMAND_IP));
+        ServerSettings.setCommandPort(options.getInt("port", ServerSettings.COMMAND_PORT));
+        ServerSettings.setServerEngine(options.getEnum("engine", ServerEngine.class, ServerSettings.getServerEngine()));
+        ServerSettings.setMaxClient(options.getInt("max-clients", ServerSettings.MAX_CLIENT));
+        ServerSettings.setVoteTimeout(options.getLong("vote-timeout", ServerSettings.VOTE_TIMEOUT));
+        ServerSettings.setReplicationMode(options.getEnum("replication", ReplicationMode.class, ServerSettings.getReplicationMode()));
+        ServerSettings.setOverflowPolicy(options.getEnum("overflow-policy", OverflowPolicy.class, ServerSettings.getOverflowPolicy()));
+        ServerSettings.setOutboundQueueSize(options.getInt("outbound-queue-size", ServerSettings.OUTBOUND_QUEUE_SIZE));
+        ServerSettings.setMetricsIP(options.getString("metrics-bind", ServerSettings.METRICS_IP));
+        ServerSettings.setMetricsPort(options.getInt("metrics-port", ServerSettings.METRICS_PORT));
+        if (!ServerSettings.canUseServerDirectory()){
+            throw new IllegalArgumentException("the server directory can not be used : "+ServerSettings.getServerDirectory());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long mainNanos = System.nanoTime();
+        try {
+            configure(new LaunchOptions(args));
+        }
+        catch (IllegalArgumentException | IOException e){
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        DFSServer server = new DFSServer(new HeadlessServer());
+        server.start();
+        if (!server.isRunning()) System.exit(1);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            System.out.println("deletes "+server.getDeleteLatency());
+            stopped.countDown();
+        }, "shutdown"));
+        System.out.println(String.format("server ready on %s:%d with %s in %d ms, %d ms since the JVM started",
+                ServerSettings.getCommandIP(), ServerSettings.getCommandPort(), ServerSettings.getServerEngine(),
+                (System.nanoTime() - mainNanos) / 1_000_000, LaunchOptions.millisSinceStart()));
+        // the server threads are daemons, the main thread keeps the process alive
+        stopped.await();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onServerConnectedOrDisconnected(String server, boolean isConnected) {
+        System.out.println(server+(isConnected ? " connected" : " disconnected"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(String message) {
+        System.err.println(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {
+        System.out.println(client+(isConnected ? " connected" : " disconnected"));
+    }
+
+    /**
+     * Prints the requests which are not allowed, the others are printed once handled
+     *
+     * @param client  the requester client
+     * @param request the request
+     * @param allowed true if the request is allowed to be handled by the server, false otherwise
+     */
+    @Override
+    public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {
+        if (!allowed && request.argumentCount() > 0){
+            System.err.println("a "+request.getMessageType()+" request for \""+request.getArgumentString(0)
+                    +"\" from "+client+" is not allowed");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {
+        MessageType type = request.getMessageType();
+        if ((MessageType.PULL == type || MessageType.PUSH == type) && request.argumentCount() > 0){
+            System.out.println("a "+type+" request for \""+request.getArgumentString(0)+"\" by "+client
+                    +" is "+(handled ? "successful" : "failed"));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Counts latencies in buckets of about 6% width, so any percentile is read back with that
+ * precision from a fixed amount of memory however many values are recorded.
+ * Each power of two of microseconds is split into 16 buckets. Recording is lock free.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^40 microseconds, about 12 days
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Records a latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos){
+        counts.incrementAndGet(indexOf(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+        sumNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Returns the sum of the recorded latencies
+     *
+     * @return the sum in nanoseconds
+     */
+    public long sumNanos(){
+        return sumNanos.sum();
+    }
+
+    /**
+     * Returns for each bound the number of recorded latencies at most that bound, counted
+     * in whole buckets so a latency is counted at the first bound above the end of its bucket
+     *
+     * @param boundsNanos the bounds in nanoseconds, in increasing order
+     * @return the cumulative counts, one for each bound
+     */
+    long[] cumulativeCounts(long[] boundsNanos){
+        long[] cumulative = new long[boundsNanos.length];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < counts.length() && bound < boundsNanos.length; i++){
+            long upperBound = TimeUnit.MICROSECONDS.toNanos(upperBoundOf(i));
+            while (bound < boundsNanos.length && upperBound > boundsNanos[bound]) cumulative[bound++] = seen;
+            seen += counts.get(i);
+        }
+        while (bound < boundsNanos.length) cumulative[bound++] = seen;
+        return cumulative;
+    }
+
+    /**
+     * Returns the number of recorded latencies
+     *
+     * @return the count
+     */
+    public long count(){
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded latencies are
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in milliseconds, 0 if nothing is recorded
+     */
+    public double percentile(double percentile){
+        long total = count();
+        if (0 == total) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if (seen >= rank) return upperBoundOf(i) / 1000.0;
+        }
+        return upperBoundOf(counts.length() - 1) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                count(), percentile(50), percentile(90), percentile(99), percentile(100));
+    }
+
+    private static int indexOf(long micros){
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        int subBucket = (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int index){
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,123 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Reads the messages of the control panel back from the log file, a page at a time,
+ * for the messages no longer kept in the panel. The messages are the records of the
+ * category {@link LogPipeline#CATEGORY}, found by their id: a page is the messages older than
+ * the oldest one shown, so paging goes on into the rotated files, the newest file first.
+ */
+class LogHistory {
+
+    private final File file;
+
+    /**
+     * Creates the reader of a log file
+     *
+     * @param file the log file, its rotated files are read too
+     */
+    LogHistory(File file){
+        this.file = file;
+    }
+
+    /**
+     * Reads the newest messages older than a message
+     *
+     * @param beforeId the id of the message, only the smaller ids are read
+     * @param filter only the messages containing this text, ignoring the case, empty for all the messages
+     * @param count the max number of messages read
+     * @return the messages, oldest first
+     * @throws IOException if a log file can not be read
+     */
+    List<LogMessage> page(long beforeId, String filter, int count) throws IOException {
+        String text = null == filter ? "" : filter.toLowerCase(Locale.ROOT);
+        List<LogMessage> page = new ArrayList<>(count);
+        long last = beforeId;
+        for (int n = 0; page.size() < count; n++){
+            File current = 0 == n ? file : new File(file.getPath()+"."+n);
+            if (!current.isFile()){
+                if (0 == n) continue;
+                break;
+            }
+            List<String> lines = Files.readAllLines(current.toPath(), StandardCharsets.UTF_8);
+            for (int i = lines.size() - 1; i >= 0 && page.size() < count; i--){
+                LogMessage message = parse(lines.get(i));
+                // the ids only decrease, a file rotated while reading is not read twice
+                if (null == message || message.getId() >= last) continue;
+                if (!text.isEmpty() && !message.getMessage().toLowerCase(Locale.ROOT).contains(text)) continue;
+                page.add(message);
+                last = message.getId();
+            }
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Parses a logfmt line written by the pipeline
+     *
+     * @param line the line
+     * @return the message, <code>null</code> if the line is not a message of the panel
+     */
+    static LogMessage parse(String line){
+        if (!line.contains(" logger="+LogPipeline.CATEGORY+" ")) return null;
+        Map<String, String> pairs = pairs(line);
+        try {
+            long id = Long.parseLong(pairs.getOrDefault("id", ""));
+            LogType type = LogType.valueOf(pairs.getOrDefault("type", LogType.INFO.name()));
+            return new LogMessage(type, pairs.getOrDefault("msg", ""), id);
+        }
+        catch (IllegalArgumentException e){
+            return null;
+        }
+    }
+
+    /**
+     * Splits a logfmt line into its key=value pairs, unquoting the quoted values
+     */
+    private static Map<String, String> pairs(String line){
+        Map<String, String> pairs = new HashMap<>();
+        int i = 0;
+        int length = line.length();
+        while (i < length){
+            while (i < length && ' ' == line.charAt(i)) i++;
+            int equal = line.indexOf('=', i);
+            if (equal < 0) break;
+            String key = line.substring(i, equal);
+            StringBuilder value = new StringBuilder();
+            i = equal + 1;
+            if (i < length && '"' == line.charAt(i)){
+                for (i++; i < length && '"' != line.charAt(i); i++){
+                    char c = line.charAt(i);
+                    if ('\\' == c && i + 1 < length){
+                        c = line.charAt(++i);
+                        if ('n' == c) c = '\n';
+                        else if ('r' == c) c = '\r';
+                    }
+                    value.append(c);
+                }
+                i++;
+            }
+            else {
+                for (; i < length && ' ' != line.charAt(i); i++) value.append(line.charAt(i));
+            }
+            pairs.put(key, value.toString());
+        }
+        return pairs;
+    }
+}
@@ -8,16 +8,24 @@ package server;
 
 
 /**
- * A log message which will be displayed in the server log in the server control panel
+ * A log message which will be displayed in the server log in the server control panel.
+ * The id orders the messages, a message with a smaller id is older, also across runs
+ * of the server, so the older messages are paged in from the log file by their id.
  */
 public class LogMessage {
 
     private LogType type;
     private String message;
+    private long id;
 
     public LogMessage(LogType type, String message){
+        this(type, message, 0);
+    }
+
+    public LogMessage(LogType type, String message, long id){
         this.type = type;
         this.message = message;
+        this.id = id;
     }
 
     /**
@@ -29,6 +37,15 @@ public class LogMessage {
         return type;
     }
 
+    /**
+     * The id of the message, increasing with the time the message is logged
+     *
+     * @return the id, 0 if the message was not published by a {@link LogPipeline}
+     */
+    public long getId() {
+        return id;
+    }
+
     /**
      * The prepared log message
      *
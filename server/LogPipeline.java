@@ -0,0 +1,144 @@
+package server;
+
+import Connection_client_server.Log;
+import Connection_client_server.LogLevel;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Carries the log messages of the server events from the server threads to the control panel.
+ * A server thread publishes a message into a lock free ring buffer of a fixed size and goes on,
+ * the panel drains the ring once per frame, so the events never flood the JavaFX queue.
+ * When the panel falls behind the ring fills up and the new messages are counted as dropped,
+ * the memory used stays the same however many events there are.
+ *
+ * Each message is also written to the log file by the {@link Log} of the category
+ * {@link #CATEGORY}, with its id, so the messages dropped or no longer shown are read back
+ * from there by {@link LogHistory}.
+ *
+ * The ring is a bounded queue for many producers and a single consumer: each slot has a sequence
+ * number telling the producers when it is free and the consumer when it is written.
+ */
+class LogPipeline {
+
+    static final String CATEGORY = "server.events";
+
+    private static final Log EVENTS = Log.forCategory(CATEGORY);
+
+    private final int mask;
+    private final AtomicReferenceArray<LogMessage> slots;
+    private final AtomicLongArray sequences;
+    // the next slot to write, taken by the producers with a CAS
+    private final AtomicLong tail = new AtomicLong();
+    // the next slot to read, used by the consumer only
+    private long head = 0;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * Creates the pipeline
+     *
+     * @param capacity the number of messages the ring holds, rounded up to a power of two
+     */
+    LogPipeline(int capacity){
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Logs a message and queues it for the panel, from any thread and without blocking
+     *
+     * @param type the type of the message
+     * @param message the text of the message
+     * @return the published message
+     */
+    LogMessage publish(LogType type, String message){
+        LogMessage logMessage = new LogMessage(type, message, nextId());
+        EVENTS.log(levelOf(type), null, message, new Object[]{"id", logMessage.getId(), "type", type}, null);
+        if (!offer(logMessage)) dropped.increment();
+        return logMessage;
+    }
+
+    /**
+     * Hands the queued messages to the consumer, oldest first.
+     * Called by a single thread, the JavaFX thread of the panel.
+     *
+     * @param max the max number of messages taken
+     * @param consumer receives the messages
+     * @return the number of messages taken
+     */
+    int drain(int max, Consumer<LogMessage> consumer){
+        int count = 0;
+        while (count < max){
+            int index = (int) (head & mask);
+            // the slot is written once its sequence is one past its position
+            if (sequences.get(index) != head + 1) break;
+            LogMessage message = slots.get(index);
+            slots.set(index, null);
+            sequences.set(index, head + mask + 1);
+            head++;
+            consumer.accept(message);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of messages dropped since the last call
+     *
+     * @return the dropped messages
+     */
+    long takeDropped(){
+        return dropped.sumThenReset();
+    }
+
+    private boolean offer(LogMessage message){
+        long position = tail.get();
+        while (true){
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (0 == difference){
+                if (tail.compareAndSet(position, position + 1)){
+                    slots.set(index, message);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0){
+                // the slot still holds a message the consumer has not taken, the ring is full
+                return false;
+            }
+            else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Returns an id larger than all the previous ones, based on the time in microseconds
+     * so the ids keep increasing across the runs of the server
+     */
+    private long nextId(){
+        long now = System.currentTimeMillis() * 1000;
+        return lastId.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+    }
+
+    private static LogLevel levelOf(LogType type){
+        if (LogType.ERROR == type) return LogLevel.ERROR;
+        if (LogType.DEBUG == type) return LogLevel.DEBUG;
+        return LogLevel.INFO;
+    }
+}
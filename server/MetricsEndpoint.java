@@ -0,0 +1,148 @@
+package server;
+
+import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
+import Connection_client_server.Util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A minimal HTTP listener answering GET /metrics with the metrics of a {@link MetricsRegistry}
+ * in the Prometheus text format. A scrape is rare and small, so the requests are served one
+ * at a time by this thread and each connection is closed after its response.
+ * A client which does not send its request in time is dropped, so it can not hold the listener.
+ */
+class MetricsEndpoint extends DaemonWorker {
+
+    private static final Log LOG = Log.forClass(MetricsEndpoint.class);
+
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int READ_TIMEOUT = 2000;
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final MetricsRegistry registry;
+
+    /**
+     * Binds the listener, it serves the requests once started
+     *
+     * @param ip the address to listen on
+     * @param port the port to listen on
+     * @param registry the metrics written
+     * @throws IOException if the port can not be bound
+     */
+    MetricsEndpoint(String ip, int port, MetricsRegistry registry) throws IOException {
+        super("dfs-metrics");
+        this.registry = registry;
+        this.serverSocket = new ServerSocket();
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getByName(ip), port));
+        }
+        catch (IOException e){
+            Util.closeSilently(serverSocket);
+            throw e;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()){
+            try (Socket socket = serverSocket.accept()){
+                socket.setSoTimeout(READ_TIMEOUT);
+                serve(socket);
+            }
+            catch (SocketTimeoutException e){
+                if (LOG.isDebugEnabled()) LOG.debug("metrics request timed out");
+            }
+            catch (IOException e){
+                if (LOG.isDebugEnabled() && !serverSocket.isClosed()) LOG.debug("metrics request failed : "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTerminate() throws Throwable {
+        Util.closeSilently(serverSocket);
+    }
+
+    @Override
+    public String toString() {
+        return "http://"+serverSocket.getInetAddress().getHostAddress()+":"+serverSocket.getLocalPort()+PATH;
+    }
+
+    /**
+     * Reads the request head and writes the response
+     *
+     * @param socket the accepted connection
+     * @throws IOException if the connection fails
+     */
+    private void serve(Socket socket) throws IOException {
+        String requestLine = readRequestHead(new BufferedInputStream(socket.getInputStream()));
+        if (null == requestLine) return;
+        String[] parts = requestLine.split(" ");
+        OutputStream out = socket.getOutputStream();
+        if (parts.length < 2 || !("GET".equals(parts[0]) || "HEAD".equals(parts[0]))){
+            respond(out, "405 Method Not Allowed", "text/plain", "only GET is supported\n", true);
+        }
+        else if (!PATH.equals(parts[1]) && !parts[1].startsWith(PATH+"?")){
+            respond(out, "404 Not Found", "text/plain", "the metrics are at "+PATH+"\n", true);
+        }
+        else {
+            respond(out, "200 OK", CONTENT_TYPE, registry.toPrometheus(), "GET".equals(parts[0]));
+        }
+    }
+
+    /**
+     * Reads the request line and skips the headers up to the empty line
+     *
+     * @param in the stream of the connection
+     * @return the request line, <code>null</code> if the connection is closed or the head is too large
+     * @throws IOException if the connection fails
+     */
+    private static String readRequestHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0){
+            head.append((char) c);
+            int length = head.length();
+            if (length > MAX_REQUEST_SIZE) return null;
+            if (length >= 4 && '\n' == c && '\r' == head.charAt(length - 2)
+                    && '\n' == head.charAt(length - 3) && '\r' == head.charAt(length - 4)){
+                return head.substring(0, head.indexOf("\r\n"));
+            }
+        }
+        return null;
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body, boolean withBody)
+            throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 "+status+"\r\n"
+                +"Content-Type: "+contentType+"\r\n"
+                +"Content-Length: "+content.length+"\r\n"
+                +"Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        if (withBody) out.write(content);
+        out.flush();
+    }
+}
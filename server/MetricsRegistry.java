@@ -0,0 +1,194 @@
+package server;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A set of named metrics written in the Prometheus text format.
+ * A metric is registered once and the returned {@link LongAdder} or {@link LatencyHistogram}
+ * is kept by the code recording it, so recording is lock free and never looks up a name.
+ * A gauge is read from its supplier only when the metrics are written.
+ * Metrics with the same name and different labels are written as one family.
+ */
+public class MetricsRegistry {
+
+    // the bounds of the histogram buckets written, in seconds
+    private static final double[] BUCKET_BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS.length];
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++){
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Registers a counter
+     *
+     * @param name the name of the metric, ending with _total
+     * @param help the description of the metric
+     * @param labels the label names and values, one after the other
+     * @return the counter to increment
+     */
+    public LongAdder counter(String name, String help, String... labels){
+        LongAdder counter = new LongAdder();
+        register(name, help, "counter", labels, counter);
+        return counter;
+    }
+
+    /**
+     * Registers a histogram of durations, written in seconds
+     *
+     * @param name the name of the metric, ending with _seconds
+     * @param help the description of the metric
+     * @param labels the label names and values, one after the other
+     * @return the histogram to record to
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels){
+        LatencyHistogram histogram = new LatencyHistogram();
+        register(name, help, "histogram", labels, histogram);
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge read when the metrics are written
+     *
+     * @param name the name of the metric
+     * @param help the description of the metric
+     * @param value returns the current value, called from the thread writing the metrics
+     * @param labels the label names and values, one after the other
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels){
+        register(name, help, "gauge", labels, value);
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text format, version 0.0.4
+     *
+     * @return the metrics
+     */
+    public synchronized String toPrometheus(){
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()){
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Series series : family.series){
+                if (series.metric instanceof LongAdder){
+                    sample(out, name, series.labels, null, ((LongAdder) series.metric).sum());
+                }
+                else if (series.metric instanceof LongSupplier){
+                    sample(out, name, series.labels, null, ((LongSupplier) series.metric).getAsLong());
+                }
+                else {
+                    writeHistogram(out, name, series.labels, (LatencyHistogram) series.metric);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private synchronized void register(String name, String help, String type, String[] labels, Object metric){
+        if (0 != labels.length % 2){
+            throw new IllegalArgumentException("the labels of "+name+" must be name and value pairs");
+        }
+        Family family = families.get(name);
+        if (null == family){
+            families.put(name, family = new Family(help, type));
+        }
+        else if (!family.type.equals(type)){
+            throw new IllegalArgumentException(name+" is already registered as a "+family.type);
+        }
+        family.series.add(new Series(labels(labels), metric));
+    }
+
+    /**
+     * Writes the cumulative buckets, the sum and the count of a histogram.
+     * The count is read after the buckets, so it is never below the last bucket.
+     */
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram){
+        long sumNanos = histogram.sumNanos();
+        long[] cumulative = histogram.cumulativeCounts(BUCKET_BOUNDS_NANOS);
+        long count = Math.max(histogram.count(), cumulative[cumulative.length - 1]);
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++){
+            sample(out, name+"_bucket", labels, "le=\""+number(BUCKET_BOUNDS[i])+"\"", cumulative[i]);
+        }
+        sample(out, name+"_bucket", labels, "le=\"+Inf\"", count);
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(number(sumNanos / (double) TimeUnit.SECONDS.toNanos(1))).append('\n');
+        sample(out, name+"_count", labels, null, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, long value){
+        out.append(name);
+        if (!labels.isEmpty() || null != extraLabel){
+            out.append('{').append(labels);
+            if (null != extraLabel) out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String labels(String[] labels){
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2){
+            if (i > 0) builder.append(',');
+            builder.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++){
+                char c = value.charAt(j);
+                if ('\\' == c || '"' == c) builder.append('\\').append(c);
+                else if ('\n' == c) builder.append("\\n");
+                else builder.append(c);
+            }
+            builder.append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String number(double value){
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The metrics with the same name
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final List<Series> series = new ArrayList<>();
+
+        Family(String help, String type){
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A single metric of a family, with its label values
+     */
+    private static class Series {
+        private final String labels;
+        private final Object metric;
+
+        Series(String labels, Object metric){
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+}
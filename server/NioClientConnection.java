@@ -0,0 +1,577 @@
+package server;
+
+import Connection_client_server.DataFrameReader;
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Log;
+import Connection_client_server.Message;
+import Connection_client_server.MessageType;
+import Connection_client_server.NegotiatedCodec;
+import Connection_client_server.Util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A non blocking connection served by an {@link server.EventLoop EventLoop}.
+ * The I/O thread of the loop reads the bytes into the read buffer of the connection and
+ * decodes the requests, the requests are then handled one after another by a worker thread
+ * so the I/O thread never blocks. The written messages are encoded into the write buffer
+ * and flushed by the caller or, if the socket is full, by the I/O thread.
+ * The payload of the DATA frames is stored straight from the channel into the files by the
+ * I/O thread, and sent straight from the files by the transfer thread which waits for the
+ * channel to become writable while the other messages are held back.
+ * Once {@link #MAX_QUEUED_REQUESTS} requests wait for the worker the channel is no longer read,
+ * so a client sending faster than its requests are handled is slowed down by TCP instead of
+ * filling the heap; reading resumes when the worker caught up with half of them.
+ */
+class NioClientConnection implements ClientConnection {
+
+    private static final Log LOG = Log.forClass(NioClientConnection.class);
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_QUEUED_REQUESTS = 256;
+    private static final int RESUME_QUEUED_REQUESTS = MAX_QUEUED_REQUESTS / 2;
+
+    // queued after the last request when the client closes the connection
+    private static final Message END_OF_STREAM = new Message(MessageType.END);
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final Executor executor;
+    private final NegotiatedCodec codec = new NegotiatedCodec();
+    private final DataFrameReader dataReader = new DataFrameReader();
+    private final String remoteAddress;
+
+    private SelectionKey key;
+    private ClientHandler handler;
+
+    // both buffers are kept in write mode
+    private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // reused for the ACKs, guarded by this monitor
+    private final Message ack = new Message(MessageType.ACK);
+
+    // the messages written while the payload of a DATA frame is sent from a file
+    private ByteBuffer deferredBuffer;
+    private boolean sendingData = false;
+
+    private final Queue<Message> inbox = new ConcurrentLinkedQueue<>();
+    // the size of the inbox, the size of the queue itself is not constant time
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean readPaused = new AtomicBoolean(false);
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+    private boolean endOfStream = false;
+    private boolean finished = false;
+
+    /**
+     * The constructor method
+     *
+     * @param channel the non blocking channel bound to the client
+     * @param eventLoop the loop serving the channel
+     * @param executor the executor running the request handling
+     */
+    NioClientConnection(SocketChannel channel, EventLoop eventLoop, Executor executor) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.executor = executor;
+        String address;
+        try {
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            address = remote.getAddress().getHostAddress()+":"+remote.getPort();
+        }
+        catch (IOException | RuntimeException e){
+            address = "unknown";
+        }
+        this.remoteAddress = address;
+    }
+
+    /**
+     * Sets the handler of the requests read from this connection
+     *
+     * @param handler the ClientHandler of this connection
+     */
+    void setHandler(ClientHandler handler){
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the channel of this connection
+     *
+     * @return the channel bound to the client
+     */
+    SocketChannel getChannel(){
+        return channel;
+    }
+
+    /**
+     * Called by the event loop once the channel is registered
+     *
+     * @param key the selection key of the channel
+     */
+    void onRegistered(SelectionKey key){
+        this.key = key;
+    }
+
+    /**
+     * Called by the I/O thread when the channel is readable.
+     * Reads the available bytes and queues the complete requests.
+     */
+    void onReadable(){
+        try {
+            int len = channel.read(readBuffer);
+            if (len < 0){
+                // a resume racing with the end of the stream may select the channel once more
+                readPaused.set(false);
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                if (!endOfStream){
+                    endOfStream = true;
+                    enqueue(END_OF_STREAM);
+                }
+                return;
+            }
+            readBuffer.flip();
+            try {
+                Message request;
+                while (true){
+                    try {
+                        request = dataReader.accepts(readBuffer)
+                                ? dataReader.read(readBuffer, channel)
+                                : codec.decode(readBuffer);
+                        if (null == request) break;
+                        inbox.add(request);
+                        queued.incrementAndGet();
+                    }
+                    catch (IllegalArgumentException e){
+                        // the frame is consumed, the next requests are still read
+                        handler.rejectMalformedRequest(e);
+                    }
+                }
+            }
+            finally {
+                readBuffer.compact();
+            }
+            if (!readBuffer.hasRemaining()){
+                readBuffer = grow(readBuffer);
+            }
+            if (queued.get() >= MAX_QUEUED_REQUESTS) pauseReading();
+            schedule();
+        }
+        catch (IOException e){
+            if (LOG.isDebugEnabled()) LOG.debug("("+remoteAddress+") read failed : "+e);
+            key.cancel();
+            enqueue(END_OF_STREAM);
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel is writable again
+     */
+    void onWritable(){
+        synchronized (this){
+            if (sendingData){
+                // the transfer thread writes the rest of the frame
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                notifyAll();
+                return;
+            }
+            try {
+                flush();
+            }
+            catch (IOException e){
+                closeNow();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(Message message) throws IOException {
+        if (closed) throw new IOException("connection closed");
+        synchronized (this){
+            ByteBuffer frame = codec.encode(message);
+            if (sendingData){
+                // sent once the payload being sent from a file is complete
+                deferredBuffer = append(deferredBuffer, frame);
+                return;
+            }
+            writeBuffer = append(writeBuffer, frame);
+            flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(List<Message> messages) throws IOException {
+        if (closed) throw new IOException("connection closed");
+        synchronized (this){
+            for (Message message : messages){
+                ByteBuffer frame = codec.encode(message);
+                if (sendingData){
+                    deferredBuffer = append(deferredBuffer, frame);
+                }
+                else {
+                    writeBuffer = append(writeBuffer, frame);
+                }
+            }
+            if (!sendingData) flush();
+        }
+    }
+
+    /**
+     * Writes the ACK like any message: the writers never block holding this monitor,
+     * a transfer waiting for the channel releases it, so the reading thread never waits for them
+     */
+    @Override
+    public void writeAck(int transferId, int bytes) throws IOException {
+        synchronized (this){
+            write(ack.reset(MessageType.ACK).addArgument(transferId).addArgument(bytes));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canWriteData() {
+        return codec.isBinary();
+    }
+
+    /**
+     * Writes the DATA frame from the file, the calling thread waits while the channel is full.
+     * The messages written meanwhile are held back until the frame is complete.
+     */
+    @Override
+    public synchronized void writeData(int transferId, FileChannel file, long position, int length) throws IOException {
+        beginData(transferId, length);
+        try {
+            writePending();
+            long end = position + length;
+            while (position < end){
+                long len = file.transferTo(position, end - position, channel);
+                position += len;
+                if (0 == len && position < end){
+                    if (position >= file.size()){
+                        // keep the framing intact if the file got shorter
+                        padFrame(end - position);
+                        throw new EOFException("file truncated while sending");
+                    }
+                    awaitWritable();
+                }
+            }
+        }
+        catch (EOFException e){
+            throw e;
+        }
+        catch (IOException e){
+            // the frame can not be completed, so the connection is unusable
+            closeNow();
+            throw e;
+        }
+        finally {
+            endData();
+        }
+        flush();
+    }
+
+    /**
+     * Writes the DATA frame from the buffer, the calling thread waits while the channel is full.
+     * The messages written meanwhile are held back until the frame is complete.
+     */
+    @Override
+    public synchronized void writeData(int transferId, ByteBuffer payload) throws IOException {
+        beginData(transferId, payload.remaining());
+        try {
+            writePending();
+            while (payload.hasRemaining()){
+                if (0 == channel.write(payload)) awaitWritable();
+            }
+        }
+        catch (IOException e){
+            closeNow();
+            throw e;
+        }
+        finally {
+            endData();
+        }
+        flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setIncomingTransfers(IntFunction<IncomingTransfer> transfers) {
+        dataReader.setTransfers(transfers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCodec(String name) {
+        codec.setCodec(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the connection after the pending output is written
+     */
+    @Override
+    public void close() {
+        synchronized (this){
+            if (closed) return;
+            closed = true;
+            try {
+                flush();
+            }
+            catch (IOException e){}
+            closeNow();
+        }
+    }
+
+    /**
+     * Writes as much of the write buffer as the socket accepts and asks the
+     * event loop for a writable event if something is left. Called holding this monitor.
+     *
+     * @throws IOException if the channel is broken
+     */
+    private void flush() throws IOException {
+        if (writeBuffer.position() > 0){
+            writeBuffer.flip();
+            try {
+                channel.write(writeBuffer);
+            }
+            finally {
+                writeBuffer.compact();
+            }
+        }
+        if (null == key || !key.isValid()) return;
+        if (writeBuffer.position() > 0){
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+            eventLoop.wakeup();
+        }
+        else if ((key.interestOps() & SelectionKey.OP_WRITE) != 0){
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Appends the header of a DATA frame and holds back the messages written
+     * until {@link #endData()}. Called holding this monitor.
+     * A transfer waiting for the channel releases the monitor, so another transfer
+     * to the same client waits here until the frame in progress is complete.
+     *
+     * @param transferId the id of the transfer
+     * @param length the length of the payload
+     * @throws IOException if the connection is closed
+     */
+    private void beginData(int transferId, int length) throws IOException {
+        while (sendingData && !closed){
+            try {
+                wait();
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to send data");
+            }
+        }
+        if (closed) throw new IOException("connection closed");
+        writeBuffer = append(writeBuffer, codec.encodeDataHeader(transferId, length));
+        sendingData = true;
+    }
+
+    /**
+     * Writes the pending messages and the header of the frame, waiting while
+     * the channel is full. Called holding this monitor.
+     *
+     * @throws IOException if the channel is broken
+     */
+    private void writePending() throws IOException {
+        while (writeBuffer.position() > 0){
+            writeBuffer.flip();
+            try {
+                channel.write(writeBuffer);
+            }
+            finally {
+                writeBuffer.compact();
+            }
+            if (writeBuffer.position() > 0) awaitWritable();
+        }
+    }
+
+    /**
+     * Queues the messages held back while the frame was written. Called holding this monitor.
+     */
+    private void endData(){
+        sendingData = false;
+        // wakes up the transfers waiting for their turn
+        notifyAll();
+        if (null != deferredBuffer && deferredBuffer.position() > 0){
+            deferredBuffer.flip();
+            writeBuffer = append(writeBuffer, deferredBuffer);
+            deferredBuffer.clear();
+        }
+    }
+
+    /**
+     * Writes zeros for the rest of a payload. Called holding this monitor.
+     *
+     * @param length the number of bytes missing
+     * @throws IOException if the channel is broken
+     */
+    private void padFrame(long length) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, BUFFER_SIZE));
+        while (length > 0){
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), length));
+            int len = channel.write(zeros);
+            length -= len;
+            if (0 == len) awaitWritable();
+        }
+    }
+
+    /**
+     * Waits until the I/O thread finds the channel writable. Called holding this monitor.
+     *
+     * @throws IOException if the connection is closed meanwhile
+     */
+    private void awaitWritable() throws IOException {
+        if (null == key || !key.isValid()) throw new IOException("connection closed");
+        key.interestOpsOr(SelectionKey.OP_WRITE);
+        eventLoop.wakeup();
+        try {
+            wait();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sending data");
+        }
+        if (closed) throw new IOException("connection closed");
+    }
+
+    private void closeNow(){
+        closed = true;
+        notifyAll();
+        if (null != key) key.cancel();
+        Util.closeSilently(channel);
+    }
+
+    private void enqueue(Message message){
+        inbox.add(message);
+        queued.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Stops reading the channel while the worker is behind. Called by the I/O thread.
+     * The interest is cleared before the flag is set, so a worker resuming meanwhile
+     * always restores it, and the queue is checked again in case the worker already caught up.
+     */
+    private void pauseReading(){
+        if (!key.isValid()) return;
+        key.interestOpsAnd(~SelectionKey.OP_READ);
+        readPaused.set(true);
+        if (LOG.isDebugEnabled()) LOG.debug("("+remoteAddress+") reading paused", "queued", queued.get());
+        if (queued.get() <= RESUME_QUEUED_REQUESTS) resumeReading();
+    }
+
+    /**
+     * Reads the channel again once the worker caught up, if it is paused
+     */
+    private void resumeReading(){
+        if (!readPaused.compareAndSet(true, false) || !key.isValid()) return;
+        key.interestOpsOr(SelectionKey.OP_READ);
+        eventLoop.wakeup();
+        if (LOG.isDebugEnabled()) LOG.debug("("+remoteAddress+") reading resumed");
+    }
+
+    /**
+     * Makes sure a single worker is draining the inbox of this connection
+     */
+    private void schedule(){
+        if (!inbox.isEmpty() && draining.compareAndSet(false, true)){
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Handles the queued requests in the order they were read
+     */
+    private void drain(){
+        try {
+            Message request;
+            while (!finished && null != (request = inbox.poll())){
+                if (queued.decrementAndGet() <= RESUME_QUEUED_REQUESTS && readPaused.get()) resumeReading();
+                if (END_OF_STREAM == request || !handler.handle(request)){
+                    finished = true;
+                    inbox.clear();
+                    handler.onDisconnected();
+                    handler.terminate();
+                }
+            }
+        }
+        catch (RuntimeException e){
+            // the requests failing are answered by the handler, this is the disconnect failing
+            LOG.error("("+remoteAddress+") connection not closed", e);
+        }
+        finally {
+            draining.set(false);
+        }
+        if (!finished) schedule();
+    }
+
+    private static ByteBuffer append(ByteBuffer buffer, ByteBuffer bytes){
+        if (null == buffer) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (buffer.remaining() < bytes.remaining()){
+            buffer = grow(buffer);
+        }
+        return buffer.put(bytes);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer){
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,346 @@
+package server;
+
+import Connection_client_server.Log;
+import Connection_client_server.Message;
+import Connection_client_server.MessagePool;
+import Connection_client_server.MessageType;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The bounded queue of the messages waiting to be written to a single client.
+ * Queueing a message never blocks, so a thread broadcasting a notice to all the clients
+ * does not wait for a slow client or for a client in the middle of a transfer.
+ * The queue is drained by a writer task on the executor which writes all the queued
+ * messages, up to {@link #MAX_BATCH}, with a single flush.
+ * If notice coalescing is enabled a queued notice of a file is replaced by a newer notice
+ * of the same file, otherwise that only happens when the queue is full and the
+ * {@link OverflowPolicy} allows it.
+ * The entries of the notices are pooled like the notices themselves, so a broadcast
+ * does not allocate in steady state.
+ */
+class OutboundQueue {
+
+    private static final Log LOG = Log.forClass(OutboundQueue.class);
+
+    private static final int MAX_BATCH = 64;
+    // the idle notice entries kept for reuse
+    private static final int MAX_FREE_NOTICES = 64;
+
+    private final ClientConnection connection;
+    private final Executor executor;
+    private final MessagePool messagePool;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean coalesceNotices;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final ArrayDeque<Entry> freeNotices = new ArrayDeque<>(MAX_FREE_NOTICES);
+    private final Runnable drainer = this::drain;
+    // used by the single writer task running at a time
+    private final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+    private final List<Message> messages = new ArrayList<>(MAX_BATCH);
+    private boolean scheduled = false;
+    private boolean closing = false;
+    private boolean closed = false;
+
+    /**
+     * The constructor method
+     *
+     * @param connection the connection to write to
+     * @param executor the executor running the writer
+     * @param messagePool the pool the pooled messages are released to once written
+     * @param capacity the max number of queued messages
+     * @param overflowPolicy what to do when the queue is full
+     * @param coalesceNotices true to replace a queued notice by a newer notice of the same file
+     */
+    OutboundQueue(ClientConnection connection, Executor executor, MessagePool messagePool,
+                  int capacity, OverflowPolicy overflowPolicy, boolean coalesceNotices){
+        this.connection = connection;
+        this.executor = executor;
+        this.messagePool = messagePool;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.coalesceNotices = coalesceNotices;
+    }
+
+    /**
+     * Queues a response
+     *
+     * @param message the message to write
+     * @return true if queued, false if the queue is closed or the client is disconnected
+     */
+    boolean offer(Message message){
+        return offer(new Entry(message, false, null));
+    }
+
+    /**
+     * Queues a response and runs the task once it is written,
+     * the task is not run if the message is never written
+     *
+     * @param message the message to write
+     * @param onWritten the task to run after the message is written
+     * @return true if queued, false if the queue is closed or the client is disconnected
+     */
+    boolean offer(Message message, Runnable onWritten){
+        return offer(new Entry(message, false, onWritten));
+    }
+
+    /**
+     * Queues a notice acquired from the message pool, it is released once written
+     *
+     * @param notice the notice with the filename as the first argument and the version as the second
+     * @return true if queued, false if the queue is closed or the client is disconnected
+     */
+    boolean offerNotice(Message notice){
+        Entry entry;
+        synchronized (freeNotices){
+            entry = freeNotices.pollFirst();
+        }
+        if (null == entry) return offer(new Entry(notice, true, null));
+        entry.message = notice;
+        return offer(entry);
+    }
+
+    /**
+     * Closes the connection once the queued messages are written,
+     * no more messages are accepted afterwards
+     */
+    void shutdown(){
+        boolean closeNow;
+        lock.lock();
+        try {
+            closing = true;
+            closeNow = !scheduled;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (closeNow){
+            close();
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting to be written
+     *
+     * @return the queued messages
+     */
+    int size(){
+        lock.lock();
+        try {
+            return queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the queued messages, nothing is written afterwards
+     */
+    void close(){
+        lock.lock();
+        try {
+            closed = true;
+            for (Entry entry : queue) release(entry);
+            queue.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean offer(Entry entry){
+        boolean schedule = false;
+        boolean overflow = false;
+        lock.lock();
+        try {
+            if (closed || closing){
+                release(entry);
+                return false;
+            }
+            boolean merged = coalesceNotices && coalesce(entry);
+            if (!merged && queue.size() < capacity){
+                queue.addLast(entry);
+            }
+            else if (!merged && (OverflowPolicy.COALESCE != overflowPolicy || !coalesce(entry))){
+                overflow = true;
+            }
+            if (!overflow && !scheduled){
+                scheduled = schedule = true;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        if (overflow){
+            LOG.warn("outbound queue is full, disconnecting", "client", connection.getRemoteAddress());
+            release(entry);
+            close();
+            connection.close();
+            return false;
+        }
+        if (schedule){
+            try {
+                executor.execute(drainer);
+            }
+            catch (RejectedExecutionException e){
+                close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a queued notice of the same file by the new notice. If the queued notice
+     * has a newer version the new notice is dropped instead. Called holding the lock.
+     *
+     * @param entry the new entry
+     * @return true if replaced or dropped, false if the entry can not be coalesced
+     */
+    private boolean coalesce(Entry entry){
+        if (!entry.isCoalescable()) return false;
+        String filename = entry.message.getArgumentString(0);
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext();){
+            Entry queued = it.next();
+            if (queued.isCoalescable() && filename.equals(queued.message.getArgumentString(0))){
+                if (queued.version() > entry.version()){
+                    if (LOG.isDebugEnabled()) LOG.debug("dropped "+entry.message+", "+queued.message+" is newer");
+                    release(entry);
+                    return true;
+                }
+                it.remove();
+                release(queued);
+                queue.addLast(entry);
+                if (LOG.isDebugEnabled()) LOG.debug("coalesced "+queued.message+" into "+entry.message);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the queued messages in batches until the queue is empty
+     */
+    private void drain(){
+        while (true){
+            boolean closeNow = false;
+            lock.lock();
+            try {
+                while (batch.size() < MAX_BATCH && !queue.isEmpty()){
+                    batch.add(queue.pollFirst());
+                }
+                if (batch.isEmpty()){
+                    scheduled = false;
+                    closeNow = closing && !closed;
+                    closed |= closing;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            if (batch.isEmpty()){
+                if (closeNow) connection.close();
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) messages.add(batch.get(i).message);
+            try {
+                connection.write(messages);
+                if (LOG.isDebugEnabled()) LOG.debug("("+connection.getRemoteAddress()+") responses send : "+messages);
+            }
+            catch (IOException e){
+                if (LOG.isDebugEnabled()) LOG.debug("("+connection.getRemoteAddress()+") responses not written : "+e);
+                abort();
+                return;
+            }
+            catch (RuntimeException e){
+                LOG.error("responses to "+connection.getRemoteAddress()+" not written, disconnecting", e);
+                abort();
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++){
+                Entry entry = batch.get(i);
+                Runnable onWritten = entry.onWritten;
+                release(entry);
+                if (null != onWritten) onWritten.run();
+            }
+            batch.clear();
+            messages.clear();
+        }
+    }
+
+    /**
+     * Drops a batch which failed to be written and disconnects the client. The messages may be
+     * partly written, so none of the callbacks is run: a pull must not stream the data of an OPEN
+     * the client never received.
+     */
+    private void abort(){
+        for (int i = 0; i < batch.size(); i++) release(batch.get(i));
+        batch.clear();
+        messages.clear();
+        close();
+        connection.close();
+    }
+
+    /**
+     * Releases a pooled notice and keeps its entry for the next notice
+     */
+    private void release(Entry entry){
+        if (!entry.pooled) return;
+        messagePool.release(entry.message);
+        entry.message = null;
+        synchronized (freeNotices){
+            if (freeNotices.size() < MAX_FREE_NOTICES) freeNotices.addFirst(entry);
+        }
+    }
+
+    /**
+     * A queued message
+     */
+    private static class Entry {
+        private Message message;
+        private final boolean pooled;
+        private final Runnable onWritten;
+
+        Entry(Message message, boolean pooled, Runnable onWritten){
+            this.message = message;
+            this.pooled = pooled;
+            this.onWritten = onWritten;
+        }
+
+        /**
+         * Only the notices which describe the latest state of a single file can be replaced,
+         * a QUERYDELETE asks for a vote and is never dropped
+         */
+        boolean isCoalescable(){
+            MessageType type = message.getMessageType();
+            return pooled && 2 == message.argumentCount()
+                    && (MessageType.INVALID == type || MessageType.REMOVE == type || MessageType.RESTORE == type);
+        }
+
+        /**
+         * Returns the version of the file sent with the notice
+         *
+         * @return the version, 0 if the notice has none
+         */
+        long version(){
+            return message.argumentCount() > 1 ? message.getArgumentLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * What the server does when the outbound queue of a client is full,
+ * because the client reads slower than the server writes to it
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The slow client is disconnected
+     */
+    DISCONNECT,
+
+    /**
+     * A queued INVALID, REMOVE or RESTORE notice of the same file is replaced by the new notice,
+     * since the client only needs the latest state of a file. If there is no such notice
+     * the slow client is disconnected.
+     */
+    COALESCE
+}
@@ -0,0 +1,109 @@
+package server;
+
+import Connection_client_server.Message;
+import Connection_client_server.MessageSink;
+import Connection_client_server.MessageType;
+import Connection_client_server.OutgoingTransfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * Sends a pushed file to a subscribed client from the chunks of a {@link Replication}
+ * shared with the transfers to the other clients. The credit of the transfer is granted
+ * by the ACKs of its own client, so each client receives the file at its own pace.
+ */
+class ReplicaTransfer extends OutgoingTransfer {
+
+    private final Replication replication;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    // the chunk read by this transfer once it fell behind the cached chunks
+    private ByteBuffer ownChunk;
+
+    /**
+     * The constructor method
+     *
+     * @param id the transfer id of the connection
+     * @param notice the OPEN notice announcing this transfer to the client
+     * @param replication the replication of the file
+     * @param sink where the DATA frames are written to
+     */
+    ReplicaTransfer(int id, Message notice, Replication replication, MessageSink sink){
+        super(id, notice, replication.getFile(), sink);
+        this.replication = replication;
+    }
+
+    /**
+     * Returns the name of the replicated file
+     *
+     * @return the filename shared with the clients
+     */
+    String getFilename(){
+        return replication.getFilename();
+    }
+
+    /**
+     * Releases the reference of this transfer to the replication, only the first call has an effect
+     */
+    void release(){
+        if (released.compareAndSet(false, true)) replication.release();
+    }
+
+    /**
+     * Sends the chunks of the replication followed by the end of file frame.
+     * If the sink supports it each chunk is written as a single frame from the shared buffer,
+     * otherwise it is split into DATA messages of {@link #CHUNK_SIZE} bytes.
+     *
+     * @return true if the file is sent, false if the transfer is cancelled
+     * @throws IOException if the file can not be read or the connection is broken
+     * @throws InterruptedException if interrupted while waiting for credit
+     */
+    @Override
+    public boolean send() throws IOException, InterruptedException {
+        Message data = new Message(MessageType.DATA);
+        int chunks = replication.chunkCount();
+        for (int index = 0; index < chunks; index++){
+            if (isCancelled()) return false;
+            ByteBuffer chunk = replication.chunk(index);
+            if (null == chunk){
+                chunk = ownChunk = replication.read(index, ownChunk);
+            }
+            while (chunk.hasRemaining()){
+                boolean direct = sink.canWriteData();
+                int len = direct ? chunk.remaining() : Math.min(CHUNK_SIZE, chunk.remaining());
+                acquireCredit(len);
+                if (isCancelled()) return false;
+                if (direct){
+                    sink.writeData(getId(), chunk);
+                    addTransferredBytes(len);
+                }
+                else {
+                    sink.write(data.reset(MessageType.DATA).addArgument(getId())
+                            .addArgument(chunk.array(), chunk.arrayOffset() + chunk.position(), len));
+                    chunk.position(chunk.position() + len);
+                    addTransferredBytes(len);
+                }
+            }
+        }
+        if (isCancelled()) return false;
+        sink.write(data.reset(MessageType.DATA).addArgument(getId()).addArgument(new byte[0], 0, 0));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onCancel() {
+        super.onCancel();
+        // the transfer may never be started if the client is gone
+        release();
+    }
+}
@@ -0,0 +1,187 @@
+package server;
+
+import Connection_client_server.FileTransfer;
+import Connection_client_server.Log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A pushed file being sent to several clients by their {@link ReplicaTransfer}s.
+ * The file is read once, chunk by chunk, by the transfer which first needs a chunk and the last
+ * {@link #CACHED_CHUNKS} chunks are kept for the other transfers, so a fast client never waits for
+ * a slow one. A transfer which falls behind the kept chunks reads its chunks from the file itself.
+ *
+ * The file is opened when the replication is created, so a newer push of the same file
+ * does not change the bytes sent. The file is closed once all the transfers are released.
+ */
+class Replication {
+
+    private static final Log LOG = Log.forClass(Replication.class);
+
+    static final int CHUNK_SIZE = FileTransfer.DIRECT_CHUNK_SIZE;
+    static final int CACHED_CHUNKS = 16;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final String filename;
+    private final File file;
+    private final long version;
+    private final FileChannel channel;
+    private final long size;
+
+    private final ByteBuffer[] cache = new ByteBuffer[CACHED_CHUNKS];
+    // the number of chunks read in order, the last CACHED_CHUNKS of them are cached
+    private int loaded = 0;
+    private int fileReads = 0;
+    private int references = 1;
+
+    /**
+     * Opens the file to replicate, the caller holds the first reference
+     *
+     * @param filename the name of the file shared with the clients
+     * @param file the file of the server
+     * @param version the version of the file published by the push
+     * @throws IOException if the file can not be opened
+     */
+    Replication(String filename, File file, long version) throws IOException {
+        this.filename = filename;
+        this.file = file;
+        this.version = version;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    /**
+     * Returns the name of the replicated file
+     *
+     * @return the filename shared with the clients
+     */
+    String getFilename(){
+        return filename;
+    }
+
+    /**
+     * Returns the version of the replicated file
+     *
+     * @return the version published by the push
+     */
+    long getVersion(){
+        return version;
+    }
+
+    /**
+     * Returns the replicated file
+     *
+     * @return the file of the server
+     */
+    File getFile(){
+        return file;
+    }
+
+    /**
+     * Returns the number of chunks of the file
+     *
+     * @return the number of chunks
+     */
+    int chunkCount(){
+        return (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the chunk, reading it from the file if no transfer did yet
+     *
+     * @param index the index of the chunk, the chunks are asked in order by each transfer
+     * @return a view of the chunk, <code>null</code> if the chunk is not cached anymore
+     * @throws IOException if the file can not be read
+     */
+    ByteBuffer chunk(int index) throws IOException {
+        lock.lock();
+        try {
+            if (0 == references) throw new IOException("replication of "+filename+" is closed");
+            if (index == loaded){
+                cache[index % CACHED_CHUNKS] = read(index, null);
+                loaded++;
+            }
+            if (index < loaded - CACHED_CHUNKS || index >= loaded) return null;
+            return cache[index % CACHED_CHUNKS].duplicate();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the chunk from the file into the buffer, used by a transfer fallen behind the cached chunks
+     *
+     * @param index the index of the chunk
+     * @param buffer the buffer to reuse, may be <code>null</code>
+     * @return the buffer holding the chunk
+     * @throws IOException if the file can not be read
+     */
+    ByteBuffer read(int index, ByteBuffer buffer) throws IOException {
+        if (null == buffer) buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long position = (long) index * CHUNK_SIZE;
+        buffer.clear().limit((int) Math.min(CHUNK_SIZE, size - position));
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer, position + buffer.position()) < 0){
+                throw new EOFException("file truncated while replicating "+filename);
+            }
+        }
+        lock.lock();
+        try {
+            fileReads++;
+        }
+        finally {
+            lock.unlock();
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Adds a reference held by a transfer
+     *
+     * @return true if the replication is still open, false otherwise
+     */
+    boolean retain(){
+        lock.lock();
+        try {
+            if (0 == references) return false;
+            references++;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a reference, the file is closed when the last one is released
+     */
+    void release(){
+        lock.lock();
+        try {
+            if (0 == references || 0 != --references) return;
+            for (int i = 0; i < CACHED_CHUNKS; i++) cache[i] = null;
+            if (LOG.isDebugEnabled()) LOG.debug("replication of \""+filename+"\" complete, "+fileReads+" chunk reads for "+chunkCount()+" chunks");
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e){}
+    }
+}
@@ -0,0 +1,23 @@
+package server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * How the server tells the other clients that a file was pushed
+ */
+public enum ReplicationMode {
+
+    /**
+     * An INVALID notice is sent to each client, which then pulls the file on its own
+     */
+    INVALIDATE,
+
+    /**
+     * The file is read once and sent to all the subscribed clients at the same time,
+     * each client at its own pace. The clients which are not subscribed get the INVALID notice.
+     */
+    FAN_OUT
+}
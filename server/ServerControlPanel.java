@@ -2,10 +2,13 @@
 
 package server;
 
+import Connection_client_server.Log;
 import Connection_client_server.Message;
 import Connection_client_server.MessageType;
 import Connection_client_server.Util;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
@@ -17,7 +20,14 @@ import javafx.scene.text.Font;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.ResourceBundle;
 
 /**
@@ -26,10 +36,19 @@ import java.util.ResourceBundle;
  */
 
 /**
- * The controller class for the server control panel
+ * The controller class for the server control panel.
+ * The server threads publish their log messages to a {@link LogPipeline} and the panel shows them
+ * in batches, once per frame, keeping only the last {@link #MAX_LOG_ENTRIES} messages; the older
+ * ones are read back from the log file a page at a time.
  */
 public class ServerControlPanel implements Initializable, DFSServerCallback {
 
+    public static final int MAX_LOG_ENTRIES = 1000;
+    public static final int LOG_PAGE_SIZE = 200;
+    public static final int LOG_RING_SIZE = 4096;
+    // the log list is updated at most 10 times per second
+    private static final long LOG_FRAME_NANOS = 100_000_000L;
+
     @FXML
     private Button btnStopOrStartServer;
     @FXML
@@ -38,8 +57,17 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
     private ListView<String> clientList;
     @FXML
     private ListView<LogMessage> logList;
+    @FXML
+    private TextField logFilter;
 
     private DFSServer server;
+    private final LogPipeline logPipeline = new LogPipeline(LOG_RING_SIZE);
+    // the last messages, matching the filter or not, used by the JavaFX thread only
+    private final ArrayDeque<LogMessage> recentLogs = new ArrayDeque<>(MAX_LOG_ENTRIES);
+    private String filter = "";
+    private boolean loadingOlderLogs = false;
+    private boolean panelLogFile = false;
+    private AnimationTimer logFlusher;
 
     public ServerControlPanel(){
         server = new DFSServer(this);
@@ -64,6 +92,17 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
             System.exit(0);
         });
         logList.setCellFactory((ListView<LogMessage> param) -> new LogItemCell());
+        logFlusher = new AnimationTimer() {
+            private long lastFrame = 0;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastFrame < LOG_FRAME_NANOS) return;
+                lastFrame = now;
+                flushLogs();
+            }
+        };
+        logFlusher.start();
     }
 
     /**
@@ -74,14 +113,12 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
      */
     @Override
     public void onServerConnectedOrDisconnected(String server, boolean isConnected) {
-        Platform.runLater(() -> {
-            if (isConnected){
-                printLog(LogType.INFO, server+" connected");
-            }
-            else {
-                printLog(LogType.INFO, server+" disconnected");
-            }
-        });
+        if (isConnected){
+            printLog(LogType.INFO, server+" connected");
+        }
+        else {
+            printLog(LogType.INFO, server+" disconnected");
+        }
     }
 
     /**
@@ -102,15 +139,14 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
      */
     @Override
     public void onClientConnectedOrDisconnected(ClientHandler client, boolean isConnected) {
+        String clientid = client.toString();
+        printLog(LogType.INFO, clientid+(isConnected ? " connected" : " disconnected"));
         Platform.runLater(() -> {
-            String clientid = client.toString();
             if (isConnected){
                 clientList.getItems().add(clientid);
-                printLog(LogType.INFO, clientid+" connected");
             }
             else {
                 clientList.getItems().remove(clientid);
-                printLog(LogType.INFO, clientid+" disconnected");
             }
         });
     }
@@ -124,39 +160,37 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
      */
     @Override
     public void onBeforeHandleRequest(ClientHandler client, Message request, boolean allowed) {
-        Platform.runLater(() -> {
-            MessageType type = request.getMessageType();
-            String  clientid = client.toString();
-            if (null != type)switch (type) {
-                case PULL:{
-                    String filename = request.getArgumentString(0);
-                    printLog(allowed ? LogType.INFO : LogType.ERROR, "a pull request for \""+filename
-                            +"\" from "+clientid+" is "+(allowed ? "in progress" : "aborted"));
-                        break;
-                    }
-                case PUSH:{
-                    String filename = request.getArgumentString(0);
-                    printLog(allowed ? LogType.INFO : LogType.ERROR, "a push request for \""+filename
-                            +"\" from "+clientid+" is "+(allowed ? "in progress" : "aborted"));
-                        break;
-                    }
-                case DELETE:{
-                    String filename = request.getArgumentString(0);
-                    printLog(allowed ? LogType.INFO : LogType.ERROR, "a delete request for \""+filename
-                            +"\" from "+clientid+" is "+(allowed ? "in progress" : "canceled"));
-                        break;
-                    }
-                case VOTE:{
-                    String decision = request.getArgumentString(0);
-                    String filename= request.getArgumentString(1);
-                    printLog(allowed ? LogType.INFO : LogType.ERROR, "a vote for \""+filename
-                            +"\" from "+clientid+" is "+decision+" and vote "+(allowed ? "received" : "declined"));
-                        break;
-                    }
-                default:
+        MessageType type = request.getMessageType();
+        String  clientid = client.toString();
+        if (null != type)switch (type) {
+            case PULL:{
+                String filename = request.getArgumentString(0);
+                printLog(allowed ? LogType.INFO : LogType.ERROR, "a pull request for \""+filename
+                        +"\" from "+clientid+" is "+(allowed ? "in progress" : "aborted"));
                     break;
-            }
-        });
+                }
+            case PUSH:{
+                String filename = request.getArgumentString(0);
+                printLog(allowed ? LogType.INFO : LogType.ERROR, "a push request for \""+filename
+                        +"\" from "+clientid+" is "+(allowed ? "in progress" : "aborted"));
+                    break;
+                }
+            case DELETE:{
+                String filename = request.getArgumentString(0);
+                printLog(allowed ? LogType.INFO : LogType.ERROR, "a delete request for \""+filename
+                        +"\" from "+clientid+" is "+(allowed ? "in progress" : "canceled"));
+                    break;
+                }
+            case VOTE:{
+                String decision = request.getArgumentString(0);
+                String filename= request.getArgumentString(1);
+                printLog(allowed ? LogType.INFO : LogType.ERROR, "a vote for \""+filename
+                        +"\" from "+clientid+" is "+decision+" and vote "+(allowed ? "received" : "declined"));
+                    break;
+                }
+            default:
+                break;
+        }
     }
 
     /**
@@ -168,18 +202,16 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
      */
     @Override
     public void onAfterHandleRequest(ClientHandler client, Message request, boolean handled) {
-        Platform.runLater(() -> {
-            MessageType type = request.getMessageType();
-            String  clientid = client.toString();
-            if (MessageType.PULL == type){
-                String filename = request.getArgumentString(0);
-                printLog(handled ? LogType.INFO : LogType.ERROR, "a pull request for \""+filename+"\" by "+clientid+" is "+(handled ? "successful" : "failed"));
-            }
-            else if (MessageType.PUSH == type){
-                String filename = request.getArgumentString(0);
-                printLog(handled ? LogType.INFO : LogType.ERROR, "a push request for \""+filename+"\" by "+clientid+" is "+(handled ? "successful" : "fail"));
-            }
-        });
+        MessageType type = request.getMessageType();
+        String  clientid = client.toString();
+        if (MessageType.PULL == type){
+            String filename = request.getArgumentString(0);
+            printLog(handled ? LogType.INFO : LogType.ERROR, "a pull request for \""+filename+"\" by "+clientid+" is "+(handled ? "successful" : "failed"));
+        }
+        else if (MessageType.PUSH == type){
+            String filename = request.getArgumentString(0);
+            printLog(handled ? LogType.INFO : LogType.ERROR, "a push request for \""+filename+"\" by "+clientid+" is "+(handled ? "successful" : "fail"));
+        }
     }
 
     /**
@@ -218,6 +250,7 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
      * Starts the server and if it starts successfully the change the start/stop button text to "Stop"
      */
     private void startServer(){
+        useServerLogFile();
         server.start();
         if (server.isRunning()){
             btnStopOrStartServer.setText("Stop");
@@ -225,12 +258,117 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
     }
 
     /**
+     * Publishes a log message, it is shown with the next frame. Called from any thread
      *
-     * @param type
-     * @param message
+     * @param type the type of the message
+     * @param message the message
      */
     private void printLog(LogType type, String message){
-        logList.getItems().add(new LogMessage(type, Util.isNotEmptyString(message) ? message : ""));
+        logPipeline.publish(type, Util.isNotEmptyString(message) ? message : "");
+    }
+
+    /**
+     * Writes the log to the log file of the shared directory, unless another log file is set
+     */
+    private void useServerLogFile(){
+        if (null != Log.getFile() && !panelLogFile) return;
+        if (!ServerSettings.canUseServerDirectory()) return;
+        try {
+            Log.setFile(ServerSettings.getServerLogFile(), Log.MAX_FILE_SIZE, Log.ROTATED_FILES);
+            panelLogFile = true;
+        }
+        catch (IOException e){
+            printLog(LogType.ERROR, "log file not opened : "+e.getMessage());
+        }
+    }
+
+    /**
+     * Shows the messages published since the last frame, keeping the last {@link #MAX_LOG_ENTRIES}.
+     * Called by the log timer on the JavaFX thread
+     */
+    private void flushLogs(){
+        List<LogMessage> batch = new ArrayList<>();
+        logPipeline.drain(LOG_RING_SIZE, batch::add);
+        long dropped = logPipeline.takeDropped();
+        if (dropped > 0){
+            batch.add(new LogMessage(LogType.ERROR, dropped+" log messages not shown, they are in the log file"));
+        }
+        if (batch.isEmpty()) return;
+        for (LogMessage message : batch){
+            if (recentLogs.size() == MAX_LOG_ENTRIES) recentLogs.removeFirst();
+            recentLogs.addLast(message);
+        }
+        List<LogMessage> shown = matching(batch);
+        if (shown.isEmpty()) return;
+        ObservableList<LogMessage> items = logList.getItems();
+        items.addAll(shown);
+        if (items.size() > MAX_LOG_ENTRIES) items.remove(0, items.size() - MAX_LOG_ENTRIES);
+    }
+
+    /**
+     * The search field action event handler which shows only the kept messages containing its text
+     */
+    @FXML
+    private void filterLogs(){
+        String text = logFilter.getText();
+        filter = null == text ? "" : text.trim().toLowerCase(Locale.ROOT);
+        logList.getItems().setAll(matching(recentLogs));
+    }
+
+    /**
+     * The older button click action event handler which reads a page of the older messages
+     * matching the search from the log file, on a background thread
+     */
+    @FXML
+    private void loadOlderLogs(){
+        File file = Log.getFile();
+        if (null == file){
+            printLog(LogType.ERROR, "no log file to read the older messages from");
+            return;
+        }
+        if (loadingOlderLogs) return;
+        loadingOlderLogs = true;
+        long beforeId = oldestLogId();
+        String query = filter;
+        Thread reader = new Thread(() -> {
+            List<LogMessage> page;
+            try {
+                page = new LogHistory(file).page(beforeId, query, LOG_PAGE_SIZE);
+            }
+            catch (IOException e){
+                page = Collections.singletonList(new LogMessage(LogType.ERROR, "log file not read : "+e.getMessage()));
+            }
+            List<LogMessage> older = page;
+            Platform.runLater(() -> {
+                loadingOlderLogs = false;
+                if (query.equals(filter)) logList.getItems().addAll(0, older);
+            });
+        }, "log-history");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns the id of the oldest message shown, or kept if none is shown,
+     * the older messages are read from the log file
+     */
+    private long oldestLogId(){
+        for (LogMessage message : logList.getItems()){
+            if (message.getId() > 0) return message.getId();
+        }
+        for (LogMessage message : recentLogs){
+            if (message.getId() > 0) return message.getId();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private List<LogMessage> matching(Collection<LogMessage> messages){
+        if (filter.isEmpty()) return new ArrayList<>(messages);
+        List<LogMessage> matching = new ArrayList<>();
+        for (LogMessage message : messages){
+            if (message.getMessage().toLowerCase(Locale.ROOT).contains(filter)) matching.add(message);
+        }
+        return matching;
     }
 
     /**
@@ -250,6 +388,7 @@ public class ServerControlPanel implements Initializable, DFSServerCallback {
     @FXML
     private void exit(){
         stopServer();
+        if (null != logFlusher) logFlusher.stop();
         ServerApplication.getApplication().getPrimaryStage().close();
         Platform.exit();
     }
@@ -0,0 +1,23 @@
+package server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * An enum represents how the server runs the client connections.
+ *
+ * THREAD_PER_CLIENT => each client is handled by its own thread from a cached pool,
+ *                      blocked in reading the next request for the life of the connection
+ * VIRTUAL_THREADS => same as THREAD_PER_CLIENT but each client runs on a virtual thread,
+ *                    requires a JDK with virtual threads, otherwise THREAD_PER_CLIENT is used
+ * EVENT_LOOP => all the connections are multiplexed over a small fixed set of I/O threads
+ *               using a {@link java.nio.channels.Selector Selector}, a request is handed
+ *               to a worker thread only while it is being handled
+ */
+public enum ServerEngine {
+    THREAD_PER_CLIENT,
+    VIRTUAL_THREADS,
+    EVENT_LOOP;
+}
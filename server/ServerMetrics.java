@@ -0,0 +1,158 @@
+package server;
+
+import Connection_client_server.FileTransfer;
+import Connection_client_server.MessageType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The metrics of a running server, kept in a {@link MetricsRegistry}:
+ *
+ * dfs_request_duration_seconds{type}         from a request until its final response, CLOSE or
+ *                                            ABORT for PUSH and PULL
+ * dfs_requests_failed_total{type}            the requests not allowed or failed
+ * dfs_transfer_bytes_total{kind}             the file bytes moved by the transfers
+ * dfs_transfer_duration_seconds{kind}        the duration of the complete transfers, the throughput
+ *                                            is the rate of the bytes over the rate of the sum
+ * dfs_transfers_failed_total{kind}           the transfers failed or cancelled
+ * dfs_delete_phase_duration_seconds{phase}   the 2PC phases of the deletes: vote from the request until
+ *                                            all the votes, log the wait for the decision on the disk,
+ *                                            notify sending REMOVE or RESTORE and deleting the files
+ * dfs_deletes_total{outcome}                 the deletes committed and aborted
+ * dfs_delete_timeouts_total                  the deletes aborted by their deadline
+ *
+ * The gauges of the clients and the queues are registered by the server thread, which owns them.
+ * Recording only adds to a {@link LongAdder} or a {@link LatencyHistogram}, so it never blocks.
+ */
+public class ServerMetrics {
+
+    // the messages sent by the clients as requests
+    private static final MessageType[] REQUEST_TYPES = {MessageType.LOGIN, MessageType.PUSH, MessageType.PULL,
+            MessageType.DELETE, MessageType.VOTE, MessageType.SUBSCRIBE, MessageType.END};
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    // indexed by the ordinal of the message type, null for a type which is not a request
+    private final LatencyHistogram[] requestLatency = new LatencyHistogram[MessageType.values().length];
+    private final LongAdder[] failedRequests = new LongAdder[MessageType.values().length];
+
+    private final LongAdder[] transferBytes = new LongAdder[TransferKind.values().length];
+    private final LatencyHistogram[] transferDuration = new LatencyHistogram[TransferKind.values().length];
+    private final LongAdder[] failedTransfers = new LongAdder[TransferKind.values().length];
+
+    private final LatencyHistogram deleteVoting;
+    private final LatencyHistogram deleteLogging;
+    private final LatencyHistogram deleteNotifying;
+    private final LongAdder deletesCommitted;
+    private final LongAdder deletesAborted;
+    private final LongAdder deleteTimeouts;
+
+    /**
+     * Registers all the metrics of the server
+     */
+    public ServerMetrics(){
+        for (MessageType type : REQUEST_TYPES){
+            requestLatency[type.ordinal()] = registry.histogram("dfs_request_duration_seconds",
+                    "Time from a request until its final response", "type", type.name());
+        }
+        for (MessageType type : REQUEST_TYPES){
+            failedRequests[type.ordinal()] = registry.counter("dfs_requests_failed_total",
+                    "Requests not allowed or failed", "type", type.name());
+        }
+        for (TransferKind kind : TransferKind.values()){
+            transferBytes[kind.ordinal()] = registry.counter("dfs_transfer_bytes_total",
+                    "File bytes sent or received by the transfers", "kind", kind.name());
+        }
+        for (TransferKind kind : TransferKind.values()){
+            transferDuration[kind.ordinal()] = registry.histogram("dfs_transfer_duration_seconds",
+                    "Duration of the complete transfers", "kind", kind.name());
+        }
+        for (TransferKind kind : TransferKind.values()){
+            failedTransfers[kind.ordinal()] = registry.counter("dfs_transfers_failed_total",
+                    "Transfers failed or cancelled", "kind", kind.name());
+        }
+        String phases = "Duration of the phases of the deletes";
+        deleteVoting = registry.histogram("dfs_delete_phase_duration_seconds", phases, "phase", "vote");
+        deleteLogging = registry.histogram("dfs_delete_phase_duration_seconds", phases, "phase", "log");
+        deleteNotifying = registry.histogram("dfs_delete_phase_duration_seconds", phases, "phase", "notify");
+        deletesCommitted = registry.counter("dfs_deletes_total", "Completed deletes", "outcome", "commit");
+        deletesAborted = registry.counter("dfs_deletes_total", "Completed deletes", "outcome", "abort");
+        deleteTimeouts = registry.counter("dfs_delete_timeouts_total", "Deletes aborted by their deadline");
+    }
+
+    /**
+     * Returns the registry of these metrics, to register more metrics or to export them
+     *
+     * @return the registry
+     */
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns the time from the start of the deletes until all their votes were received
+     * or they were aborted
+     *
+     * @return the latencies of the vote phase
+     */
+    public LatencyHistogram getDeleteVotingLatency() {
+        return deleteVoting;
+    }
+
+    /**
+     * Records a handled request
+     *
+     * @param type the type of the request
+     * @param nanos the time from the request until its final response
+     * @param handled true if the request is handled, false if it is not allowed or failed
+     */
+    void recordRequest(MessageType type, long nanos, boolean handled){
+        if (null == type || null == requestLatency[type.ordinal()]) return;
+        requestLatency[type.ordinal()].record(nanos);
+        if (!handled) failedRequests[type.ordinal()].increment();
+    }
+
+    /**
+     * Records an ended transfer
+     *
+     * @param kind the kind of the transfer
+     * @param transfer the ended transfer
+     * @param complete true if the whole file is transferred, false otherwise
+     */
+    void recordTransfer(TransferKind kind, FileTransfer transfer, boolean complete){
+        transferBytes[kind.ordinal()].add(transfer.getTransferredBytes());
+        if (complete){
+            transferDuration[kind.ordinal()].record(transfer.getElapsedNanos());
+        }
+        else {
+            failedTransfers[kind.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Records the phases of a completed delete
+     *
+     * @param votingNanos the time from the delete request until all the votes
+     * @param loggingNanos the time to log the decision
+     * @param notifyingNanos the time to send the notices and delete the files
+     * @param removed true if the files are removed, false if they are restored
+     */
+    void recordDelete(long votingNanos, long loggingNanos, long notifyingNanos, boolean removed){
+        deleteVoting.record(votingNanos);
+        deleteLogging.record(loggingNanos);
+        deleteNotifying.record(notifyingNanos);
+        (removed ? deletesCommitted : deletesAborted).increment();
+    }
+
+    /**
+     * Records a delete aborted by its deadline
+     */
+    void recordDeleteTimeout(){
+        deleteTimeouts.increment();
+    }
+}
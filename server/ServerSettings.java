@@ -17,11 +17,32 @@ public class ServerSettings {
 
     public static final String COMMAND_IP = "127.0.0.1";
     public static final int COMMAND_PORT = 8910;
-    public static final String DATA_IP = COMMAND_IP;
     public static final int MAX_CLIENT = 3;
+    public static final int ACCEPT_BACKLOG = 1024;
+    public static final String STAGING_DIRECTORY = ".staging";
+    public static final String TRANSACTION_LOG = ".transactions.log";
+    public static final String SERVER_LOG = ".server.log";
+    // the files of the server itself inside the shared directory, never shared with the clients
+    private static final String[] RESERVED_NAMES = {STAGING_DIRECTORY, TRANSACTION_LOG, SERVER_LOG};
+    public static final int OUTBOUND_QUEUE_SIZE = 1024;
+    public static final long VOTE_TIMEOUT = 30_000;
+    public static final String METRICS_IP = "127.0.0.1";
+    public static final int METRICS_PORT = 9464;
+    public static final int IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
 
+    private static String mCommandIP = COMMAND_IP;
+    private static int mCommandPort = COMMAND_PORT;
+    private static String mMetricsIP = METRICS_IP;
+    private static int mMetricsPort = METRICS_PORT;
     private static int mConnectedClient = 0;
+    private static int mMaxClient = MAX_CLIENT;
     private static File mServerDirectory = null;
+    private static ServerEngine mServerEngine = ServerEngine.THREAD_PER_CLIENT;
+    private static int mOutboundQueueSize = OUTBOUND_QUEUE_SIZE;
+    private static OverflowPolicy mOverflowPolicy = OverflowPolicy.COALESCE;
+    private static ReplicationMode mReplicationMode = ReplicationMode.FAN_OUT;
+    private static boolean mNoticeCoalescing = true;
+    private static long mVoteTimeout = VOTE_TIMEOUT;
 
     /**
      * Set the number of connected clients
@@ -41,22 +62,153 @@ public class ServerSettings {
         mServerDirectory = newServerDirectory;
     }
 
+    /**
+     * Set how the server runs the client connections.
+     * The new engine is used the next time the server is started.
+     *
+     * @param serverEngine the engine to use
+     */
+    public static void setServerEngine(ServerEngine serverEngine){
+        mServerEngine = null == serverEngine ? ServerEngine.THREAD_PER_CLIENT : serverEngine;
+    }
+
+    /**
+     * Set the max number of messages queued for a single client
+     *
+     * @param outboundQueueSize the capacity of the outbound queue of each client
+     */
+    public static void setOutboundQueueSize(int outboundQueueSize){
+        mOutboundQueueSize = outboundQueueSize > 0 ? outboundQueueSize : OUTBOUND_QUEUE_SIZE;
+    }
+
+    /**
+     * The max number of messages queued for a single client
+     *
+     * @return the capacity of the outbound queue of each client
+     */
+    public static int getOutboundQueueSize(){
+        return mOutboundQueueSize;
+    }
+
+    /**
+     * Set what happens when the outbound queue of a client is full
+     *
+     * @param overflowPolicy the policy to use
+     */
+    public static void setOverflowPolicy(OverflowPolicy overflowPolicy){
+        mOverflowPolicy = null == overflowPolicy ? OverflowPolicy.COALESCE : overflowPolicy;
+    }
+
+    /**
+     * What happens when the outbound queue of a client is full
+     *
+     * @return the overflow policy
+     */
+    public static OverflowPolicy getOverflowPolicy(){
+        return mOverflowPolicy;
+    }
+
+    /**
+     * Set weather a queued INVALID, REMOVE or RESTORE notice is replaced by a newer notice of
+     * the same file, so only the latest state of a file is written to a client.
+     * Without it the notices are only coalesced when the queue is full.
+     *
+     * @param noticeCoalescing true to coalesce the queued notices, false otherwise
+     */
+    public static void setNoticeCoalescing(boolean noticeCoalescing){
+        mNoticeCoalescing = noticeCoalescing;
+    }
+
+    /**
+     * Weather a queued notice is replaced by a newer notice of the same file
+     *
+     * @return true if the queued notices are coalesced, false otherwise
+     */
+    public static boolean isNoticeCoalescing(){
+        return mNoticeCoalescing;
+    }
+
+    /**
+     * Set how long a delete waits for the votes, a delete not complete in time is aborted
+     * and the file is restored
+     *
+     * @param voteTimeout the timeout in milliseconds
+     */
+    public static void setVoteTimeout(long voteTimeout){
+        mVoteTimeout = voteTimeout > 0 ? voteTimeout : VOTE_TIMEOUT;
+    }
+
+    /**
+     * How long a delete waits for the votes
+     *
+     * @return the timeout in milliseconds
+     */
+    public static long getVoteTimeout(){
+        return mVoteTimeout;
+    }
+
+    /**
+     * Set how a pushed file reaches the other clients
+     *
+     * @param replicationMode the replication mode to use
+     */
+    public static void setReplicationMode(ReplicationMode replicationMode){
+        mReplicationMode = null == replicationMode ? ReplicationMode.FAN_OUT : replicationMode;
+    }
+
+    /**
+     * How a pushed file reaches the other clients
+     *
+     * @return the replication mode
+     */
+    public static ReplicationMode getReplicationMode(){
+        return mReplicationMode;
+    }
+
+    /**
+     * How the server runs the client connections
+     *
+     * @return the engine used by the server
+     */
+    public static ServerEngine getServerEngine(){
+        return mServerEngine;
+    }
+
+    /**
+     * The max number of connections waiting to be accepted by the command server
+     *
+     * @return the accept backlog of the command server
+     */
+    public static int getAcceptBacklog(){
+        return ACCEPT_BACKLOG;
+    }
+
+    /**
+     * The number of I/O threads used by the event loop engine
+     *
+     * @return the number of I/O threads
+     */
+    public static int getIOThreads(){
+        return IO_THREADS;
+    }
+
     /**
      * The ip address of the server where all the requests are sent
      *
      * @return the server ip to send request
      */
     public static String getCommandIP(){
-        return COMMAND_IP;
+        return mCommandIP;
     }
 
     /**
-     * The ip address of the server where actual file data are sent
+     * Set the ip address the server listens on, 0.0.0.0 for all the interfaces.
+     * The new address is used the next time the server is started.
      *
-     * @return the server ip to send actual file data
+     * @param commandIP the ip address, <code>null</code> for the default address
      */
-    public static String getDataIP(){
-        return DATA_IP;
+    public static void setCommandIP(String commandIP){
+        mCommandIP = Util.isNotEmptyString(commandIP) ? commandIP : COMMAND_IP;
     }
 
     /**
@@ -65,7 +217,56 @@ public class ServerSettings {
      * @return the port for sending commands to server
      */
     public static int getCommandPort(){
-        return COMMAND_PORT;
+        return mCommandPort;
+    }
+
+    /**
+     * Set the port the server listens on.
+     * The new port is used the next time the server is started.
+     *
+     * @param commandPort the port, the default port if it is not between 1 and 65535
+     */
+    public static void setCommandPort(int commandPort){
+        mCommandPort = commandPort > 0 && commandPort <= 65535 ? commandPort : COMMAND_PORT;
+    }
+
+    /**
+     * The ip address the metrics are served on
+     *
+     * @return the ip address of the metrics endpoint
+     */
+    public static String getMetricsIP(){
+        return mMetricsIP;
+    }
+
+    /**
+     * Set the ip address the metrics are served on, the loopback address by default
+     * so the metrics are only read from the same machine.
+     * The new address is used the next time the server is started.
+     *
+     * @param metricsIP the ip address, <code>null</code> for the default address
+     */
+    public static void setMetricsIP(String metricsIP){
+        mMetricsIP = Util.isNotEmptyString(metricsIP) ? metricsIP : METRICS_IP;
+    }
+
+    /**
+     * The port of the HTTP endpoint serving the metrics at /metrics
+     *
+     * @return the port, 0 if the metrics are not served
+     */
+    public static int getMetricsPort(){
+        return mMetricsPort;
+    }
+
+    /**
+     * Set the port the metrics are served on.
+     * The new port is used the next time the server is started.
+     *
+     * @param metricsPort the port, 0 to not serve the metrics, the default port if it is not between 0 and 65535
+     */
+    public static void setMetricsPort(int metricsPort){
+        mMetricsPort = metricsPort >= 0 && metricsPort <= 65535 ? metricsPort : METRICS_PORT;
     }
 
     /**
@@ -74,7 +275,16 @@ public class ServerSettings {
      * @return max number of clients allowed to connect
      */
     public static int getMaxClient(){
-        return MAX_CLIENT;
+        return mMaxClient;
+    }
+
+    /**
+     * Set the max number of clients logged in at the same time
+     *
+     * @param maxClient the max number of clients
+     */
+    public static void setMaxClient(int maxClient){
+        mMaxClient = maxClient > 0 ? maxClient : MAX_CLIENT;
     }
 
     /**
@@ -95,6 +305,56 @@ public class ServerSettings {
         return mServerDirectory;
     }
 
+    /**
+     * The directory inside the shared directory where the uploads are written
+     * until they are complete, so they can be moved atomically over the shared files
+     *
+     * @return the staging directory for the uploads
+     */
+    public static File getStagingDirectory(){
+        return new File(mServerDirectory, STAGING_DIRECTORY);
+    }
+
+    /**
+     * The file inside the shared directory where the deletes are logged,
+     * so the deletes interrupted by a crash are completed when the server starts
+     *
+     * @return the transaction log file
+     */
+    public static File getTransactionLogFile(){
+        return new File(mServerDirectory, TRANSACTION_LOG);
+    }
+
+    /**
+     * The file inside the shared directory where the control panel writes the log,
+     * so the messages no longer shown in the panel can be read back
+     *
+     * @return the server log file
+     */
+    public static File getServerLogFile(){
+        return new File(mServerDirectory, SERVER_LOG);
+    }
+
+    /**
+     * Weather a filename sent by a client names a shared file. The files of the server itself,
+     * the staging directory, the transaction log and the server log with its rotated files,
+     * are reserved, ignoring the case, and a name must not leave the shared directory.
+     *
+     * @param filename the filename of the request
+     * @return true if the file can be pushed, pulled or deleted by a client, false otherwise
+     */
+    public static boolean isSharedFilename(String filename){
+        if (!Util.isNotEmptyString(filename) || ".".equals(filename) || "..".equals(filename)) return false;
+        if (filename.indexOf('/') >= 0 || filename.indexOf('\\') >= 0 || filename.indexOf('\0') >= 0) return false;
+        for (String reserved : RESERVED_NAMES){
+            if (filename.regionMatches(true, 0, reserved, 0, reserved.length())
+                    && (filename.length() == reserved.length() || '.' == filename.charAt(reserved.length()))){
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Weather the selected shared directory can be used or not.
      * A directory is used only when it is not null and exists
@@ -0,0 +1,140 @@
+package server;
+
+import Connection_client_server.IncomingTransfer;
+import Connection_client_server.Message;
+import Connection_client_server.MessageStream;
+import Connection_client_server.Util;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A blocking connection over a {@link java.net.Socket Socket}.
+ * The thread running the {@link server.ClientHandler ClientHandler} blocks in {@link #read()}.
+ */
+class StreamClientConnection implements ClientConnection {
+
+    private final Socket socket;
+    private final MessageStream stream;
+
+    /**
+     * The constructor method
+     *
+     * @param socket the socket bound to the client
+     * @throws IOException thrown by the socket
+     */
+    StreamClientConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        // a socket accepted from a channel sends and receives the file data without copying
+        this.stream = null != socket.getChannel()
+                ? new MessageStream(socket.getChannel())
+                : new MessageStream(socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * Reads the next request blocking until it is available
+     *
+     * @return the next request
+     * @throws IOException if the connection is closed or broken
+     */
+    Message read() throws IOException {
+        return stream.read();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(Message message) throws IOException {
+        stream.write(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(List<Message> messages) throws IOException {
+        stream.write(messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeAck(int transferId, int bytes) throws IOException {
+        stream.writeAck(transferId, bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canWriteData() {
+        return stream.canWriteData();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeData(int transferId, FileChannel file, long position, int length) throws IOException {
+        stream.writeData(transferId, file, position, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeData(int transferId, ByteBuffer payload) throws IOException {
+        stream.writeData(transferId, payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setIncomingTransfers(IntFunction<IncomingTransfer> transfers) {
+        stream.setIncomingTransfers(transfers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCodec(String name) {
+        stream.getCodec().setCodec(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress()+":"+socket.getPort();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        Util.closeSilently(stream, socket);
+    }
+}
@@ -0,0 +1,154 @@
+package server;
+
+import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * A hashed timer wheel running many timeouts with a single thread.
+ * The wheel has a fixed number of slots and advances one slot each tick, a timeout is put in
+ * the slot of its deadline with the number of full turns left, so scheduling and cancelling
+ * is constant time however many timeouts are pending. A timeout fires at most one tick late.
+ * The expired tasks run on the given executor, so a slow task never delays the wheel.
+ */
+class TimerWheel extends DaemonWorker {
+
+    private static final Log LOG = Log.forClass(TimerWheel.class);
+
+    private final long tickNanos;
+    private final List<Timeout>[] slots;
+    // scheduled by other threads, moved to the slots by the wheel thread
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final long startNanos = System.nanoTime();
+    private long tick = 0;
+
+    /**
+     * The constructor method
+     *
+     * @param name the name of the wheel thread
+     * @param tickMillis the duration of a tick in milliseconds
+     * @param slotCount the number of slots of the wheel
+     * @param executor the executor running the expired tasks
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(String name, long tickMillis, int slotCount, Executor executor){
+        super(name);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.slots = new List[Math.max(1, slotCount)];
+        for (int i = 0; i < slots.length; i++) slots[i] = new ArrayList<>();
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the task once the delay elapsed, unless the returned timeout is cancelled before
+     *
+     * @param task the task to run
+     * @param delayMillis the delay in milliseconds
+     * @return the timeout of the task
+     */
+    Timeout schedule(Runnable task, long delayMillis){
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        while (!isTerminated()){
+            long wait = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+            if (wait > 0){
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                catch (InterruptedException e){
+                    break;
+                }
+            }
+            tick++;
+            schedulePending();
+            expire(slots[(int) (tick % slots.length)]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTerminate() throws Throwable {
+        pending.clear();
+    }
+
+    /**
+     * Puts the new timeouts into the slots of their deadlines
+     */
+    private void schedulePending(){
+        Timeout timeout;
+        while (null != (timeout = pending.poll())){
+            if (timeout.cancelled) continue;
+            // a deadline already passed fires with the current tick
+            long deadlineTick = Math.max(tick, (timeout.deadlineNanos + tickNanos - 1) / tickNanos);
+            timeout.rounds = (deadlineTick - tick) / slots.length;
+            slots[(int) (deadlineTick % slots.length)].add(timeout);
+        }
+    }
+
+    /**
+     * Runs the timeouts of a slot which have no turn left
+     *
+     * @param slot the slot of the current tick
+     */
+    private void expire(List<Timeout> slot){
+        for (Iterator<Timeout> it = slot.iterator(); it.hasNext();){
+            Timeout timeout = it.next();
+            if (timeout.cancelled){
+                it.remove();
+            }
+            else if (timeout.rounds-- <= 0){
+                it.remove();
+                try {
+                    executor.execute(timeout.task);
+                }
+                catch (RejectedExecutionException e){
+                    LOG.warn("timeout not run, the executor is shut down");
+                }
+            }
+        }
+    }
+
+    /**
+     * A scheduled task which can be cancelled
+     */
+    static class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile boolean cancelled = false;
+        // the full turns of the wheel left, used only by the wheel thread
+        private long rounds;
+
+        Timeout(Runnable task, long deadlineNanos){
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancels the task, nothing happens if it already ran
+         */
+        void cancel(){
+            cancelled = true;
+        }
+    }
+}
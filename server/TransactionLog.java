@@ -0,0 +1,521 @@
+package server;
+
+import Connection_client_server.DaemonWorker;
+import Connection_client_server.Log;
+import Connection_client_server.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * An append only log of the deletes, so a delete interrupted by a crash is finished or
+ * aborted when the server starts again. The start of a delete with its files and voters,
+ * each vote, the decision and the end of a delete are logged as records with a CRC32,
+ * a record torn by a crash fails its check and the log is cut there.
+ *
+ * The records are written by a single thread. It writes all the records appended since its
+ * last write at once and forces them to the disk with one fsync, so the deletes completed
+ * together share an fsync. Only a commit waits for its record to be on the disk, an abort
+ * is presumed when its record is lost. The log is emptied when no delete is in progress
+ * and it grew above {@link #COMPACT_SIZE}.
+ */
+class TransactionLog extends DaemonWorker {
+
+    private static final Log LOG = Log.forClass(TransactionLog.class);
+
+    // the log is emptied when it is larger and no delete is in progress
+    static final long COMPACT_SIZE = 1024 * 1024;
+
+    private static final byte BEGIN = 1;
+    private static final byte VOTE = 2;
+    private static final byte COMMIT = 3;
+    private static final byte ABORT = 4;
+    private static final byte END = 5;
+
+    // the length and the CRC32 of the body before each record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition written = lock.newCondition();
+
+    // the records waiting for the writer thread and their sequence numbers
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedSequence = 0;
+    private long writtenSequence = 0;
+    private int openTransactions = 0;
+    private IOException failure;
+    private boolean closed = false;
+    // set by the writer thread once it wrote its last records
+    private boolean stopped = false;
+
+    // the transactions found without an end when the log was opened
+    private final List<Transaction> unfinished;
+    // the highest transaction id found in the log, the new transactions get higher ids
+    private long lastTransactionId = 0;
+
+    /**
+     * Opens the log and reads the transactions not finished when the server stopped.
+     * The log is cut after its last valid record.
+     *
+     * @param file the log file, created if it does not exist
+     * @throws IOException if the log can not be read or written
+     */
+    TransactionLog(File file) throws IOException {
+        super("dfs-transaction-log");
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.unfinished = replay();
+            // the unfinished transactions are ended by the recovery, so they count as open until then
+            this.openTransactions = unfinished.size();
+        }
+        catch (IOException e){
+            Util.closeSilently(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the transactions which were started but not ended when the server stopped
+     *
+     * @return the unfinished transactions in the order they started
+     */
+    List<Transaction> getUnfinished(){
+        return unfinished;
+    }
+
+    /**
+     * Returns the highest transaction id found when the log was opened
+     *
+     * @return the last transaction id, 0 if the log was empty
+     */
+    long getLastTransactionId(){
+        return lastTransactionId;
+    }
+
+    /**
+     * Logs the start of a delete, not waiting for the disk
+     *
+     * @param action the started delete
+     */
+    void begin(DeleteAction action){
+        List<String> voters = new ArrayList<>();
+        for (ClientHandler participant : action.getParticipants()) voters.add(participant.getUsername());
+        appendQuietly(begin(action.getTransactionId(), action.getFilenames(), voters,
+                action.getRequestedBy().getUsername()), 1);
+    }
+
+    /**
+     * Logs a vote, not waiting for the disk
+     *
+     * @param action the delete voted for
+     * @param voter the client who voted
+     * @param yes the vote
+     */
+    void vote(DeleteAction action, ClientHandler voter, boolean yes){
+        appendQuietly(record(VOTE, action.getTransactionId(), out -> {
+            out.writeUTF(voter.getUsername());
+            out.writeBoolean(yes);
+        }), 0);
+    }
+
+    /**
+     * Logs the commit of a transaction and waits until it is on the disk
+     *
+     * @param transactionId the id of the transaction
+     * @return true if the commit is durable, false if it can not be written and the transaction must abort
+     */
+    boolean commit(long transactionId){
+        try {
+            await(append(record(COMMIT, transactionId, null), 0));
+            return true;
+        }
+        catch (IOException e){
+            LOG.error("commit of "+transactionId+" not logged, the delete is aborted", e);
+            return false;
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Logs the abort of a transaction, not waiting for the disk
+     *
+     * @param transactionId the id of the transaction
+     */
+    void abort(long transactionId){
+        appendQuietly(record(ABORT, transactionId, null), 0);
+    }
+
+    /**
+     * Logs the end of a transaction, once the decision is carried out
+     *
+     * @param transactionId the id of the transaction
+     */
+    void end(long transactionId){
+        appendQuietly(record(END, transactionId, null), -1);
+    }
+
+    /**
+     * Waits until all the appended records are on the disk
+     *
+     * @throws IOException if the records can not be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sync() throws IOException, InterruptedException {
+        long sequence;
+        lock.lock();
+        try {
+            sequence = appendedSequence;
+        }
+        finally {
+            lock.unlock();
+        }
+        await(sequence);
+    }
+
+    /**
+     * Returns the number of appended records not yet forced to the disk
+     *
+     * @return the records waiting for the writer thread or its fsync
+     */
+    long unwrittenRecords(){
+        lock.lock();
+        try {
+            return appendedSequence - writtenSequence;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true){
+            byte[] records;
+            long sequence;
+            lock.lock();
+            try {
+                while (0 == pending.size() && !closed){
+                    appended.awaitUninterruptibly();
+                }
+                if (0 == pending.size()) break;
+                records = pending.toByteArray();
+                pending = new ByteArrayOutputStream(Math.max(32, records.length));
+                sequence = appendedSequence;
+            }
+            finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(records);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+            }
+            catch (IOException e){
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (null != error){
+                    failure = error;
+                }
+                else {
+                    writtenSequence = sequence;
+                    compactIfIdle();
+                }
+                written.signalAll();
+                if (null != failure) break;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        lock.lock();
+        try {
+            stopped = true;
+            written.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        Util.closeSilently(channel);
+    }
+
+    /**
+     * Stops the writer once the appended records are written
+     */
+    @Override
+    protected void onTerminate() throws Throwable {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signalAll();
+            written.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        // the writer finishes its last write first, an interrupt would close the channel
+        if (isAlive() && Thread.currentThread() != this) join(1000);
+        else Util.closeSilently(channel);
+    }
+
+    /**
+     * Empties the log when no transaction is in progress, called holding the lock
+     * once everything appended is written
+     */
+    private void compactIfIdle(){
+        if (0 != openTransactions || 0 != pending.size()) return;
+        try {
+            if (channel.size() > COMPACT_SIZE){
+                channel.truncate(0);
+                channel.position(0);
+                if (LOG.isDebugEnabled()) LOG.debug("transaction log compacted");
+            }
+        }
+        catch (IOException e){
+            failure = e;
+        }
+    }
+
+    private void appendQuietly(byte[] record, int openDelta){
+        try {
+            append(record, openDelta);
+        }
+        catch (IOException e){
+            LOG.error("transaction record not logged", e);
+        }
+    }
+
+    /**
+     * Queues a record for the writer thread
+     *
+     * @param record the encoded record
+     * @param openDelta 1 for a record starting a transaction, -1 for a record ending it, 0 otherwise
+     * @return the sequence number of the record
+     * @throws IOException if the log failed or is closed
+     */
+    private long append(byte[] record, int openDelta) throws IOException {
+        lock.lock();
+        try {
+            if (null != failure) throw failure;
+            if (closed) throw new IOException("transaction log is closed");
+            pending.write(record, 0, record.length);
+            openTransactions += openDelta;
+            appended.signal();
+            return ++appendedSequence;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record of the sequence number is written and forced to the disk
+     */
+    private void await(long sequence) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (writtenSequence < sequence && null == failure && !stopped){
+                written.await();
+            }
+            if (writtenSequence < sequence){
+                throw null != failure ? failure : new IOException("transaction log is closed");
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the records from the start of the log, cutting it after the last valid record
+     *
+     * @return the transactions without an end record
+     */
+    private List<Transaction> replay() throws IOException {
+        Map<Long, Transaction> transactions = new LinkedHashMap<>();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        long size = channel.size();
+        while (position + RECORD_HEADER_SIZE <= size){
+            header.clear();
+            if (channel.read(header, position) < RECORD_HEADER_SIZE) break;
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) break;
+            ByteBuffer body = ByteBuffer.allocate(length);
+            while (body.hasRemaining() && channel.read(body, position + RECORD_HEADER_SIZE + body.position()) > 0);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, length);
+            if (body.hasRemaining() || (int) crc.getValue() != checksum) break;
+            long transactionId = apply(transactions, new DataInputStream(new ByteArrayInputStream(body.array())));
+            lastTransactionId = Math.max(lastTransactionId, transactionId);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (position < size){
+            LOG.warn("transaction log cut, the rest is torn", "position", position, "size", size);
+            channel.truncate(position);
+        }
+        channel.position(position);
+        return new ArrayList<>(transactions.values());
+    }
+
+    /**
+     * Applies a record to the transactions read so far
+     *
+     * @return the transaction id of the record
+     */
+    private static long apply(Map<Long, Transaction> transactions, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long transactionId = in.readLong();
+        if (BEGIN == type){
+            Transaction transaction = new Transaction(transactionId);
+            for (int i = in.readInt(); i > 0; i--) transaction.filenames.add(in.readUTF());
+            for (int i = in.readInt(); i > 0; i--) transaction.voters.add(in.readUTF());
+            // the requester follows the voters, a record written by an older server has none
+            if (in.available() > 0) transaction.requester = in.readUTF();
+            transactions.put(transactionId, transaction);
+            return transactionId;
+        }
+        Transaction transaction = transactions.get(transactionId);
+        if (null == transaction) return transactionId;
+        switch (type){
+            case VOTE:
+            case ABORT:
+                // only a logged commit decides a delete, the votes and the aborts do not change the recovery
+                break;
+            case COMMIT:
+                transaction.committed = true;
+                break;
+            case END:
+                transactions.remove(transactionId);
+                break;
+            default:
+                throw new IOException("unknown record type "+type);
+        }
+        return transactionId;
+    }
+
+    private static byte[] begin(long transactionId, Collection<String> filenames, Collection<String> voters, String requester){
+        return record(BEGIN, transactionId, out -> {
+            out.writeInt(filenames.size());
+            for (String filename : filenames) out.writeUTF(filename);
+            out.writeInt(voters.size());
+            for (String voter : voters) out.writeUTF(voter);
+            out.writeUTF(null == requester ? "" : requester);
+        });
+    }
+
+    /**
+     * Encodes a record with its length and CRC32
+     */
+    private static byte[] record(byte type, long transactionId, RecordWriter writer){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeLong(transactionId);
+            if (null != writer) writer.write(out);
+            out.flush();
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+            record.putInt(0, record.capacity() - RECORD_HEADER_SIZE);
+            record.putInt(4, (int) crc.getValue());
+            return record.array();
+        }
+        catch (IOException e){
+            // never thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the fields of a record after its type and transaction id
+     */
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A transaction read back from the log
+     */
+    static class Transaction {
+        private final long transactionId;
+        private final List<String> filenames = new ArrayList<>();
+        private final Set<String> voters = new HashSet<>();
+        private String requester;
+        private boolean committed = false;
+
+        Transaction(long transactionId){
+            this.transactionId = transactionId;
+        }
+
+        long getTransactionId(){
+            return transactionId;
+        }
+
+        List<String> getFilenames(){
+            return filenames;
+        }
+
+        /**
+         * Returns the clients told the outcome of the delete, its requester and its voters
+         *
+         * @return the usernames of the clients
+         */
+        Set<String> getUsernames(){
+            Set<String> usernames = new LinkedHashSet<>();
+            if (Util.isNotEmptyString(requester)) usernames.add(requester);
+            usernames.addAll(voters);
+            return usernames;
+        }
+
+        /**
+         * Returns weather the files are deleted, only if the commit was logged before the server
+         * stopped. Any other transaction is presumed aborted, even with the YES of all its voters,
+         * since its RESTORE may already be sent while its abort record was not yet on the disk.
+         *
+         * @return true to finish the delete, false to abort it
+         */
+        boolean isCommitted(){
+            return committed;
+        }
+    }
+}
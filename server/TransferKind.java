@@ -0,0 +1,27 @@
+package server;
+
+/**
+ *
+ * @author Aiman
+ */
+
+/**
+ * The kinds of file transfers the server runs, each one measured on its own
+ */
+public enum TransferKind {
+
+    /**
+     * A file received from the client which pushed it
+     */
+    PUSH,
+
+    /**
+     * A file sent to the client which pulled it
+     */
+    PULL,
+
+    /**
+     * A pushed file sent by the server to a subscribed client
+     */
+    REPLICA
+}